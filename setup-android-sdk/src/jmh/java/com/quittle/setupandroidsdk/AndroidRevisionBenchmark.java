@@ -0,0 +1,95 @@
+package com.quittle.setupandroidsdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares parsing revisions with the hand-written parser, with and without the interning cache, to the regular
+ * expression it replaced, and measures comparing parsed revisions, as done when picking the latest one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AndroidRevisionBenchmark {
+    private static final Pattern FULL_REVISION_PATTERN =
+            Pattern.compile("\\s*([0-9]+)(?:\\.([0-9]+)(?:\\.([0-9]+))?)?([\\s-]*)?(?:rc([0-9]+))?\\s*");
+
+    /**
+     * Revisions as they appear in repository manifests and package.xml files
+     */
+    private static final String[] REVISIONS = {
+        "30", "33", "30.0.3", "33.0.1", "34.0.0 rc3", "21.4.7075529", "25.1.8937393", "3.18.1", "3.22.1",
+        "31.3.14", "32.1.10", "1", "9", "2.1", "34.0.0-rc1", "8.0", "11.0",
+    };
+
+    private AndroidRevision[] parsed;
+
+    @Setup
+    public void parse() {
+        parsed = new AndroidRevision[REVISIONS.length];
+        for (int i = 0; i < REVISIONS.length; i++) {
+            parsed[i] = AndroidRevision.parseRevision(REVISIONS[i]);
+        }
+    }
+
+    /**
+     * Parses with the regular expression, as {@link AndroidRevision} did before the hand-written parser
+     */
+    private static AndroidRevision parseWithPattern(final String revision) {
+        final Matcher m = FULL_REVISION_PATTERN.matcher(revision);
+        if (!m.matches()) {
+            throw new NumberFormatException("Invalid revision: " + revision);
+        }
+        final int major = Integer.parseInt(m.group(1));
+        final int minor = m.group(2) == null ? AndroidRevision.IMPLICIT_MINOR_REV : Integer.parseInt(m.group(2));
+        final int micro = m.group(3) == null ? AndroidRevision.IMPLICIT_MICRO_REV : Integer.parseInt(m.group(3));
+        if (m.group(5) == null) {
+            return new AndroidRevision(major, minor, micro, AndroidRevision.NOT_A_PREVIEW, " ");
+        }
+        return new AndroidRevision(major, minor, micro, Integer.parseInt(m.group(5)), m.group(4));
+    }
+
+    @Benchmark
+    public void regex(final Blackhole blackhole) {
+        for (final String revision : REVISIONS) {
+            blackhole.consume(parseWithPattern(revision));
+        }
+    }
+
+    @Benchmark
+    public void handWritten(final Blackhole blackhole) {
+        for (final String revision : REVISIONS) {
+            blackhole.consume(AndroidRevision.parseRevisionImpl(revision, true, true));
+        }
+    }
+
+    @Benchmark
+    public void interned(final Blackhole blackhole) {
+        for (final String revision : REVISIONS) {
+            blackhole.consume(AndroidRevision.parseRevision(revision));
+        }
+    }
+
+    @Benchmark
+    public void compareTo(final Blackhole blackhole) {
+        for (int i = 1; i < parsed.length; i++) {
+            blackhole.consume(parsed[i - 1].compareTo(parsed[i]));
+        }
+    }
+}
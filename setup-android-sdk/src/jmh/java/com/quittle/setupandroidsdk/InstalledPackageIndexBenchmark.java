@@ -0,0 +1,63 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures detecting the packages installed in an SDK root, which every build does while configuring, both scanning
+ * the SDK root from scratch and checking requested packages against it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstalledPackageIndexBenchmark {
+    /**
+     * How many files are installed across the packages
+     */
+    @Param({"10000", "50000"})
+    public int files;
+
+    private File sdkRoot;
+
+    @Setup
+    public void setUp() throws IOException {
+        sdkRoot = Files.createTempDirectory("installed-package-index-benchmark").toFile();
+        SyntheticSdk.writeSdkRoot(sdkRoot, files);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(sdkRoot);
+    }
+
+    @Benchmark
+    public Map<String, AndroidRevision> scan() {
+        return new InstalledPackageIndex(sdkRoot).getPackages();
+    }
+
+    @Benchmark
+    public Set<String> getMissingPackages() {
+        return new InstalledPackageIndex(sdkRoot).getMissingPackages(SyntheticSdk.getPackages());
+    }
+}
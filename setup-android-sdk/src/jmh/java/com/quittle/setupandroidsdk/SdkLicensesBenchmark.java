@@ -0,0 +1,82 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures synchronizing the licenses directory of an SDK root with a directory of accepted licenses, which builds
+ * setting {@code licensesDirectory} do while configuring. Usually nothing changed since the last build, so the
+ * fingerprint of the source matches. When it doesn't, every license file is compared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SdkLicensesBenchmark {
+    /**
+     * The licenses sdkmanager may ask to accept
+     */
+    private static final String[] LICENSES = {
+        "android-sdk-license", "android-sdk-preview-license", "android-sdk-arm-dbt-license", "android-googletv-license",
+        "google-gdk-license", "intel-android-extra-license", "mips-android-sysimage-license",
+    };
+
+    private File directory;
+    private File source;
+    private File sdkRoot;
+    private long lastModified;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sdk-licenses-benchmark").toFile();
+        source = new File(directory, "licenses");
+        sdkRoot = new File(directory, "sdk");
+        for (final String license : LICENSES) {
+            FileUtils.writeStringToFile(new File(source, license),
+                    "\n" + SdkLicenses.hash(license + " 1") + "\n" + SdkLicenses.hash(license + " 2"),
+                    StandardCharsets.UTF_8);
+        }
+        SdkLicenses.synchronize(source, sdkRoot);
+        lastModified = new File(source, LICENSES[0]).lastModified();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public boolean unchanged() throws IOException {
+        return SdkLicenses.synchronize(source, sdkRoot);
+    }
+
+    /**
+     * Touches a source license without changing its contents, so the fingerprint misses but nothing is written
+     */
+    @Benchmark
+    public boolean touched() throws IOException {
+        lastModified += 1000;
+        if (!new File(source, LICENSES[0]).setLastModified(lastModified)) {
+            throw new IOException("Unable to touch " + LICENSES[0]);
+        }
+        return SdkLicenses.synchronize(source, sdkRoot);
+    }
+}
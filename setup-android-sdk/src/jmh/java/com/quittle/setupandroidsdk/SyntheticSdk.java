@@ -0,0 +1,105 @@
+package com.quittle.setupandroidsdk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates SDK roots and package archives shaped like real ones for the benchmarks. Installed platforms, build tools,
+ * system images and NDKs hold tens of thousands of files between them, so the generated trees do too.
+ */
+final class SyntheticSdk {
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int FILE_SIZE = 512;
+
+    private SyntheticSdk() {}
+
+    /**
+     * Gets the packages installed in the generated SDK roots
+     * @return The sdkmanager package paths
+     */
+    static List<String> getPackages() {
+        final List<String> packages = new ArrayList<>();
+        for (int api = 24; api <= 34; api++) {
+            packages.add("platforms;android-" + api);
+            packages.add("sources;android-" + api);
+            packages.add("system-images;android-" + api + ";google_apis;x86_64");
+        }
+        for (int major = 28; major <= 34; major++) {
+            packages.add("build-tools;" + major + ".0.0");
+        }
+        packages.add("ndk;25.2.9519653");
+        packages.add("ndk;26.1.10909125");
+        packages.add("cmake;3.22.1");
+        packages.add("platform-tools");
+        packages.add("emulator");
+        return packages;
+    }
+
+    /**
+     * Writes an SDK root with the {@link #getPackages packages} installed, each described by a {@code package.xml}
+     * like the ones sdkmanager writes
+     * @param sdkRoot The directory to write the SDK root to
+     * @param files How many files to spread across the packages
+     * @throws IOException if the SDK root could not be written
+     */
+    static void writeSdkRoot(final File sdkRoot, final int files) throws IOException {
+        final List<String> packages = getPackages();
+        final Random random = new Random(0);
+        for (int i = 0; i < packages.size(); i++) {
+            final String packagePath = packages.get(i);
+            final File packageDirectory = new File(sdkRoot, packagePath.replace(';', '/'));
+            final int packageFiles = files / packages.size() + (i < files % packages.size() ? 1 : 0);
+            writeFiles(packageDirectory, packageFiles, random);
+            // Packages versioned in their path, like build-tools;34.0.0, must be installed at that revision
+            final String lastSegment = packagePath.substring(packagePath.lastIndexOf(';') + 1);
+            final AndroidRevision revision = Character.isDigit(lastSegment.charAt(0))
+                    ? AndroidRevision.parseRevision(lastSegment)
+                    : new AndroidRevision(1);
+            final String packageXml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><ns2:repository "
+                    + "xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\"><localPackage path=\""
+                    + packagePath + "\" obsolete=\"false\"><revision><major>" + revision.getMajor() + "</major><minor>"
+                    + revision.getMinor() + "</minor><micro>" + revision.getMicro() + "</micro></revision>"
+                    + "<display-name>" + packagePath + "</display-name></localPackage></ns2:repository>";
+            Files.write(new File(packageDirectory, "package.xml").toPath(),
+                    packageXml.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a package archive, holding a single top-level directory like Google's archives do
+     * @param zip The archive to write
+     * @param files How many files the archive holds
+     * @throws IOException if the archive could not be written
+     */
+    static void writeArchive(final File zip, final int files) throws IOException {
+        final Random random = new Random(1);
+        final byte[] contents = new byte[FILE_SIZE];
+        try (final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (int i = 0; i < files; i++) {
+                random.nextBytes(contents);
+                zos.putNextEntry(new ZipEntry("package/lib/dir" + i / FILES_PER_DIRECTORY + "/file" + i + ".bin"));
+                zos.write(contents);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    private static void writeFiles(final File directory, final int files, final Random random) throws IOException {
+        final byte[] contents = new byte[FILE_SIZE];
+        for (int i = 0; i < files; i++) {
+            final File subdirectory = new File(directory, "lib/dir" + i / FILES_PER_DIRECTORY);
+            Files.createDirectories(subdirectory.toPath());
+            random.nextBytes(contents);
+            Files.write(new File(subdirectory, "file" + i + ".bin").toPath(), contents);
+        }
+        Files.createDirectories(directory.toPath());
+    }
+}
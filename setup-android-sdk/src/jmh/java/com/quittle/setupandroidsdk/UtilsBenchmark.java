@@ -0,0 +1,44 @@
+package com.quittle.setupandroidsdk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading constants via reflection, as done to find the minimum build tools revision of whichever version of
+ * the Android Gradle plugin is applied. All but one of the classes tried are missing, which is the expensive case.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UtilsBenchmark {
+    @Benchmark
+    public Optional<String> found() {
+        return Utils.getConstantViaReflection(
+                "com.quittle.setupandroidsdk.SetupAndroidSdkExtension", "DEFAULT_SDK_TOOLS_VERSION", String.class);
+    }
+
+    @Benchmark
+    public Optional<Object> missingClass() {
+        return Utils.getConstantViaReflection(
+                "com.android.builder.core.AndroidBuilder", "MIN_BUILD_TOOLS_REV", Object.class);
+    }
+
+    @Benchmark
+    public Optional<Object> missingField() {
+        return Utils.getConstantViaReflection(
+                "com.quittle.setupandroidsdk.SetupAndroidSdkExtension", "MIN_BUILD_TOOLS_REV", Object.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures extracting a package archive the size of a platform or NDK. Each invocation extracts into an empty
+ * directory, which is deleted outside of the measurement.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipExtractorBenchmark {
+    /**
+     * How many files the archive holds
+     */
+    @Param({"10000", "50000"})
+    public int files;
+
+    private File directory;
+    private File zip;
+    private File destination;
+
+    @Setup(Level.Trial)
+    public void writeArchive() throws IOException {
+        directory = Files.createTempDirectory("zip-extractor-benchmark").toFile();
+        zip = new File(directory, "package.zip");
+        SyntheticSdk.writeArchive(zip, files);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Setup(Level.Iteration)
+    public void pickDestination() {
+        destination = new File(directory, "extracted");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDestination() throws IOException {
+        FileUtils.deleteDirectory(destination);
+    }
+
+    @Benchmark
+    public long extract() throws IOException {
+        return ZipExtractor.extract(zip, destination);
+    }
+}
@@ -1,7 +1,7 @@
 package com.quittle.setupandroidsdk;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -25,9 +25,13 @@ public class AndroidRevision implements Comparable<AndroidRevision> {
 
     public static final AndroidRevision NOT_SPECIFIED = new AndroidRevision(MISSING_MAJOR_REV);
 
-    private static final Pattern FULL_REVISION_PATTERN =
-            //                   1=major       2=minor       3=micro              4=preview
-            Pattern.compile("\\s*([0-9]+)(?:\\.([0-9]+)(?:\\.([0-9]+))?)?([\\s-]*)?(?:rc([0-9]+))?\\s*");
+    /**
+     * Revisions parsed by {@link #parseRevision}, keyed by the string they were parsed from. Instances are immutable,
+     * so the many copies of the same few revision strings in manifests and package.xml files share one instance and
+     * are parsed once. Once full, further revisions are parsed but not cached.
+     */
+    private static final int MAX_INTERNED_REVISIONS = 4096;
+    private static final ConcurrentMap<String, AndroidRevision> INTERNED_REVISIONS = new ConcurrentHashMap<>();
 
     private final int mMajor;
     private final int mMinor;
@@ -92,7 +96,18 @@ public class AndroidRevision implements Comparable<AndroidRevision> {
      */
     public static AndroidRevision parseRevision(String revision)
             throws NumberFormatException {
-        return parseRevisionImpl(revision, true /*supportMinorMicro*/, true /*supportPreview*/);
+        if (revision == null) {
+            throw new NumberFormatException("revision is <null>"); //$NON-NLS-1$
+        }
+        AndroidRevision interned = INTERNED_REVISIONS.get(revision);
+        if (interned != null) {
+            return interned;
+        }
+        AndroidRevision parsed = parseRevisionImpl(revision, true /*supportMinorMicro*/, true /*supportPreview*/);
+        if (INTERNED_REVISIONS.size() < MAX_INTERNED_REVISIONS) {
+            interned = INTERNED_REVISIONS.putIfAbsent(revision, parsed);
+        }
+        return interned == null ? parsed : interned;
     }
 
     protected static AndroidRevision parseRevisionImpl(String revision,
@@ -103,62 +118,131 @@ public class AndroidRevision implements Comparable<AndroidRevision> {
             throw new NumberFormatException("revision is <null>"); //$NON-NLS-1$
         }
 
-        Throwable cause = null;
-        String error = null;
-        try {
-            Matcher m = FULL_REVISION_PATTERN.matcher(revision);
-            if (m != null && m.matches()) {
-                int major = Integer.parseInt(m.group(1));
-
-                int minor = IMPLICIT_MINOR_REV;
-                int micro = IMPLICIT_MICRO_REV;
-                int preview = NOT_A_PREVIEW;
-                String previewSeparator = " ";
-
-                String s = m.group(2);
-                if (s != null) {
-                    if (!supportMinorMicro) {
-                        error = " -- Minor number not supported";   //$NON-NLS-1$
-                    } else {
-                        minor = Integer.parseInt(s);
-                    }
-                }
+        // Hand-written equivalent of the pattern below that reads the numbers in place, without allocating
+        // substrings or a matcher:
+        //   \s* major ('.' minor ('.' micro)?)? [\s-]* ('rc' preview)? \s*
+        final int length = revision.length();
+        int i = skipWhitespace(revision, 0);
+        int end = skipDigits(revision, i);
+        final int major = parseDigits(revision, i, end);
+        if (major < 0) {
+            throw invalidRevision(revision, null);
+        }
+        i = end;
 
-                s = m.group(3);
-                if (s != null) {
-                    if (!supportMinorMicro) {
-                        error = " -- Micro number not supported";   //$NON-NLS-1$
-                    } else {
-                        micro = Integer.parseInt(s);
-                    }
-                }
+        int minor = IMPLICIT_MINOR_REV;
+        int micro = IMPLICIT_MICRO_REV;
+        int preview = NOT_A_PREVIEW;
+        String previewSeparator = " ";
+        String error = null;
 
-                s = m.group(5); // Group 4 is the preview separator
-                if (s != null) {
-                    if (!supportPreview) {
-                        error = " -- Preview number not supported";   //$NON-NLS-1$
-                    } else {
-                        preview = Integer.parseInt(s);
-                        previewSeparator = m.group(4);
-                    }
+        if (isDotThenDigit(revision, i)) {
+            end = skipDigits(revision, i + 1);
+            if (!supportMinorMicro) {
+                error = " -- Minor number not supported";   //$NON-NLS-1$
+            } else {
+                minor = parseDigits(revision, i + 1, end);
+            }
+            i = end;
+
+            if (isDotThenDigit(revision, i)) {
+                end = skipDigits(revision, i + 1);
+                if (!supportMinorMicro) {
+                    error = " -- Micro number not supported";   //$NON-NLS-1$
+                } else {
+                    micro = parseDigits(revision, i + 1, end);
                 }
+                i = end;
+            }
+        }
 
-                if (error == null) {
-                    return new AndroidRevision(major, minor, micro, preview, previewSeparator);
-                }
+        final int separatorStart = i;
+        while (i < length && (isWhitespace(revision.charAt(i)) || revision.charAt(i) == '-')) {
+            i++;
+        }
+        final int separatorEnd = i;
+
+        if (revision.startsWith("rc", i) && i + 2 < length && isDigit(revision.charAt(i + 2))) {
+            end = skipDigits(revision, i + 2);
+            if (!supportPreview) {
+                error = " -- Preview number not supported";   //$NON-NLS-1$
+            } else {
+                preview = parseDigits(revision, i + 2, end);
+                previewSeparator = getSeparator(revision, separatorStart, separatorEnd);
             }
-        } catch (Throwable t) {
-            cause = t;
+            i = skipWhitespace(revision, end);
         }
 
-        NumberFormatException n = new NumberFormatException(
+        if (i != length) {
+            throw invalidRevision(revision, null);
+        } else if (error != null || minor < 0 || micro < 0 || preview < 0) {
+            throw invalidRevision(revision, error);
+        }
+        return new AndroidRevision(major, minor, micro, preview, previewSeparator);
+    }
+
+    private static NumberFormatException invalidRevision(String revision, String error) {
+        return new NumberFormatException(
                 "Invalid revision: "        //$NON-NLS-1$
                         + revision
                         + (error == null ? "" : error));
-        if (cause != null) {
-            n.initCause(cause);
+    }
+
+    /** Matches {@code \s} of {@link java.util.regex.Pattern}, which only covers ASCII whitespace. */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDotThenDigit(String s, int i) {
+        return i + 1 < s.length() && s.charAt(i) == '.' && isDigit(s.charAt(i + 1));
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(String s, int i) {
+        while (i < s.length() && isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses the decimal digits in {@code s[start, end)}.
+     * @return The value or -1 if there are no digits or the value does not fit in an int.
+     */
+    private static int parseDigits(String s, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    /** Returns the preview separator, reusing constants for the common ones. */
+    private static String getSeparator(String s, int start, int end) {
+        if (start == end) {
+            return "";
+        } else if (end - start == 1 && s.charAt(start) == ' ') {
+            return " ";
+        } else if (end - start == 1 && s.charAt(start) == '-') {
+            return "-";
         }
-        throw n;
+        return s.substring(start, end);
     }
 
     /**
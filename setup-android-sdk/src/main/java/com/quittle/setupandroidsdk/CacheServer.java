@@ -0,0 +1,330 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A minimal HTTP/1.1 file server serving a directory laid out like the repository, such as a mirror filled by the
+ * {@value SetupAndroidSdkPlugin#MIRROR_TASK_NAME} task, so other machines can use it as their repository. Only
+ * {@code GET} and {@code HEAD} are supported. Files are written straight from the file system to the socket with
+ * {@link FileChannel#transferTo}, single byte ranges are served so downloads can be resumed and split across
+ * connections, and each connection is handled on its own thread from a bounded pool. Every response closes its
+ * connection.
+ */
+final class CacheServer implements Closeable {
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+    private static final String HEADER_END = "\r\n\r\n";
+
+    private final Path root;
+    private final Logger logger;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService executor;
+    private final Thread acceptor;
+
+    /**
+     * Starts serving a directory
+     * @param root The directory to serve
+     * @param address The address to listen on. A port of 0 picks a free port.
+     * @param maxConnections How many connections are served at once. Further connections wait for a free thread.
+     * @param logger Informed of the requests served
+     * @throws IOException if the server could not listen on the address
+     */
+    CacheServer(final Path root, final InetSocketAddress address, final int maxConnections, final Logger logger)
+            throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.logger = logger;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxConnections),
+                Utils.newDaemonThreadFactory("setup-android-sdk-cache-server"));
+        this.acceptor = Utils.newDaemonThreadFactory("setup-android-sdk-cache-acceptor").newThread(this::accept);
+        this.acceptor.start();
+    }
+
+    /**
+     * Gets the port the server listens on
+     * @return The port, which was picked by the OS if the server was started on port 0.
+     */
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and aborts the ones in progress.
+     */
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        executor.shutdownNow();
+        try {
+            acceptor.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (serverChannel.isOpen()) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (final ClosedChannelException e) {
+                return;
+            } catch (final IOException e) {
+                logger.warn("Unable to accept a connection", e);
+                continue;
+            }
+            try {
+                executor.execute(() -> serve(channel));
+            } catch (final RejectedExecutionException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void serve(final SocketChannel channel) {
+        try (final SocketChannel ignored = channel) {
+            channel.socket().setSoTimeout(READ_TIMEOUT_MILLIS);
+            final String header = readHeader(channel.socket().getInputStream());
+            if (header == null) {
+                return;
+            }
+            respond(channel, header);
+        } catch (final IOException e) {
+            logger.debug("Connection from " + channel.socket().getRemoteSocketAddress() + " failed", e);
+        }
+    }
+
+    /**
+     * Reads the request line and headers
+     * @return The header or {@code null} if the client closed the connection before sending one.
+     * @throws IOException if the header could not be read or is too long
+     */
+    private static String readHeader(final InputStream is) throws IOException {
+        // Read a byte at a time so nothing past the header is consumed; a GET or HEAD request has no body anyway
+        final byte[] buffer = new byte[MAX_HEADER_BYTES];
+        int length = 0;
+        while (length < buffer.length) {
+            final int read = is.read();
+            if (read == -1) {
+                return null;
+            }
+            buffer[length++] = (byte) read;
+            if (length >= HEADER_END.length() && buffer[length - 1] == '\n' && buffer[length - 2] == '\r'
+                    && buffer[length - 3] == '\n' && buffer[length - 4] == '\r') {
+                return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+            }
+        }
+        throw new IOException("Request header too long");
+    }
+
+    private void respond(final SocketChannel channel, final String header) throws IOException {
+        final String[] lines = header.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            writeStatus(channel, 400, "Bad Request", "");
+            return;
+        }
+        final String method = requestLine[0];
+        final boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            writeStatus(channel, 405, "Method Not Allowed", "Allow: GET, HEAD\r\n");
+            return;
+        }
+        final Path file = resolve(requestLine[1]);
+        if (file == null || !Files.isRegularFile(file)) {
+            writeStatus(channel, 404, "Not Found", "");
+            logger.info("404 " + requestLine[1]);
+            return;
+        }
+
+        final String range = getHeader(lines, "Range");
+        final String ifModifiedSince = getHeader(lines, "If-Modified-Since");
+        try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = fileChannel.size();
+            // HTTP dates only have second precision
+            final long lastModified = Files.getLastModifiedTime(file).toMillis() / 1000 * 1000;
+            final String lastModifiedHeader = "Last-Modified: " + formatDate(lastModified) + "\r\n";
+            if (range == null && isNotModifiedSince(ifModifiedSince, lastModified)) {
+                writeStatus(channel, 304, "Not Modified", lastModifiedHeader);
+                return;
+            }
+
+            long start = 0;
+            long end = size - 1;
+            final boolean partial = range != null && range.startsWith("bytes=") && !range.contains(",");
+            if (partial) {
+                final long[] bounds = parseRange(range.substring("bytes=".length()).trim(), size);
+                if (bounds == null) {
+                    writeStatus(channel, 416, "Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\n");
+                    return;
+                }
+                start = bounds[0];
+                end = bounds[1];
+            }
+
+            final long length = end - start + 1;
+            final StringBuilder response = new StringBuilder()
+                    .append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n")
+                    .append("Content-Type: ").append(getContentType(file)).append("\r\n")
+                    .append("Content-Length: ").append(length).append("\r\n")
+                    .append("Accept-Ranges: bytes\r\n")
+                    .append(lastModifiedHeader);
+            if (partial) {
+                response.append("Content-Range: bytes ").append(start).append('-').append(end).append('/')
+                        .append(size).append("\r\n");
+            }
+            response.append("Connection: close\r\n\r\n");
+            write(channel, response.toString());
+            if (!head) {
+                long position = start;
+                while (position <= end) {
+                    final long transferred = fileChannel.transferTo(position, end - position + 1, channel);
+                    if (transferred <= 0) {
+                        throw new IOException("Unable to send " + file);
+                    }
+                    position += transferred;
+                }
+            }
+            logger.info((partial ? "206 " : "200 ") + requestLine[1]);
+        }
+    }
+
+    /**
+     * Maps a request target onto a file in the served directory
+     * @return The file or {@code null} if the target is malformed or outside of the directory.
+     */
+    private Path resolve(final String target) {
+        final String path;
+        try {
+            path = new URI(target).getPath();
+        } catch (final URISyntaxException e) {
+            return null;
+        }
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        final Path file = root.resolve(path.substring(1)).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    /**
+     * Parses the bounds of a single byte range, e.g. {@code 0-499}, {@code 500-} or {@code -500}
+     * @return The first and last byte, inclusive, or {@code null} if the range can't be satisfied.
+     */
+    static long[] parseRange(final String range, final long size) {
+        final int dash = range.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            final String first = range.substring(0, dash).trim();
+            final String last = range.substring(dash + 1).trim();
+            final long start;
+            final long end;
+            if (first.isEmpty()) {
+                final long suffixLength = Long.parseLong(last);
+                start = Math.max(0, size - suffixLength);
+                end = size - 1;
+                if (suffixLength <= 0) {
+                    return null;
+                }
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(last));
+            }
+            if (start < 0 || start >= size || end < start) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isNotModifiedSince(final String ifModifiedSince, final long lastModified) {
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            return ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                    .toEpochMilli() >= lastModified;
+        } catch (final DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String getHeader(final String[] lines, final String name) {
+        for (int i = 1; i < lines.length; i++) {
+            final int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return lines[i].substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String getContentType(final Path file) {
+        final String name = file.getFileName().toString().toLowerCase(Locale.US);
+        if (name.endsWith(".xml")) {
+            return "application/xml";
+        } else if (name.endsWith(".zip")) {
+            return "application/zip";
+        }
+        return "application/octet-stream";
+    }
+
+    private static String formatDate(final long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static void writeStatus(final SocketChannel channel,
+                                    final int code,
+                                    final String reason,
+                                    final String headers) throws IOException {
+        write(channel, "HTTP/1.1 " + code + " " + reason + "\r\n" + headers
+                + "Content-Length: 0\r\nConnection: close\r\n\r\n");
+    }
+
+    private static void write(final SocketChannel channel, final String text) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeQuietly(final SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            logger.debug("Unable to close a rejected connection", e);
+        }
+    }
+}
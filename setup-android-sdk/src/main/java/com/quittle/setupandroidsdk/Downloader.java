@@ -0,0 +1,569 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Downloads files from the Android SDK repository and verifies them against the checksums published in the
+ * repository manifest. Files are downloaded to a temporary file next to the destination, which is only moved into
+ * place once verified. Interrupted downloads are resumed with HTTP range requests and large files are fetched as
+ * several ranges in parallel when the server supports it. What was received is kept when a download fails or the
+ * build is killed, along with a state file recording the expected checksum, the server's validator ({@code ETag} or
+ * {@code Last-Modified}) and the progress of each range, so a later download to the same destination resumes it with
+ * {@code If-Range} instead of starting over. The partial file is only discarded if the expected checksum changed, the
+ * server's copy changed or the downloaded file fails verification.
+ */
+final class Downloader {
+    /**
+     * The smallest range worth fetching on its own connection
+     */
+    static final long DEFAULT_MIN_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private static final int MAX_CHUNKS = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".part.properties";
+    /** Not defined by {@link HttpURLConnection} */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    /** How much each range may receive before its progress is recorded again, bounding what a killed build loses */
+    private static final long STATE_SAVE_INTERVAL = 8L * 1024 * 1024;
+
+    private final int retries;
+    private final long retryBackoffMillis;
+    private final long minChunkSize;
+    private final Logger logger;
+    private final LongAdder bytesDownloaded = new LongAdder();
+
+    /**
+     * Creates a downloader
+     * @param retries How many times to retry a failed download
+     * @param retryBackoffMillis How long to wait before the first retry. The wait doubles with each retry.
+     * @param logger Informed of retries
+     */
+    Downloader(final int retries, final long retryBackoffMillis, final Logger logger) {
+        this(retries, retryBackoffMillis, DEFAULT_MIN_CHUNK_SIZE, logger);
+    }
+
+    /**
+     * Creates a downloader
+     * @param retries How many times to retry a failed download
+     * @param retryBackoffMillis How long to wait before the first retry. The wait doubles with each retry.
+     * @param minChunkSize The smallest range to fetch on its own connection. Files smaller than twice this size are
+     *                     fetched over a single connection.
+     * @param logger Informed of retries
+     */
+    Downloader(final int retries, final long retryBackoffMillis, final long minChunkSize, final Logger logger) {
+        this.retries = retries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.minChunkSize = minChunkSize;
+        this.logger = logger;
+    }
+
+    /**
+     * Gets how much this downloader has received so far. Bytes received by attempts that failed count as well, but
+     * the parts of resumed downloads received before this downloader was created don't.
+     * @return The number of bytes received.
+     */
+    long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    /**
+     * Downloads a file, replacing the destination if it already exists. A partial download of the same file left next
+     * to the destination by an earlier call is resumed.
+     * @param url The location to download from
+     * @param destination The file to write to
+     * @param checksumType The {@link MessageDigest} algorithm of the checksum, e.g. {@code SHA-1}
+     * @param checksum The expected lowercase, hex-encoded checksum or {@code null} to skip verification
+     * @return The lowercase, hex-encoded checksum of the downloaded file.
+     * @throws IOException if the download still failed, or the file still did not match the checksum, after all the
+     *                     retries. The destination is left untouched in that case and whatever was received is kept
+     *                     to be resumed later.
+     */
+    String download(final URL url, final File destination, final String checksumType, final String checksum)
+            throws IOException {
+        try {
+            MessageDigest.getInstance(checksumType);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported checksum type " + checksumType, e);
+        }
+
+        Files.createDirectories(destination.getParentFile().toPath());
+        final File partial = new File(destination.getParentFile(), destination.getName() + PARTIAL_SUFFIX);
+        final File stateFile = new File(destination.getParentFile(), destination.getName() + STATE_SUFFIX);
+        final PartialState state = new PartialState(stateFile, url, checksumType, checksum);
+        if (partial.isFile() && state.load()) {
+            logger.info("Resuming the partial download of " + url);
+        } else {
+            Files.deleteIfExists(partial.toPath());
+        }
+        try {
+            IOException failure = null;
+            boolean restarted = false;
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                if (attempt > 0) {
+                    logger.info("Retrying download of " + url + " after: " + failure.getMessage());
+                    backOff(attempt);
+                }
+                try {
+                    if (state.chunks == null) {
+                        planChunks(url, partial, state);
+                        state.save();
+                    }
+                    if (state.chunks.isEmpty()) {
+                        fetch(url, partial, state);
+                    } else {
+                        fetchChunks(url, partial, state);
+                    }
+
+                    final String actual = hash(partial, checksumType);
+                    if (checksum == null || checksum.equals(actual)) {
+                        Files.move(partial.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        return actual;
+                    }
+                    failure = new IOException(
+                            "Checksum mismatch for " + url + ". Expected " + checksum + " but was " + actual);
+                    // The data is bad so the next attempt has to start over
+                    discard(partial, state);
+                } catch (final ChangedException e) {
+                    discard(partial, state);
+                    if (!restarted) {
+                        // Nothing went wrong with the transfer itself, so starting over doesn't use up a retry
+                        logger.info("Restarting the download after: " + e.getMessage());
+                        restarted = true;
+                        attempt--;
+                        continue;
+                    }
+                    failure = e;
+                } catch (final InterruptedIOException e) {
+                    throw e;
+                } catch (final IOException e) {
+                    // Whatever was received is kept and the next attempt resumes from there
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            if (partial.isFile()) {
+                state.save();
+            } else {
+                Files.deleteIfExists(stateFile.toPath());
+            }
+        }
+    }
+
+    private static void discard(final File partial, final PartialState state) throws IOException {
+        Files.deleteIfExists(partial.toPath());
+        state.validator = null;
+        state.chunks = null;
+    }
+
+    private void backOff(final int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(retryBackoffMillis << Math.min(attempt - 1, 20));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a download");
+        }
+    }
+
+    /**
+     * Splits a download into ranges that can be fetched in parallel and preallocates the file for them. The plan, an
+     * empty list of ranges if the file should be fetched over a single connection, and the server's validator are
+     * recorded in the state.
+     */
+    private void planChunks(final URL url, final File partial, final PartialState state) throws IOException {
+        state.chunks = Collections.emptyList();
+        final URLConnection probe = openConnection(url);
+        if (!(probe instanceof HttpURLConnection)) {
+            return;
+        }
+        final HttpURLConnection connection = (HttpURLConnection) probe;
+        final long size;
+        final String acceptRanges;
+        try {
+            connection.setRequestMethod("HEAD");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            size = connection.getContentLengthLong();
+            acceptRanges = connection.getHeaderField("Accept-Ranges");
+            state.validator = getValidator(connection);
+        } finally {
+            connection.disconnect();
+        }
+        if (!"bytes".equalsIgnoreCase(acceptRanges) || size / 2 < minChunkSize) {
+            return;
+        }
+
+        final int count = (int) Math.min(MAX_CHUNKS, size / minChunkSize);
+        final long chunkSize = size / count;
+        final List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final long start = i * chunkSize;
+            chunks.add(new Chunk(start, i == count - 1 ? size - 1 : start + chunkSize - 1));
+        }
+        try (final RandomAccessFile file = new RandomAccessFile(partial, "rw")) {
+            file.setLength(size);
+        }
+        state.chunks = chunks;
+    }
+
+    /**
+     * Fetches the whole file over a single connection, resuming from the end of the partial file if it exists. If the
+     * server's copy changed since the partial file was started, the server sends all of it and it replaces the partial
+     * file. A partial file that already holds the whole file, e.g. because the build was killed while verifying it, is
+     * left as it is.
+     * @throws ChangedException if the partial file is longer than the server's copy
+     */
+    private void fetch(final URL url, final File partial, final PartialState state) throws IOException {
+        final long existing = partial.isFile() ? partial.length() : 0;
+        final URLConnection connection = openConnection(url);
+        boolean append = false;
+        if (connection instanceof HttpURLConnection) {
+            final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            if (existing > 0) {
+                httpConnection.setRequestProperty("Range", "bytes=" + existing + "-");
+                if (state.validator != null) {
+                    httpConnection.setRequestProperty("If-Range", state.validator);
+                }
+            }
+            final int code = httpConnection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                append = true;
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                state.validator = getValidator(httpConnection);
+            } else if (code == HTTP_RANGE_NOT_SATISFIABLE && existing > 0) {
+                final long length = getCompleteLength(httpConnection);
+                httpConnection.disconnect();
+                if (length == existing) {
+                    return;
+                }
+                throw new ChangedException("The partial download of " + url + " is " + existing
+                        + " bytes but the server's copy is " + length + " bytes");
+            } else {
+                httpConnection.disconnect();
+                throw new IOException("Unexpected response " + code + " downloading " + url);
+            }
+        }
+
+        final long expectedLength = connection.getContentLengthLong();
+        long received = 0;
+        try (final InputStream is = connection.getInputStream();
+                final OutputStream os = Files.newOutputStream(partial.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read = is.read(buffer);
+            while (read != -1) {
+                os.write(buffer, 0, read);
+                received += read;
+                bytesDownloaded.add(read);
+                read = is.read(buffer);
+            }
+        }
+        if (expectedLength >= 0 && received != expectedLength) {
+            throw new IOException("Connection closed after " + received + " of " + expectedLength + " bytes of " + url);
+        }
+    }
+
+    /**
+     * Fetches the incomplete ranges of a file in parallel, each over its own connection.
+     */
+    private void fetchChunks(final URL url, final File partial, final PartialState state) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(state.chunks.size(),
+                Utils.newDaemonThreadFactory("setup-android-sdk-download"));
+        try (final FileChannel channel = FileChannel.open(partial.toPath(), StandardOpenOption.WRITE)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final Chunk chunk : state.chunks) {
+                if (!chunk.isComplete()) {
+                    futures.add(executor.submit(() -> {
+                        fetchChunk(url, channel, chunk, state);
+                        return null;
+                    }));
+                }
+            }
+            IOException failure = null;
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (final ExecutionException e) {
+                    if (failure == null || e.getCause() instanceof ChangedException) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Unable to download " + url, e.getCause());
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + url);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void fetchChunk(final URL url, final FileChannel channel, final Chunk chunk, final PartialState state)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) openConnection(url);
+        connection.setRequestProperty("Range", "bytes=" + (chunk.start + chunk.written) + "-" + chunk.end);
+        if (state.validator != null) {
+            connection.setRequestProperty("If-Range", state.validator);
+        }
+        final int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            if (code == HttpURLConnection.HTTP_OK && state.validator != null) {
+                throw new ChangedException(url + " changed since its partial download was started");
+            }
+            throw new IOException("Unexpected response " + code + " downloading a range of " + url);
+        }
+
+        try (final InputStream is = connection.getInputStream()) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read = is.read(buffer, 0, chunk.getReadLength(buffer.length));
+            while (read > 0) {
+                final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer, chunk.start + chunk.written + byteBuffer.position());
+                }
+                chunk.written += read;
+                bytesDownloaded.add(read);
+                if (chunk.written - chunk.saved >= STATE_SAVE_INTERVAL) {
+                    chunk.saved = chunk.written;
+                    state.save();
+                }
+                read = chunk.isComplete() ? -1 : is.read(buffer, 0, chunk.getReadLength(buffer.length));
+            }
+        }
+        if (!chunk.isComplete()) {
+            throw new IOException("Connection closed while downloading a range of " + url);
+        }
+    }
+
+    /**
+     * Gets the length of the whole file from the {@code Content-Range} header of a response to a range request, e.g.
+     * {@code bytes *}{@code /1234}
+     * @return The length or -1 if the server didn't send it.
+     */
+    private static long getCompleteLength(final HttpURLConnection connection) {
+        final String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets what identifies the version of a file on the server
+     * @return The {@code ETag}, unless it is weak, or else the {@code Last-Modified} date, or {@code null} if the
+     *         server sent neither.
+     */
+    private static String getValidator(final URLConnection connection) {
+        final String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    private static URLConnection openConnection(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    /**
+     * Computes the checksum of a file
+     * @param file The file to hash
+     * @param checksumType The {@link MessageDigest} algorithm, e.g. {@code SHA-1}
+     * @return The lowercase, hex-encoded checksum.
+     * @throws IOException if the file could not be read or the algorithm is not supported
+     */
+    static String hash(final File file, final String checksumType) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(checksumType);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported checksum type " + checksumType, e);
+        }
+        try (final InputStream is = Files.newInputStream(file.toPath())) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read = is.read(buffer);
+            while (read != -1) {
+                digest.update(buffer, 0, read);
+                read = is.read(buffer);
+            }
+        }
+        return Utils.toHexString(digest.digest());
+    }
+
+    /**
+     * An inclusive byte range of a file being downloaded in parallel, tracking how much of it has been received so
+     * far so a retry can resume it.
+     */
+    private static final class Chunk {
+        private final long start;
+        private final long end;
+        private volatile long written;
+        private long saved;
+
+        private Chunk(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private boolean isComplete() {
+            return start + written > end;
+        }
+
+        private int getReadLength(final int bufferSize) {
+            return (int) Math.min(bufferSize, end + 1 - start - written);
+        }
+    }
+
+    /**
+     * Thrown when the server's copy of a file changed while it was partially downloaded, so it has to start over
+     */
+    private static final class ChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ChangedException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * What is known about a partial download, kept in a file next to it so a later download can resume it
+     */
+    private static final class PartialState {
+        private static final String URL_PROPERTY = "url";
+        private static final String CHECKSUM_TYPE_PROPERTY = "checksumType";
+        private static final String CHECKSUM_PROPERTY = "checksum";
+        private static final String VALIDATOR_PROPERTY = "validator";
+        private static final String CHUNKS_PROPERTY = "chunks";
+
+        private final File file;
+        private final URL url;
+        private final String checksumType;
+        private final String checksum;
+        /** The server's {@code ETag} or {@code Last-Modified} date of the file or {@code null} if unknown */
+        private volatile String validator;
+        /** The planned ranges, empty if fetched over a single connection, or {@code null} if not planned yet */
+        private volatile List<Chunk> chunks;
+
+        private PartialState(final File file, final URL url, final String checksumType, final String checksum) {
+            this.file = file;
+            this.url = url;
+            this.checksumType = checksumType;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Reads the state saved by an earlier download
+         * @return {@code true} if it was a download of the same file with the same expected checksum, so it can be
+         *         resumed.
+         */
+        private boolean load() {
+            final Properties properties = new Properties();
+            try (final InputStream is = Files.newInputStream(file.toPath())) {
+                properties.load(is);
+            } catch (final IOException e) {
+                return false;
+            }
+            if (!url.toString().equals(properties.getProperty(URL_PROPERTY))
+                    || !checksumType.equals(properties.getProperty(CHECKSUM_TYPE_PROPERTY))
+                    || !Objects.equals(checksum, properties.getProperty(CHECKSUM_PROPERTY))) {
+                return false;
+            }
+            validator = properties.getProperty(VALIDATOR_PROPERTY);
+            final String savedChunks = properties.getProperty(CHUNKS_PROPERTY);
+            if (savedChunks == null) {
+                return true;
+            }
+            final List<Chunk> parsed = new ArrayList<>();
+            try {
+                for (final String savedChunk : savedChunks.split(",", -1)) {
+                    if (savedChunk.isEmpty()) {
+                        continue;
+                    }
+                    final String[] fields = savedChunk.split(":", -1);
+                    final Chunk chunk = new Chunk(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                    chunk.written = Long.parseLong(fields[2]);
+                    chunk.saved = chunk.written;
+                    parsed.add(chunk);
+                }
+            } catch (final NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return false;
+            }
+            chunks = parsed;
+            return true;
+        }
+
+        /**
+         * Records the state, replacing the file atomically so a killed build never leaves a partial one behind
+         * @throws IOException if the state could not be written
+         */
+        private synchronized void save() throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty(URL_PROPERTY, url.toString());
+            properties.setProperty(CHECKSUM_TYPE_PROPERTY, checksumType);
+            if (checksum != null) {
+                properties.setProperty(CHECKSUM_PROPERTY, checksum);
+            }
+            if (validator != null) {
+                properties.setProperty(VALIDATOR_PROPERTY, validator);
+            }
+            final List<Chunk> currentChunks = chunks;
+            if (currentChunks != null) {
+                properties.setProperty(CHUNKS_PROPERTY, currentChunks.stream()
+                        .map(chunk -> chunk.start + ":" + chunk.end + ":" + chunk.written)
+                        .collect(Collectors.joining(",")));
+            }
+            final File temp = new File(file.getPath() + ".tmp");
+            try (final OutputStream os = Files.newOutputStream(temp.toPath())) {
+                properties.store(os, null);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
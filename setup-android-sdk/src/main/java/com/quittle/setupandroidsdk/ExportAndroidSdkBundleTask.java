@@ -0,0 +1,84 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Installs the packages of every project in the build and bundles them, along with the command line tools, into a
+ * single archive that the {@value SetupAndroidSdkPlugin#IMPORT_BUNDLE_TASK_NAME} task or the
+ * {@link SetupAndroidSdkExtension#setSdkBundle sdkBundle} setting restores in one step. Only those packages and their
+ * dependencies are bundled, not whatever else the SDK root holds. The task is cacheable, keyed by the packages, with
+ * package specs resolved to exact packages, the command line tools version and the host platform, so with a remote
+ * build cache fresh machines fetch the whole SDK as one artifact instead of downloading and extracting each package.
+ */
+@CacheableTask
+public abstract class ExportAndroidSdkBundleTask extends DefaultTask {
+    /**
+     * Creates the task. Instantiated by Gradle.
+     */
+    public ExportAndroidSdkBundleTask() {
+        getPlatform().convention(getProject().provider(SdkInstallerService::getSdkToolsPlatform));
+    }
+
+    /**
+     * The service installing and bundling the packages
+     * @return The service property
+     */
+    @Internal
+    public abstract Property<SdkInstallerService> getInstallerService();
+
+    /**
+     * The exact sdkmanager packages to bundle, with any package specs already resolved
+     * @return The packages property
+     */
+    @Input
+    public abstract SetProperty<String> getPackages();
+
+    /**
+     * The version of the command line tools to bundle
+     * @return The version property
+     */
+    @Input
+    public abstract Property<String> getSdkToolsVersion();
+
+    /**
+     * The platform the bundle is for, as packages and the command line tools differ between platforms
+     * @return The platform property
+     */
+    @Input
+    public abstract Property<String> getPlatform();
+
+    /**
+     * Where to write the bundle
+     * @return The bundle property
+     */
+    @OutputFile
+    public abstract RegularFileProperty getBundle();
+
+    /**
+     * The settings of the {@link SetupAndroidSdkExtension} to install with
+     * @return The options property
+     */
+    @Internal
+    abstract Property<InstallOptions> getOptions();
+
+    /**
+     * Installs any missing packages and writes the bundle.
+     */
+    @TaskAction
+    public void export() {
+        final SdkInstallerService service = getInstallerService().get();
+        final InstallOptions options = getOptions().get();
+        service.setupLicences(options);
+        service.installSdkManager(options);
+        service.installPackages(getPath(), getPackages().get(), options);
+        service.exportBundle(getPackages().get(), getBundle().get().getAsFile());
+    }
+}
@@ -0,0 +1,162 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coordinates mutations of shared directories, like the SDK root, between threads and between processes. Each lock
+ * is backed by a lock file locked with {@link FileChannel#lock}. Because the JVM only allows a single file lock per
+ * file, threads within the same process are coordinated with an in-memory read-write lock first.
+ */
+final class FileLocks {
+    private static final ConcurrentMap<String, PathLock> PATH_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * A set of held locks. Closing it releases all of them.
+     */
+    static final class HeldLocks implements AutoCloseable {
+        private final List<Runnable> releases = new ArrayList<>();
+
+        private HeldLocks() {}
+
+        @Override
+        public void close() {
+            // Release in the reverse order of acquisition
+            for (int i = releases.size() - 1; i >= 0; i--) {
+                releases.get(i).run();
+            }
+            releases.clear();
+        }
+    }
+
+    /**
+     * Acquires a lock, blocking until it becomes available.
+     * @param lockFile The file backing the lock. It is created if it does not exist.
+     * @param shared {@code true} to acquire a shared lock, which only excludes exclusive holders.
+     * @param logger Informed when the lock is held by another process and the build has to wait for it.
+     * @return The held lock, to be closed when done.
+     * @throws IOException if the lock file could not be created or locked
+     */
+    static HeldLocks acquire(final File lockFile, final boolean shared, final Logger logger) throws IOException {
+        return acquireAll(Collections.singletonList(lockFile), shared, logger);
+    }
+
+    /**
+     * Acquires several locks, blocking until all of them are available. Locks are always acquired in sorted path
+     * order so concurrent callers requesting overlapping sets cannot deadlock.
+     * @param lockFiles The files backing the locks. They are created if they do not exist.
+     * @param shared {@code true} to acquire shared locks, which only exclude exclusive holders.
+     * @param logger Informed when a lock is held by another process and the build has to wait for it.
+     * @return The held locks, to be closed when done.
+     * @throws IOException if a lock file could not be created or locked
+     */
+    static HeldLocks acquireAll(final Collection<File> lockFiles, final boolean shared, final Logger logger)
+            throws IOException {
+        final List<String> paths = new ArrayList<>();
+        for (final File lockFile : lockFiles) {
+            paths.add(lockFile.getAbsolutePath());
+        }
+        Collections.sort(paths);
+
+        final HeldLocks held = new HeldLocks();
+        try {
+            for (final String path : paths) {
+                final PathLock pathLock = PATH_LOCKS.computeIfAbsent(path, p -> new PathLock(new File(p)));
+                final Lock jvmLock = shared ? pathLock.jvmLock.readLock() : pathLock.jvmLock.writeLock();
+                jvmLock.lock();
+                held.releases.add(jvmLock::unlock);
+                pathLock.acquireFileLock(shared, logger);
+                held.releases.add(pathLock::releaseFileLock);
+            }
+        } catch (final IOException | RuntimeException e) {
+            held.close();
+            throw e;
+        }
+        return held;
+    }
+
+    /**
+     * Gets the file used to lock a single package in an SDK root or cache.
+     * @param locksDirectory The directory to store lock files in
+     * @param packagePath The sdkmanager package path
+     * @return The lock file for the package.
+     */
+    static File getPackageLockFile(final File locksDirectory, final String packagePath) {
+        return new File(locksDirectory, "package-" + packagePath.replace(';', '_') + ".lock");
+    }
+
+    /**
+     * Tracks the state of a single lock file within this JVM.
+     */
+    private static final class PathLock {
+        private final ReadWriteLock jvmLock = new ReentrantReadWriteLock();
+        private final File file;
+        private int holders = 0;
+        private FileChannel channel;
+        private FileLock fileLock;
+
+        private PathLock(final File file) {
+            this.file = file;
+        }
+
+        /**
+         * Locks the file unless another thread in this JVM already holds it. Only shared holders can overlap as the
+         * JVM lock keeps exclusive holders apart.
+         */
+        private synchronized void acquireFileLock(final boolean shared, final Logger logger) throws IOException {
+            if (holders > 0) {
+                holders++;
+                return;
+            }
+            Files.createDirectories(file.getParentFile().toPath());
+            final FileChannel newChannel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock newLock = newChannel.tryLock(0, Long.MAX_VALUE, shared);
+                if (newLock == null) {
+                    logger.lifecycle("Waiting for another build to release " + file.getName());
+                    newLock = newChannel.lock(0, Long.MAX_VALUE, shared);
+                }
+                fileLock = newLock;
+            } catch (final IOException | RuntimeException e) {
+                newChannel.close();
+                throw e;
+            }
+            channel = newChannel;
+            holders = 1;
+        }
+
+        private synchronized void releaseFileLock() {
+            holders--;
+            if (holders > 0) {
+                return;
+            }
+            try {
+                fileLock.release();
+                channel.close();
+            } catch (final IOException e) {
+                // Closing the channel releases the lock regardless so there is nothing left to clean up
+            } finally {
+                fileLock = null;
+                channel = null;
+            }
+        }
+    }
+
+    private FileLocks() {}
+}
@@ -0,0 +1,48 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Restores the packages and command line tools of a bundle written by the
+ * {@value SetupAndroidSdkPlugin#EXPORT_BUNDLE_TASK_NAME} task that are missing from the SDK root. The install tasks
+ * run after it, so they only install what the bundle doesn't hold.
+ */
+public abstract class ImportAndroidSdkBundleTask extends DefaultTask {
+    /**
+     * Creates the task. Instantiated by Gradle.
+     */
+    public ImportAndroidSdkBundleTask() {
+        // The SDK root may have changed since the last run
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * The service restoring the bundle
+     * @return The service property
+     */
+    @Internal
+    public abstract Property<SdkInstallerService> getInstallerService();
+
+    /**
+     * The bundle to restore
+     * @return The bundle property
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getBundle();
+
+    /**
+     * Restores the bundle.
+     */
+    @TaskAction
+    public void restore() {
+        getInstallerService().get().importBundle(getBundle().get().getAsFile());
+    }
+}
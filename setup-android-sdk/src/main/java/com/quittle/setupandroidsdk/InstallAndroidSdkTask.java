@@ -0,0 +1,49 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Installs the Android SDK packages a project needs. Every instance delegates to the build's
+ * {@link SdkInstallerService}, so packages already installed by another project or during configuration are skipped
+ * without launching sdkmanager. Because the task only reads its own inputs at execution time, it is compatible with
+ * Gradle's configuration cache.
+ */
+public abstract class InstallAndroidSdkTask extends DefaultTask {
+    /**
+     * The service performing the installation
+     * @return The service property
+     */
+    @Internal
+    public abstract Property<SdkInstallerService> getInstallerService();
+
+    /**
+     * The sdkmanager packages to install
+     * @return The packages property
+     */
+    @Input
+    public abstract SetProperty<String> getPackages();
+
+    /**
+     * The settings of the {@link SetupAndroidSdkExtension} to install with
+     * @return The options property
+     */
+    @Internal
+    abstract Property<InstallOptions> getOptions();
+
+    /**
+     * Installs any missing packages.
+     */
+    @TaskAction
+    public void install() {
+        final SdkInstallerService service = getInstallerService().get();
+        final InstallOptions options = getOptions().get();
+        service.setupLicences(options);
+        service.installSdkManager(options);
+        service.installPackages(getPath(), getPackages().get(), options);
+    }
+}
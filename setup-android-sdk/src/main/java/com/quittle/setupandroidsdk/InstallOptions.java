@@ -0,0 +1,221 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.Project;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * An immutable snapshot of the {@link SetupAndroidSdkExtension} settings that affect how the SDK is installed. It is
+ * serializable so tasks can carry it through Gradle's configuration cache.
+ */
+final class InstallOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String sdkToolsVersion;
+    private final File licensesDirectory;
+    private final File sharedCacheDirectory;
+    private final boolean useBuiltInInstaller;
+    private final int installParallelism;
+    private final int downloadRetries;
+    private final long downloadRetryBackoffMillis;
+    private final long manifestCacheTtlMillis;
+    private final boolean offline;
+    private final File lockFile;
+    private final boolean installFromLockFile;
+    private final String repositoryUrl;
+    private final File sdkBundle;
+    private final boolean deduplicateFiles;
+    private final long sdkManagerStallTimeoutMillis;
+
+    private InstallOptions(final Project project, final SetupAndroidSdkExtension extension) {
+        this.sdkToolsVersion = extension.getSdkToolsVersion();
+        this.licensesDirectory = extension.getLicensesDirectory();
+        this.sharedCacheDirectory = getSharedCacheDirectory(project, extension);
+        this.useBuiltInInstaller = extension.getUseBuiltInInstaller();
+        this.installParallelism = Math.max(1, extension.getInstallParallelism());
+        this.downloadRetries = Math.max(0, extension.getDownloadRetries());
+        this.downloadRetryBackoffMillis = Math.max(0, extension.getDownloadRetryBackoffMillis());
+        this.manifestCacheTtlMillis = Math.max(0, extension.getManifestCacheTtlMillis());
+        this.offline = project.getGradle().getStartParameter().isOffline();
+        this.lockFile = extension.getLockFile() == null
+                ? project.getRootProject().file(SdkLockFile.DEFAULT_FILE_NAME)
+                : extension.getLockFile();
+        this.installFromLockFile = extension.getInstallFromLockFile();
+        this.repositoryUrl = extension.getRepositoryUrl() == null
+                ? RepositoryInstaller.DEFAULT_REPOSITORY_URL
+                : extension.getRepositoryUrl();
+        this.sdkBundle = extension.getSdkBundle();
+        this.deduplicateFiles = extension.getDeduplicateFiles();
+        this.sdkManagerStallTimeoutMillis = Math.max(0, extension.getSdkManagerStallTimeoutMillis());
+    }
+
+    /**
+     * Captures the current settings of an extension
+     * @param project The project the extension belongs to
+     * @param extension The extension to read the settings from
+     * @return A new snapshot of the settings.
+     */
+    static InstallOptions fromExtension(final Project project, final SetupAndroidSdkExtension extension) {
+        return new InstallOptions(project, extension);
+    }
+
+    private static File getSharedCacheDirectory(final Project project, final SetupAndroidSdkExtension extension) {
+        if (!extension.getUseSharedCache()) {
+            return null;
+        }
+        final File cacheDirectory = extension.getSharedCacheDirectory();
+        if (cacheDirectory != null) {
+            return cacheDirectory;
+        }
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/setup-android-sdk");
+    }
+
+    /**
+     * Gets the version of the command line tools to install
+     * @return The tools version.
+     */
+    String getSdkToolsVersion() {
+        return sdkToolsVersion;
+    }
+
+    /**
+     * Gets the directory to copy licenses from
+     * @return The licenses directory or {@code null} if all licenses should be accepted automatically.
+     */
+    File getLicensesDirectory() {
+        return licensesDirectory;
+    }
+
+    /**
+     * Checks if licenses should be accepted automatically
+     * @return {@code true} if no licenses directory was configured.
+     */
+    boolean shouldAutoAcceptLicenses() {
+        return licensesDirectory == null;
+    }
+
+    /**
+     * Gets the directory of the shared package cache
+     * @return The cache directory or {@code null} if the shared cache is disabled.
+     */
+    File getSharedCacheDirectory() {
+        return sharedCacheDirectory;
+    }
+
+    /**
+     * Checks if packages should be installed without sdkmanager where possible. Always the case when the lock file is
+     * enforced, as only {@link RepositoryInstaller} verifies archives against the locked checksums.
+     * @return {@code true} to use {@link RepositoryInstaller} before falling back to sdkmanager.
+     */
+    boolean getUseBuiltInInstaller() {
+        return useBuiltInInstaller || installFromLockFile;
+    }
+
+    /**
+     * Gets how many packages the built-in installer may install at once
+     * @return The maximum number of concurrent package installations, at least 1.
+     */
+    int getInstallParallelism() {
+        return installParallelism;
+    }
+
+    /**
+     * Gets how many times a failed download is retried
+     * @return The number of retries, at least 0.
+     */
+    int getDownloadRetries() {
+        return downloadRetries;
+    }
+
+    /**
+     * Gets how long to wait before the first retry of a failed download
+     * @return The wait in milliseconds, at least 0.
+     */
+    long getDownloadRetryBackoffMillis() {
+        return downloadRetryBackoffMillis;
+    }
+
+    /**
+     * Gets how long a cached repository manifest is used before it is revalidated
+     * @return The time-to-live in milliseconds, at least 0.
+     */
+    long getManifestCacheTtlMillis() {
+        return manifestCacheTtlMillis;
+    }
+
+    /**
+     * Checks if Gradle was started with {@code --offline}
+     * @return {@code true} if repository manifests must only be read from the cache.
+     */
+    boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Gets the directory repository manifests are cached in
+     * @param sdkRoot The root of the Android SDK being installed
+     * @return A directory in the shared cache if it is enabled, otherwise one in the SDK root.
+     */
+    File getManifestCacheDirectory(final File sdkRoot) {
+        return sharedCacheDirectory == null
+                ? new File(sdkRoot, ".manifests")
+                : new File(sharedCacheDirectory, "manifests");
+    }
+
+    /**
+     * Gets the lock file
+     * @return The location of the lock file, which may not exist.
+     */
+    File getLockFile() {
+        return lockFile;
+    }
+
+    /**
+     * Checks if packages must be installed at exactly the revisions in the lock file
+     * @return {@code true} if the lock file is enforced.
+     */
+    boolean shouldInstallFromLockFile() {
+        return installFromLockFile;
+    }
+
+    /**
+     * Gets the base URL of the repository to install from
+     * @return The configured repository or Google's if none is configured.
+     */
+    String getRepositoryUrl() {
+        return repositoryUrl;
+    }
+
+    /**
+     * Checks if a repository other than Google's is configured
+     * @return {@code true} if sdkmanager has to be pointed at another repository.
+     */
+    boolean hasCustomRepository() {
+        return !RepositoryInstaller.DEFAULT_REPOSITORY_URL.equals(repositoryUrl);
+    }
+
+    /**
+     * Gets the SDK bundle to restore before installing
+     * @return The bundle or {@code null} if none is configured. It may not exist.
+     */
+    File getSdkBundle() {
+        return sdkBundle;
+    }
+
+    /**
+     * Checks if identical files across installed packages are replaced with hardlinks after installing
+     * @return {@code true} if files are deduplicated.
+     */
+    boolean getDeduplicateFiles() {
+        return deduplicateFiles;
+    }
+
+    /**
+     * Gets how long sdkmanager may go without making progress before it is stopped and run again
+     * @return The timeout in milliseconds, or 0 to never stop sdkmanager.
+     */
+    long getSdkManagerStallTimeoutMillis() {
+        return sdkManagerStallTimeoutMillis;
+    }
+}
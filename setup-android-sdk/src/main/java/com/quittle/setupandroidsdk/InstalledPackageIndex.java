@@ -0,0 +1,252 @@
+package com.quittle.setupandroidsdk;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Index of the packages installed in an Android SDK root, built by reading the metadata files sdkmanager leaves behind
+ * in each package directory rather than by asking sdkmanager. The index is scanned lazily on first use and can be
+ * invalidated after the SDK root is modified.
+ */
+final class InstalledPackageIndex {
+    private static final String PACKAGE_XML = "package.xml";
+    private static final String SOURCE_PROPERTIES = "source.properties";
+    private static final String SOURCE_PROPERTIES_REVISION = "Pkg.Revision";
+    /** Deepest package path currently published, e.g. {@code system-images;android-28;default;x86}. */
+    private static final int MAX_PACKAGE_DEPTH = 4;
+
+    private final File sdkRoot;
+    private Map<String, AndroidRevision> packages;
+
+    /**
+     * Creates a new, unscanned index.
+     * @param sdkRoot The root of the Android SDK to index
+     */
+    InstalledPackageIndex(final File sdkRoot) {
+        this.sdkRoot = sdkRoot;
+    }
+
+    /**
+     * Gets all the installed packages, scanning the SDK root if it has not been scanned yet.
+     * @return An unmodifiable map of sdkmanager package paths to their installed revisions.
+     */
+    synchronized Map<String, AndroidRevision> getPackages() {
+        if (packages == null) {
+            final Map<String, AndroidRevision> scanned = new HashMap<>();
+            scan(sdkRoot, "", 0, scanned);
+            packages = Collections.unmodifiableMap(scanned);
+        }
+        return packages;
+    }
+
+    /**
+     * Discards the scanned state so the next query rescans the SDK root.
+     */
+    synchronized void invalidate() {
+        packages = null;
+    }
+
+    /**
+     * Checks if a package is installed. If the last segment of the package path is a revision, e.g.
+     * {@code build-tools;28.0.3}, the installed revision must match it as well.
+     * @param packagePath The sdkmanager package path
+     * @return {@code true} if the package is installed at the expected revision.
+     */
+    boolean isInstalled(final String packagePath) {
+        final AndroidRevision installed = getPackages().get(packagePath);
+        if (installed == null) {
+            return false;
+        }
+        final Optional<AndroidRevision> expected = getRevisionFromPath(packagePath);
+        return !expected.isPresent() || expected.get().equals(installed);
+    }
+
+    /**
+     * Gets the packages an installed package depends on, as recorded in its {@code package.xml}
+     * @param packagePath The sdkmanager package path
+     * @return The sdkmanager package paths of the dependencies, empty if the package is not installed or has no
+     *         {@code package.xml}.
+     */
+    List<String> getDependencies(final String packagePath) {
+        final File packageXml = new File(Utils.getPackageDirectory(sdkRoot, packagePath), PACKAGE_XML);
+        if (!packageXml.isFile()) {
+            return Collections.emptyList();
+        }
+        final Document document;
+        try {
+            document = newDocumentBuilder().parse(packageXml);
+        } catch (final IOException | SAXException | ParserConfigurationException e) {
+            return Collections.emptyList();
+        }
+        final List<String> dependencies = new ArrayList<>();
+        final NodeList nodes = document.getElementsByTagNameNS("*", "dependency");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final String path = ((Element) nodes.item(i)).getAttribute("path");
+            if (!path.isEmpty()) {
+                dependencies.add(path);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * Filters a collection of packages down to the ones that still need to be installed.
+     * @param packagePaths The sdkmanager package paths requested
+     * @return The packages which are not installed or installed at the wrong revision, sorted by path.
+     */
+    Set<String> getMissingPackages(final Collection<String> packagePaths) {
+        final Set<String> missing = new TreeSet<>();
+        for (final String packagePath : packagePaths) {
+            if (!isInstalled(packagePath)) {
+                missing.add(packagePath);
+            }
+        }
+        return missing;
+    }
+
+    private static Optional<AndroidRevision> getRevisionFromPath(final String packagePath) {
+        final String lastSegment = packagePath.substring(packagePath.lastIndexOf(';') + 1);
+        if (lastSegment.isEmpty() || !Character.isDigit(lastSegment.charAt(0))) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(AndroidRevision.parseRevision(lastSegment));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void scan(final File dir, final String packagePath, final int depth,
+            final Map<String, AndroidRevision> scanned) {
+        if (depth > 0) {
+            final File packageXml = new File(dir, PACKAGE_XML);
+            if (packageXml.isFile()) {
+                readPackageXml(packageXml).ifPresent(entry -> scanned.put(entry.getKey(), entry.getValue()));
+                return;
+            }
+            final File sourceProperties = new File(dir, SOURCE_PROPERTIES);
+            if (sourceProperties.isFile()) {
+                readSourceProperties(sourceProperties).ifPresent(revision -> scanned.put(packagePath, revision));
+                return;
+            }
+        }
+        if (depth >= MAX_PACKAGE_DEPTH) {
+            return;
+        }
+
+        final File[] children = dir.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        for (final File child : children) {
+            final String name = child.getName();
+            // Hidden directories hold sdkmanager's temporary files and licenses are not a package
+            if (name.startsWith(".") || (depth == 0 && "licenses".equals(name))) {
+                continue;
+            }
+            scan(child, depth == 0 ? name : packagePath + ';' + name, depth + 1, scanned);
+        }
+    }
+
+    /**
+     * Reads the package path and revision out of a {@code package.xml} written by sdkmanager.
+     * @param packageXml The file to read
+     * @return The package path and revision or an empty optional if the file could not be understood.
+     */
+    static Optional<Map.Entry<String, AndroidRevision>> readPackageXml(final File packageXml) {
+        final Document document;
+        try {
+            document = newDocumentBuilder().parse(packageXml);
+        } catch (final IOException | SAXException | ParserConfigurationException e) {
+            return Optional.empty();
+        }
+
+        final NodeList localPackages = document.getElementsByTagNameNS("*", "localPackage");
+        if (localPackages.getLength() == 0) {
+            return Optional.empty();
+        }
+        final Element localPackage = (Element) localPackages.item(0);
+        final String path = localPackage.getAttribute("path");
+        final NodeList revisions = localPackage.getElementsByTagNameNS("*", "revision");
+        if (path.isEmpty() || revisions.getLength() == 0) {
+            return Optional.empty();
+        }
+
+        final Element revision = (Element) revisions.item(0);
+        try {
+            return Optional.of(new AbstractMap.SimpleImmutableEntry<>(path, new AndroidRevision(
+                    getIntChild(revision, "major", AndroidRevision.MISSING_MAJOR_REV),
+                    getIntChild(revision, "minor", AndroidRevision.IMPLICIT_MINOR_REV),
+                    getIntChild(revision, "micro", AndroidRevision.IMPLICIT_MICRO_REV),
+                    getIntChild(revision, "preview", AndroidRevision.NOT_A_PREVIEW))));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<AndroidRevision> readSourceProperties(final File sourceProperties) {
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(sourceProperties.toPath())) {
+            properties.load(is);
+        } catch (final IOException e) {
+            return Optional.empty();
+        }
+        final String revision = properties.getProperty(SOURCE_PROPERTIES_REVISION);
+        if (revision == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(AndroidRevision.parseRevision(revision));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static int getIntChild(final Element parent, final String name, final int defaultValue) {
+        final NodeList children = parent.getElementsByTagNameNS("*", name);
+        if (children.getLength() == 0) {
+            return defaultValue;
+        }
+        return Integer.parseInt(children.item(0).getTextContent().trim());
+    }
+
+    /**
+     * Creates a namespace aware document builder that refuses to resolve external entities.
+     * @return A new document builder
+     * @throws ParserConfigurationException if the XML parser does not support the required features
+     */
+    static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        final DocumentBuilder builder = factory.newDocumentBuilder();
+        // Parse failures are reported through exceptions instead of being printed to stderr
+        builder.setErrorHandler(new DefaultHandler());
+        return builder;
+    }
+}
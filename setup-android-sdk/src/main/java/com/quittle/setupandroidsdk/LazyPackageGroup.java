@@ -0,0 +1,87 @@
+package com.quittle.setupandroidsdk;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Heavyweight packages that only some tasks need. Instead of being installed with the rest of a project's packages,
+ * each group is installed by its own task, which only the tasks that use the packages depend on, so builds that never
+ * run those tasks never install them.
+ */
+enum LazyPackageGroup {
+    /**
+     * The NDK and CMake, needed to build native code.
+     */
+    NATIVE("installAndroidSdkNativePackages",
+            Arrays.asList("ndk;", "ndk-bundle", "cmake;"),
+            Arrays.asList("externalNativeBuild", "configureCMake", "configureNdkBuild", "buildCMake", "buildNdkBuild",
+                    "generateJsonModel"),
+            Collections.emptyList()),
+
+    /**
+     * System images and the emulator, needed to run tests on Gradle managed devices.
+     */
+    DEVICE("installAndroidSdkDevicePackages",
+            Arrays.asList("system-images;", "emulator"),
+            Collections.singletonList("allDevices"),
+            Collections.singletonList("ManagedDevice"));
+
+    private final String taskName;
+    private final List<String> packagePrefixes;
+    private final List<String> taskNamePrefixes;
+    private final List<String> taskNameInfixes;
+
+    LazyPackageGroup(final String taskName,
+                     final List<String> packagePrefixes,
+                     final List<String> taskNamePrefixes,
+                     final List<String> taskNameInfixes) {
+        this.taskName = taskName;
+        this.packagePrefixes = packagePrefixes;
+        this.taskNamePrefixes = taskNamePrefixes;
+        this.taskNameInfixes = taskNameInfixes;
+    }
+
+    /**
+     * Gets the name of the task that installs the group's packages
+     * @return The task name.
+     */
+    String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * Checks if a task uses the group's packages, by the names the Android Gradle plugin gives such tasks
+     * @param name The name of the task
+     * @return {@code true} if the task should depend on the group's install task.
+     */
+    boolean isNeededBy(final String name) {
+        return taskNamePrefixes.stream().anyMatch(name::startsWith)
+                || taskNameInfixes.stream().anyMatch(name::contains);
+    }
+
+    /**
+     * Describes which packages can be installed lazily, for error messages
+     * @return The package path prefixes of every group, e.g. {@code native (ndk;, ndk-bundle, cmake;)}.
+     */
+    static String describeSupportedPackages() {
+        return Arrays.stream(values())
+                .map(group -> group.name().toLowerCase(Locale.US)
+                        + " (" + String.join(", ", group.packagePrefixes) + ")")
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Finds the group a package belongs to
+     * @param packagePath The sdkmanager package path
+     * @return The group or empty if the package is not heavyweight.
+     */
+    static Optional<LazyPackageGroup> of(final String packagePath) {
+        return Arrays.stream(values())
+                .filter(group -> group.packagePrefixes.stream().anyMatch(packagePath::startsWith))
+                .findFirst();
+    }
+}
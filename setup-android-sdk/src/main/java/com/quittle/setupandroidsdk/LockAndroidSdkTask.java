@@ -0,0 +1,51 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Writes the lock file, pinning the packages of every project in the build, their dependencies and the command line
+ * tools to the revisions and archives the repository currently offers. The task never considers itself up-to-date, as
+ * the point of running it is to pick up whatever changed in the repository.
+ */
+public abstract class LockAndroidSdkTask extends DefaultTask {
+    /**
+     * Creates the task. Instantiated by Gradle.
+     */
+    public LockAndroidSdkTask() {
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * The service resolving the packages
+     * @return The service property
+     */
+    @Internal
+    public abstract Property<SdkInstallerService> getInstallerService();
+
+    /**
+     * The sdkmanager packages to lock
+     * @return The packages property
+     */
+    @Input
+    public abstract SetProperty<String> getPackages();
+
+    /**
+     * The settings of the {@link SetupAndroidSdkExtension}, naming the lock file and the command line tools version
+     * @return The options property
+     */
+    @Internal
+    abstract Property<InstallOptions> getOptions();
+
+    /**
+     * Writes the lock file.
+     */
+    @TaskAction
+    public void lock() {
+        getInstallerService().get().writeLockFile(getPackages().get(), getOptions().get());
+    }
+}
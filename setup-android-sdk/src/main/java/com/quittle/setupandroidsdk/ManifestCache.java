@@ -0,0 +1,223 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * A local cache of repository manifests. Each manifest is stored as the XML it was downloaded as, along with a binary
+ * index of the parsed manifest that later builds read instead of parsing the XML again. Cached manifests younger than
+ * the time-to-live are used as they are, older ones are revalidated with a conditional GET using the server's
+ * {@code ETag} and {@code Last-Modified} headers, and when Gradle is offline the cache is used without touching the
+ * network at all.
+ */
+final class ManifestCache {
+    private static final int INDEX_MAGIC = 0x53444b4d;
+    private static final String MANIFEST_SUFFIX = ".xml";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int CONNECT_TIMEOUT_MILLIS = 30_000;
+    private static final int READ_TIMEOUT_MILLIS = 60_000;
+
+    private final File directory;
+    private final long ttlMillis;
+    private final boolean offline;
+    private final Logger logger;
+
+    /**
+     * Creates a cache rooted in a directory. The directory is created lazily.
+     * @param directory The directory to store the manifests in
+     * @param ttlMillis How long a cached manifest is used before it is revalidated with the server
+     * @param offline {@code true} to only ever read manifests from the cache
+     * @param logger Informed when a stale manifest has to be used
+     */
+    ManifestCache(final File directory, final long ttlMillis, final boolean offline, final Logger logger) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.offline = offline;
+        this.logger = logger;
+    }
+
+    /**
+     * A manifest read from the cache along with the validators the server sent it with.
+     */
+    private static final class CachedManifest {
+        private final RepositoryManifest manifest;
+        private final String entityTag;
+        private final String lastModified;
+
+        private CachedManifest(final RepositoryManifest manifest, final String entityTag, final String lastModified) {
+            this.manifest = manifest;
+            this.entityTag = entityTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Gets a manifest, from the cache if possible
+     * @param url The location of the manifest
+     * @return The manifest
+     * @throws IOException if the manifest is not cached and could not be downloaded
+     */
+    RepositoryManifest load(final URL url) throws IOException {
+        final String key = getKey(url);
+        final File manifestFile = new File(directory, key + MANIFEST_SUFFIX);
+        final File indexFile = new File(directory, key + INDEX_SUFFIX);
+        final Optional<CachedManifest> cached = readIndex(indexFile, manifestFile, url);
+
+        if (offline) {
+            return cached.orElseThrow(() ->
+                    new IOException("Repository manifest " + url + " is not cached and Gradle is offline")).manifest;
+        } else if (cached.isPresent() && System.currentTimeMillis() - indexFile.lastModified() < ttlMillis) {
+            return cached.get().manifest;
+        }
+
+        try {
+            return fetch(url, manifestFile, indexFile, cached);
+        } catch (final IOException e) {
+            if (!cached.isPresent()) {
+                throw e;
+            }
+            logger.warn("Unable to revalidate repository manifest " + url + ", using the cached copy", e);
+            return cached.get().manifest;
+        }
+    }
+
+    /**
+     * Copies a manifest, exactly as the repository serves it, to another location, downloading it first if it is not
+     * cached
+     * @param url The location of the manifest
+     * @param destination The file to copy the manifest to
+     * @throws IOException if the manifest could not be downloaded or copied
+     */
+    void copy(final URL url, final File destination) throws IOException {
+        load(url);
+        Files.createDirectories(destination.getAbsoluteFile().getParentFile().toPath());
+        Files.copy(new File(directory, getKey(url) + MANIFEST_SUFFIX).toPath(), destination.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Downloads a manifest, unless the server confirms the cached copy is still current, and updates the cache
+     */
+    private RepositoryManifest fetch(final URL url,
+                                     final File manifestFile,
+                                     final File indexFile,
+                                     final Optional<CachedManifest> cached) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        final HttpURLConnection httpConnection =
+                connection instanceof HttpURLConnection ? (HttpURLConnection) connection : null;
+        try {
+            if (httpConnection != null) {
+                if (cached.isPresent() && cached.get().entityTag != null) {
+                    connection.setRequestProperty("If-None-Match", cached.get().entityTag);
+                }
+                if (cached.isPresent() && cached.get().lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", cached.get().lastModified);
+                }
+                final int responseCode = httpConnection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached.isPresent()) {
+                    logger.debug("Repository manifest " + url + " has not changed");
+                    if (!indexFile.setLastModified(System.currentTimeMillis())) {
+                        logger.debug("Unable to refresh the modification time of " + indexFile);
+                    }
+                    return cached.get().manifest;
+                } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unexpected response " + responseCode + " reading " + url);
+                }
+            }
+
+            logger.debug("Reading repository manifest " + url);
+            Files.createDirectories(directory.toPath());
+            final File manifestTemp = newTempFile(manifestFile);
+            final File indexTemp = newTempFile(indexFile);
+            try {
+                final MessageDigest digest = RepositoryManifest.newSourceDigest();
+                try (final InputStream is = new DigestInputStream(connection.getInputStream(), digest)) {
+                    Files.copy(is, manifestTemp.toPath());
+                }
+                final RepositoryManifest manifest;
+                try (final InputStream is = new BufferedInputStream(Files.newInputStream(manifestTemp.toPath()))) {
+                    manifest = RepositoryManifest.parse(url, is);
+                }
+                try (final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(indexTemp.toPath())))) {
+                    out.writeInt(INDEX_MAGIC);
+                    RepositoryManifest.writeString(out, url.toString());
+                    RepositoryManifest.writeString(out, Utils.toHexString(digest.digest()));
+                    RepositoryManifest.writeString(out, connection.getHeaderField("ETag"));
+                    RepositoryManifest.writeString(out, connection.getHeaderField("Last-Modified"));
+                    manifest.writeIndex(out);
+                }
+                // The index records the checksum of its XML, so a reader racing these moves notices any mismatch
+                Files.move(manifestTemp.toPath(), manifestFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(indexTemp.toPath(), indexFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                return manifest;
+            } finally {
+                Files.deleteIfExists(manifestTemp.toPath());
+                Files.deleteIfExists(indexTemp.toPath());
+            }
+        } finally {
+            if (httpConnection != null) {
+                httpConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads a cached manifest from its index
+     * @return The manifest or empty if it is not cached or the index is unreadable.
+     */
+    private Optional<CachedManifest> readIndex(final File indexFile, final File manifestFile, final URL url) {
+        if (!indexFile.isFile() || !manifestFile.isFile()) {
+            return Optional.empty();
+        }
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC || !url.toString().equals(RepositoryManifest.readString(in))) {
+                return Optional.empty();
+            }
+            final String sourceChecksum = RepositoryManifest.readString(in);
+            final String entityTag = RepositoryManifest.readString(in);
+            final String lastModified = RepositoryManifest.readString(in);
+            return Optional.of(new CachedManifest(
+                    RepositoryManifest.readIndex(in, manifestFile, sourceChecksum), entityTag, lastModified));
+        } catch (final IOException e) {
+            logger.debug("Ignoring unreadable repository manifest index " + indexFile, e);
+            return Optional.empty();
+        }
+    }
+
+    private static File newTempFile(final File file) {
+        return new File(file.getPath() + "." + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Names the cache files of a manifest after a hash of its URL, so manifests from different repositories never
+     * collide.
+     */
+    private static String getKey(final URL url) {
+        final MessageDigest digest = RepositoryManifest.newSourceDigest();
+        return Utils.toHexString(digest.digest(url.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
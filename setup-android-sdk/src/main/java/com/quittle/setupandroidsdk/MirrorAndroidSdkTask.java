@@ -0,0 +1,65 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Fills a directory with the packages of every project in the build, their dependencies, the command line tools and
+ * the repository manifests listing them, laid out like the repository. Other builds can then install from the
+ * directory, or from a web server serving it, by setting it as their
+ * {@link SetupAndroidSdkExtension#setRepositoryUrl repository URL}. Archives already in the directory are kept, so
+ * running the task again only downloads what changed.
+ */
+public abstract class MirrorAndroidSdkTask extends DefaultTask {
+    /**
+     * Creates the task. Instantiated by Gradle.
+     */
+    public MirrorAndroidSdkTask() {
+        // The manifests may have changed in the repository since the last run
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /**
+     * The service resolving and downloading the packages
+     * @return The service property
+     */
+    @Internal
+    public abstract Property<SdkInstallerService> getInstallerService();
+
+    /**
+     * The sdkmanager packages to mirror
+     * @return The packages property
+     */
+    @Input
+    public abstract SetProperty<String> getPackages();
+
+    /**
+     * The directory to fill
+     * @return The destination property
+     */
+    @OutputDirectory
+    public abstract DirectoryProperty getDestination();
+
+    /**
+     * The settings of the {@link SetupAndroidSdkExtension}, naming the repository to mirror and the command line
+     * tools version
+     * @return The options property
+     */
+    @Internal
+    abstract Property<InstallOptions> getOptions();
+
+    /**
+     * Fills the mirror.
+     */
+    @TaskAction
+    public void mirror() {
+        getInstallerService().get().mirror(getPackages().get(), getOptions().get(),
+                getDestination().get().getAsFile());
+    }
+}
@@ -0,0 +1,348 @@
+package com.quittle.setupandroidsdk;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Replaces byte-identical files across the packages of an SDK root with hardlinks to a single copy. Side-by-side
+ * versions of build tools, platforms and NDKs share many identical files, so keeping several installed costs much
+ * less disk space once deduplicated.
+ * <p>
+ * Each pass records the hash of every file it saw in an index in the SDK root. Files whose size and modification time
+ * still match the index are not read again, so after the first pass only newly installed files are hashed. Hashing
+ * runs concurrently on a pool sized to the number of cores, and large files are read through memory mappings. Files
+ * are only linked to a copy with the same permissions, as hardlinks share them.
+ */
+final class PackageDeduplicator {
+    /**
+     * The name of the index in the SDK root
+     */
+    static final String INDEX_FILE = ".dedup-index";
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String INDEX_HEADER = "# setup-android-sdk dedup index v1";
+    /**
+     * Files smaller than this occupy a single block, so linking them saves little compared to the work.
+     */
+    private static final long MIN_FILE_SIZE = 4096;
+    private static final long MAPPED_READ_THRESHOLD = 1024 * 1024;
+    private static final long MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private PackageDeduplicator() {}
+
+    /**
+     * A file to deduplicate and what is known about it
+     */
+    private static final class FileInfo {
+        private final String relativePath;
+        private final Path path;
+        private final long size;
+        private long lastModified;
+        private Object fileKey;
+        private String hash;
+
+        private FileInfo(final String relativePath,
+                         final Path path,
+                         final long size,
+                         final long lastModified,
+                         final Object fileKey) {
+            this.relativePath = relativePath;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * An entry of the index, recording the hash of a file as it was when last seen
+     */
+    private static final class IndexEntry {
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+
+        private IndexEntry(final long size, final long lastModified, final String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Deduplicates the files of packages in an SDK root. Must only be called while no other build is deduplicating
+     * the same SDK root.
+     * @param sdkRoot The root of the Android SDK, where the index is kept
+     * @param packageDirectories The directories of the installed packages
+     * @return How many bytes were reclaimed.
+     * @throws IOException if the packages could not be read or the index could not be written
+     */
+    static long deduplicate(final File sdkRoot, final Collection<File> packageDirectories) throws IOException {
+        final Path root = sdkRoot.toPath().toAbsolutePath().normalize();
+        final Path indexFile = root.resolve(INDEX_FILE);
+        final Map<String, IndexEntry> index = readIndex(indexFile);
+
+        final Map<String, FileInfo> files = new TreeMap<>();
+        for (final File packageDirectory : packageDirectories) {
+            collectFiles(root, packageDirectory.toPath().toAbsolutePath().normalize(), files);
+        }
+
+        final List<FileInfo> toHash = new ArrayList<>();
+        for (final FileInfo file : files.values()) {
+            final IndexEntry entry = index.get(file.relativePath);
+            if (entry != null && entry.size == file.size && entry.lastModified == file.lastModified) {
+                file.hash = entry.hash;
+            } else {
+                toHash.add(file);
+            }
+        }
+        hashAll(toHash);
+
+        // Files are visited in path order, so the first copy of any content stays the one others are linked to
+        final Map<String, List<FileInfo>> byContent = new HashMap<>();
+        for (final FileInfo file : files.values()) {
+            if (file.hash != null) {
+                byContent.computeIfAbsent(file.size + ":" + file.hash, key -> new ArrayList<>()).add(file);
+            }
+        }
+        long reclaimed = 0;
+        for (final List<FileInfo> copies : byContent.values()) {
+            for (int i = 1; i < copies.size(); i++) {
+                reclaimed += linkToFirstMatch(copies, i);
+            }
+        }
+
+        writeIndex(indexFile, files.values());
+        return reclaimed;
+    }
+
+    private static void collectFiles(final Path root, final Path directory, final Map<String, FileInfo> files)
+            throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && attrs.size() >= MIN_FILE_SIZE
+                        && !StagedInstall.MARKER_FILE.equals(file.getFileName().toString())) {
+                    final String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    files.put(relativePath, new FileInfo(relativePath, file, attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), attrs.fileKey()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Hashes files concurrently
+     * @throws IOException if any file could not be hashed, after waiting for the rest
+     */
+    private static void hashAll(final List<FileInfo> files) throws IOException {
+        final List<Future<String>> futures = new ArrayList<>();
+        for (final FileInfo file : files) {
+            futures.add(POOL.submit(() -> hash(file.path)));
+        }
+        IOException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            while (true) {
+                try {
+                    files.get(i).hash = futures.get(i).get();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof NoSuchFileException) {
+                        // Removed since it was found, so there is nothing to deduplicate
+                        break;
+                    }
+                    if (failure == null) {
+                        failure = new IOException("Unable to hash " + files.get(i).path, e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Hashes a file, reading large ones through memory mappings
+     * @param file The file to hash
+     * @return The lowercase, hex-encoded hash.
+     * @throws IOException if the file could not be read
+     */
+    static String hash(final Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported hash algorithm " + HASH_ALGORITHM, e);
+        }
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size >= MAPPED_READ_THRESHOLD) {
+                for (long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+                    final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAPPED_WINDOW_SIZE, size - position));
+                    digest.update(window);
+                }
+            } else {
+                try (final InputStream is = Channels.newInputStream(channel)) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read = is.read(buffer);
+                    while (read != -1) {
+                        digest.update(buffer, 0, read);
+                        read = is.read(buffer);
+                    }
+                }
+            }
+        }
+        return Utils.toHexString(digest.digest());
+    }
+
+    /**
+     * Replaces a copy with a hardlink to the first earlier copy with the same permissions
+     * @return How many bytes were reclaimed, or 0 if the copy was already linked or left as it was.
+     */
+    private static long linkToFirstMatch(final List<FileInfo> copies, final int index) throws IOException {
+        final FileInfo duplicate = copies.get(index);
+        for (int i = 0; i < index; i++) {
+            final FileInfo original = copies.get(i);
+            if (original.fileKey != null && original.fileKey.equals(duplicate.fileKey)) {
+                return 0;
+            }
+        }
+        final Set<PosixFilePermission> permissions = getPermissions(duplicate.path);
+        for (int i = 0; i < index; i++) {
+            final FileInfo original = copies.get(i);
+            if (Objects.equals(permissions, getPermissions(original.path)) && link(original, duplicate)) {
+                return duplicate.size;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Atomically replaces a file with a hardlink to another one
+     * @return {@code true} if the file was replaced or {@code false} if the file system doesn't support it.
+     */
+    private static boolean link(final FileInfo original, final FileInfo duplicate) throws IOException {
+        final Path temp = duplicate.path.resolveSibling(
+                "." + duplicate.path.getFileName() + "." + UUID.randomUUID() + ".dedup");
+        try {
+            Files.createLink(temp, original.path);
+        } catch (final IOException | UnsupportedOperationException e) {
+            return false;
+        }
+        try {
+            Files.move(temp, duplicate.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        // The link shares the original's timestamps, which the index has to match on the next pass
+        final BasicFileAttributes attrs = Files.readAttributes(duplicate.path, BasicFileAttributes.class);
+        duplicate.lastModified = attrs.lastModifiedTime().toMillis();
+        duplicate.fileKey = attrs.fileKey();
+        return true;
+    }
+
+    private static Set<PosixFilePermission> getPermissions(final Path path) throws IOException {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return null;
+        }
+        return Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Reads the index written by the previous pass
+     * @return The entries by path relative to the SDK root. Empty if there is no index or it can't be understood.
+     */
+    private static Map<String, IndexEntry> readIndex(final Path indexFile) throws IOException {
+        final Map<String, IndexEntry> index = new HashMap<>();
+        if (!Files.isRegularFile(indexFile)) {
+            return index;
+        }
+        try (final BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!INDEX_HEADER.equals(reader.readLine())) {
+                return index;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // <hash> <size> <last modified> <path>, where the path may contain spaces
+                final String[] fields = line.split(" ", 4);
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    index.put(fields[3],
+                            new IndexEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                } catch (final NumberFormatException e) {
+                    // A corrupt entry only means the file is hashed again
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Replaces the index with the files seen in this pass, so files that were removed are dropped from it
+     */
+    private static void writeIndex(final Path indexFile, final Collection<FileInfo> files) throws IOException {
+        final Path temp = indexFile.resolveSibling(indexFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(INDEX_HEADER);
+                writer.write('\n');
+                for (final FileInfo file : files) {
+                    if (file.hash != null) {
+                        writer.write(file.hash + ' ' + file.size + ' ' + file.lastModified + ' ' + file.relativePath);
+                        writer.write('\n');
+                    }
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.tasks.TaskInstantiationException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static com.quittle.setupandroidsdk.Utils.getConstantViaReflection;
+
+/**
+ * Resolves the packages every Android project needs by default. Projects in a build almost always share their compile
+ * SDK and build tools versions, so the reflective lookup of the Android Gradle plugin's minimum build tools revision,
+ * the revisions parsed from the projects' settings and the resulting package lists are computed once per build and
+ * shared by every project.
+ */
+public abstract class PackageResolverService implements BuildService<BuildServiceParameters.None> {
+    private final Logger logger = Logging.getLogger(PackageResolverService.class);
+    private final ConcurrentMap<Optional<String>, String> buildToolsVersions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, List<String>> defaultPackages = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger resolutions = new AtomicInteger();
+    private final AtomicLong resolutionNanos = new AtomicLong();
+    private final SetupMetrics metrics = new SetupMetrics();
+    private volatile AndroidRevision minBuildToolsRevision;
+
+    /**
+     * Gets the timings of the resolutions, for the report of the time spent setting up the SDK
+     * @return The metrics, which keep being updated as packages are resolved.
+     */
+    SetupMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the packages a project needs to build against its settings
+     * @param compileSdkVersion The compile SDK version of the project, e.g. {@code android-30}
+     * @param explicitBuildToolsVersion The build tools version set by the project or {@code null} if it is not set
+     * @return An unmodifiable list of package paths, shared by every project with the same settings.
+     */
+    @SuppressWarnings("try")
+    List<String> getDefaultPackages(final String compileSdkVersion, final String explicitBuildToolsVersion) {
+        requests.incrementAndGet();
+        metrics.count("defaultPackageRequests", 1);
+        return defaultPackages.computeIfAbsent(Arrays.asList(compileSdkVersion, explicitBuildToolsVersion), key -> {
+            final long start = System.nanoTime();
+            try (final SetupMetrics.Phase phase = metrics.start("resolveDefaultPackages").setDetail(key.toString())) {
+                final List<String> packages = Collections.unmodifiableList(Arrays.asList(
+                        "platforms;" + compileSdkVersion,
+                        "build-tools;" + getBuildToolsVersion(explicitBuildToolsVersion)));
+                resolutions.incrementAndGet();
+                resolutionNanos.addAndGet(System.nanoTime() - start);
+                return packages;
+            }
+        });
+    }
+
+    /**
+     * If the android extension does not specify a build tools version explicitly, then a default version as chosen by
+     * the plugin is used. If the build tools version added is lower than this default version, it considered
+     * unsupported and rather than failing the build, the plugin helpfully ignores what was specified, logs a warning,
+     * and instead uses the min version hardcoded in the plugin. Versions are only resolved once per build, so the
+     * warning is logged once however many projects specify the version.
+     */
+    private String getBuildToolsVersion(final String explicitVersion) {
+        return buildToolsVersions.computeIfAbsent(Optional.ofNullable(explicitVersion), version -> {
+            final AndroidRevision minBuildToolsVersion = getMinBuildToolsRevision();
+            final AndroidRevision determinedVersion;
+            if (!version.isPresent()) {
+                determinedVersion = minBuildToolsVersion;
+            } else {
+                final AndroidRevision explicitFullRevision = AndroidRevision.parseRevision(version.get());
+                if (explicitFullRevision.compareTo(minBuildToolsVersion) < 0) {
+                    logger.warn("Build tools version " + version.get() + " is lower than the minimum supported by the"
+                            + " Android Gradle plugin. Using " + minBuildToolsVersion + " instead.");
+                    determinedVersion = minBuildToolsVersion;
+                } else {
+                    determinedVersion = explicitFullRevision;
+                }
+            }
+            return determinedVersion.toString().replace(' ', '-');
+        });
+    }
+
+    /**
+     * Determines the minimum build tools version from the plugin, once per build
+     * @return The minimum version.
+     * @throws TaskInstantiationException if unable to determine the version
+     */
+    private AndroidRevision getMinBuildToolsRevision() {
+        AndroidRevision revision = minBuildToolsRevision;
+        if (revision == null) {
+            synchronized (this) {
+                revision = minBuildToolsRevision;
+                if (revision == null) {
+                    try (final SetupMetrics.Phase phase = metrics.start("resolveMinBuildToolsRevision")) {
+                        final Object o = Stream.of(
+                                    getConstantViaReflection("com.android.builder.core.AndroidBuilder", "MIN_BUILD_TOOLS_REV", Object.class),
+                                    getConstantViaReflection("com.android.builder.core.ToolsRevisionUtils", "MIN_BUILD_TOOLS_REV", Object.class))
+                                .filter(Optional::isPresent)
+                                .map(Optional::get)
+                                .findFirst()
+                                .orElseThrow(() -> new TaskInstantiationException("Unable to determine min build tools version"));
+                        revision = AndroidRevision.parseRevision(o.toString());
+                        minBuildToolsRevision = revision;
+                        phase.setDetail(revision.toString());
+                    }
+                }
+            }
+        }
+        return revision;
+    }
+
+    /**
+     * Logs how much work sharing the resolution across projects saved.
+     */
+    void logSummary() {
+        final int requestCount = requests.get();
+        final int resolutionCount = resolutions.get();
+        if (requestCount == 0) {
+            return;
+        }
+        final long averageNanos = resolutionNanos.get() / Math.max(1, resolutionCount);
+        logger.debug("Resolved the default SDK packages of " + requestCount + " projects with " + resolutionCount
+                + " resolutions, saving about " + (requestCount - resolutionCount) * averageNanos / 1000 + "us");
+    }
+}
@@ -0,0 +1,146 @@
+package com.quittle.setupandroidsdk;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A package requested by a range of revisions rather than an exact sdkmanager path. The last segment of the path is
+ * either a range, e.g. {@code build-tools;[34,35)} or {@code cmake;[3.18,]}, where either bound may be left out, or a
+ * prefix, e.g. {@code ndk;26.+}, which matches every revision starting with the given components. A spec resolves to
+ * the latest stable package matching it.
+ */
+final class PackageSpec {
+    private static final String ANY_SUFFIX = "+";
+    private static final String PREFIX_SUFFIX = ".+";
+
+    private final String prefix;
+    private final AndroidRevision lowerBound;
+    private final boolean lowerInclusive;
+    private final AndroidRevision upperBound;
+    private final boolean upperInclusive;
+
+    private PackageSpec(final String prefix,
+                        final AndroidRevision lowerBound,
+                        final boolean lowerInclusive,
+                        final AndroidRevision upperBound,
+                        final boolean upperInclusive) {
+        this.prefix = prefix;
+        this.lowerBound = lowerBound;
+        this.lowerInclusive = lowerInclusive;
+        this.upperBound = upperBound;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * Parses a package path as a spec
+     * @param packagePath The package path, as configured in the extension
+     * @return The spec or empty if the package path is an exact sdkmanager path.
+     * @throws IllegalArgumentException if the package path looks like a spec but is malformed
+     */
+    static Optional<PackageSpec> parse(final String packagePath) {
+        final int separator = packagePath.lastIndexOf(';');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        final String prefix = packagePath.substring(0, separator + 1);
+        final String version = packagePath.substring(separator + 1);
+        try {
+            if (ANY_SUFFIX.equals(version)) {
+                return Optional.of(new PackageSpec(prefix, null, false, null, false));
+            } else if (version.endsWith(PREFIX_SUFFIX)) {
+                return Optional.of(parsePrefix(prefix, version.substring(0, version.length() - PREFIX_SUFFIX.length())));
+            } else if (version.startsWith("[") || version.startsWith("(")) {
+                return Optional.of(parseRange(prefix, version));
+            }
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid package spec " + packagePath, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Turns {@code 26.1.+} into the range {@code [26.1.0,26.2.0)}
+     */
+    private static PackageSpec parsePrefix(final String prefix, final String components) {
+        final String[] parts = components.split("\\.", -1);
+        if (parts.length > 3) {
+            throw new NumberFormatException("Too many components in " + components);
+        }
+        final int[] lower = new int[3];
+        for (int i = 0; i < parts.length; i++) {
+            lower[i] = Integer.parseInt(parts[i]);
+            if (lower[i] < 0) {
+                throw new NumberFormatException("Negative component in " + components);
+            }
+        }
+        final int[] upper = lower.clone();
+        upper[parts.length - 1]++;
+        return new PackageSpec(prefix,
+                new AndroidRevision(lower[0], lower[1], lower[2]), true,
+                new AndroidRevision(upper[0], upper[1], upper[2]), false);
+    }
+
+    private static PackageSpec parseRange(final String prefix, final String range) {
+        final int comma = range.indexOf(',');
+        if (range.length() < 3 || comma < 0 || comma != range.lastIndexOf(',')
+                || !(range.endsWith("]") || range.endsWith(")"))) {
+            throw new NumberFormatException("Invalid range " + range);
+        }
+        final String lower = range.substring(1, comma).trim();
+        final String upper = range.substring(comma + 1, range.length() - 1).trim();
+        return new PackageSpec(prefix,
+                lower.isEmpty() ? null : AndroidRevision.parseRevision(lower), range.startsWith("["),
+                upper.isEmpty() ? null : AndroidRevision.parseRevision(upper), range.endsWith("]"));
+    }
+
+    /**
+     * Gets the part of the package path before the revision
+     * @return The prefix, ending in {@code ;}, e.g. {@code build-tools;}.
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Checks if a revision satisfies the spec. Previews never do.
+     * @param revision The revision to check
+     * @return {@code true} if the revision is a stable revision within the range.
+     */
+    boolean matches(final AndroidRevision revision) {
+        if (revision.isPreview()) {
+            return false;
+        }
+        if (lowerBound != null) {
+            final int comparison = revision.compareTo(lowerBound);
+            if (comparison < 0 || (comparison == 0 && !lowerInclusive)) {
+                return false;
+            }
+        }
+        if (upperBound != null) {
+            final int comparison = revision.compareTo(upperBound);
+            return comparison < 0 || (comparison == 0 && upperInclusive);
+        }
+        return true;
+    }
+
+    /**
+     * Picks the package with the latest revision matching the spec
+     * @param candidates Package paths and their revisions, e.g. the installed packages. Paths not sharing the spec's
+     *                   prefix are ignored.
+     * @return The path of the matching package with the latest revision or empty if none match.
+     */
+    Optional<String> selectLatest(final Map<String, AndroidRevision> candidates) {
+        String latestPath = null;
+        AndroidRevision latestRevision = null;
+        for (final Map.Entry<String, AndroidRevision> candidate : candidates.entrySet()) {
+            final String path = candidate.getKey();
+            final AndroidRevision revision = candidate.getValue();
+            if (path.startsWith(prefix) && path.indexOf(';', prefix.length()) < 0 && matches(revision)
+                    && (latestRevision == null || revision.compareTo(latestRevision) > 0)) {
+                latestPath = path;
+                latestRevision = revision;
+            }
+        }
+        return Optional.ofNullable(latestPath);
+    }
+}
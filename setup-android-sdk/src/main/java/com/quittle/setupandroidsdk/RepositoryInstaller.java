@@ -0,0 +1,619 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.taskdefs.condition.Os;
+import org.gradle.api.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Installs SDK packages directly from the repository manifest, in-process, instead of launching sdkmanager. Each
+ * package's archive is downloaded, verified against the manifest's checksum and extracted, and then a
+ * {@code package.xml} is written in the same format sdkmanager uses so both installers recognize the package as
+ * installed.
+ */
+final class RepositoryInstaller {
+    /**
+     * The repository sdkmanager installs from by default
+     */
+    static final String DEFAULT_REPOSITORY_URL = "https://dl.google.com/android/repository/";
+
+    private static final String REPOSITORY_MANIFEST = "repository2-1.xml";
+    private static final String SYSTEM_IMAGE_MANIFEST_FORMAT = "sys-img/%s/sys-img2-1.xml";
+    private static final String SYSTEM_IMAGES_PREFIX = "system-images;";
+    private static final String PACKAGE_XML = "package.xml";
+
+    private static final String[] COPIED_ELEMENTS =
+            { "type-details", "revision", "display-name", "uses-license", "dependencies" };
+
+    private final URL repositoryUrl;
+    private final ManifestCache manifestCache;
+    private final Logger logger;
+    private final ConcurrentMap<String, Optional<RepositoryManifest>> manifests = new ConcurrentHashMap<>();
+    private final LongAdder bytesExtracted = new LongAdder();
+
+    /**
+     * Creates an installer
+     * @param repositoryUrl The base URL of the repository, containing {@code repository2-1.xml}
+     * @param manifestCache Caches the repository's manifests between builds
+     * @param logger Informed of progress and of packages that have to be left to sdkmanager
+     */
+    RepositoryInstaller(final URL repositoryUrl, final ManifestCache manifestCache, final Logger logger) {
+        this.repositoryUrl = repositoryUrl;
+        this.manifestCache = manifestCache;
+        this.logger = logger;
+    }
+
+    /**
+     * Gets the size of everything this installer has extracted so far
+     * @return The total uncompressed size of the installed archives in bytes.
+     */
+    long getBytesExtracted() {
+        return bytesExtracted.sum();
+    }
+
+    /**
+     * Installs packages and any of their dependencies that are not already installed. Packages that can't be
+     * installed in-process, for instance because the manifest doesn't list them or their license has not been
+     * accepted, are left alone so the caller can fall back to sdkmanager. Packages install into disjoint directories
+     * so independent ones are downloaded and extracted concurrently, each only once its dependencies are installed.
+     * @param sdkRoot The root of the Android SDK to install into
+     * @param packageIndex The index of packages already installed in the SDK root
+     * @param packages The sdkmanager package paths to install
+     * @param shouldAutoAcceptLicenses {@code true} to accept the packages' licenses if they haven't been already
+     * @param parallelism The maximum number of packages to install at once
+     * @param downloader Downloads the packages' archives
+     * @param lockFile If not {@code null}, packages are only installed if the repository still offers the revision
+     *                 and archive they are locked to
+     * @return The packages that were not installed, sorted by path.
+     */
+    Set<String> install(final File sdkRoot,
+                        final InstalledPackageIndex packageIndex,
+                        final Collection<String> packages,
+                        final boolean shouldAutoAcceptLicenses,
+                        final int parallelism,
+                        final Downloader downloader,
+                        final SdkLockFile lockFile) {
+        // Planning reads the manifests, builds package.xml files and writes license files so it happens up front, on a
+        // single thread
+        final Map<String, PlannedPackage> planned = new HashMap<>();
+        final Set<String> unavailable = new HashSet<>();
+        packageIndex.invalidate();
+        for (final String packagePath : packages) {
+            try {
+                plan(sdkRoot, packageIndex, packagePath, shouldAutoAcceptLicenses, lockFile, planned, unavailable);
+            } catch (final IOException e) {
+                logger.warn("Unable to plan the installation of " + packagePath, e);
+                unavailable.add(packagePath);
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+                Utils.newDaemonThreadFactory("setup-android-sdk-installer"));
+        try {
+            final Map<String, CompletableFuture<Boolean>> scheduled = new HashMap<>();
+            final Map<String, CompletableFuture<Boolean>> results = new TreeMap<>();
+            for (final String packagePath : packages) {
+                results.put(packagePath, schedule(sdkRoot, packagePath, planned, scheduled, executor, downloader));
+            }
+
+            final Set<String> notInstalled = new TreeSet<>();
+            for (final Map.Entry<String, CompletableFuture<Boolean>> result : results.entrySet()) {
+                if (!result.getValue().join()) {
+                    notInstalled.add(result.getKey());
+                }
+            }
+            return notInstalled;
+        } finally {
+            executor.shutdownNow();
+            packageIndex.invalidate();
+        }
+    }
+
+    /**
+     * Finds every package that installing some packages may install, i.e. the packages and, transitively, their
+     * dependencies, so the caller can lock all of them before calling {@link #install}
+     * @param packages The sdkmanager package paths to install
+     * @return The packages and their dependencies, sorted by path. Packages the manifests don't list are included but
+     *         contribute no dependencies.
+     */
+    Set<String> getDependencyClosure(final Collection<String> packages) {
+        final Set<String> closure = new TreeSet<>();
+        final Deque<String> pending = new ArrayDeque<>(packages);
+        while (!pending.isEmpty()) {
+            final String packagePath = pending.pop();
+            if (closure.add(packagePath)) {
+                resolve(packagePath).ifPresent(remotePackage -> pending.addAll(remotePackage.getDependencies()));
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Resolves a package and its missing dependencies against the manifests, accepting licenses along the way.
+     * @return {@code true} if the package and all of its missing dependencies can be installed in-process.
+     */
+    private boolean plan(final File sdkRoot,
+                         final InstalledPackageIndex packageIndex,
+                         final String packagePath,
+                         final boolean shouldAutoAcceptLicenses,
+                         final SdkLockFile lockFile,
+                         final Map<String, PlannedPackage> planned,
+                         final Set<String> unavailable) throws IOException {
+        // Packages already being planned are treated as installable, which resolves dependency cycles
+        if (planned.containsKey(packagePath)) {
+            return true;
+        } else if (unavailable.contains(packagePath)) {
+            return false;
+        }
+
+        final Optional<RepositoryManifest> manifest = getManifest(packagePath);
+        final Optional<RepositoryManifest.RemotePackage> remotePackage =
+                manifest.flatMap(m -> m.getPackage(packagePath));
+        if (!remotePackage.isPresent()) {
+            logger.info(packagePath + " is not available in the repository manifest");
+            unavailable.add(packagePath);
+            return false;
+        }
+        final Optional<RepositoryManifest.RemoteArchive> archive =
+                remotePackage.get().getArchiveForHost(getHostOs(), getHostArch());
+        if (!archive.isPresent()) {
+            logger.info(packagePath + " has no archive for this host");
+            unavailable.add(packagePath);
+            return false;
+        }
+        if (lockFile != null && !lockFile.matches(packagePath, remotePackage.get().getRevision(), archive.get())) {
+            logger.warn("The repository no longer offers the revision of " + packagePath + " in the lock file");
+            unavailable.add(packagePath);
+            return false;
+        }
+        if (!acceptLicense(sdkRoot, manifest.get(), remotePackage.get(), shouldAutoAcceptLicenses)) {
+            logger.info("The license for " + packagePath + " has not been accepted");
+            unavailable.add(packagePath);
+            return false;
+        }
+
+        final PlannedPackage plannedPackage = new PlannedPackage(
+                remotePackage.get(), archive.get(), newPackageXml(manifest.get(), remotePackage.get()));
+        planned.put(packagePath, plannedPackage);
+        for (final String dependency : remotePackage.get().getDependencies()) {
+            if (packageIndex.isInstalled(dependency)) {
+                continue;
+            }
+            if (!plan(sdkRoot, packageIndex, dependency, shouldAutoAcceptLicenses, lockFile, planned, unavailable)) {
+                logger.info("Unable to install " + dependency + ", which " + packagePath + " depends on");
+                planned.remove(packagePath);
+                unavailable.add(packagePath);
+                return false;
+            }
+            plannedPackage.dependencies.add(dependency);
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the installation of a planned package once all of its dependencies have been installed.
+     * @return A future completing with {@code true} if the package and its dependencies were installed.
+     */
+    private CompletableFuture<Boolean> schedule(final File sdkRoot,
+                                                final String packagePath,
+                                                final Map<String, PlannedPackage> planned,
+                                                final Map<String, CompletableFuture<Boolean>> scheduled,
+                                                final Executor executor,
+                                                final Downloader downloader) {
+        final CompletableFuture<Boolean> existing = scheduled.get(packagePath);
+        if (existing != null) {
+            return existing;
+        }
+        final PlannedPackage plannedPackage = planned.get(packagePath);
+        if (plannedPackage == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        // Stand in for the package while its dependencies are scheduled so a dependency cycle doesn't recurse forever
+        scheduled.put(packagePath, CompletableFuture.completedFuture(true));
+        final List<CompletableFuture<Boolean>> dependencies = new ArrayList<>();
+        for (final String dependency : plannedPackage.dependencies) {
+            dependencies.add(schedule(sdkRoot, dependency, planned, scheduled, executor, downloader));
+        }
+        final CompletableFuture<Boolean> future = CompletableFuture
+                .allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                .thenApplyAsync(ignored -> dependencies.stream().allMatch(CompletableFuture::join)
+                        && installArchive(sdkRoot, packagePath, plannedPackage, downloader), executor);
+        scheduled.put(packagePath, future);
+        return future;
+    }
+
+    /**
+     * Downloads and extracts a package into its own staging directory before committing it into the SDK root.
+     * @return {@code true} if the package was installed.
+     */
+    private boolean installArchive(final File sdkRoot,
+                                   final String packagePath,
+                                   final PlannedPackage plannedPackage,
+                                   final Downloader downloader) {
+        final RepositoryManifest.RemoteArchive archive = plannedPackage.archive;
+        logger.info("Installing " + packagePath + " " + plannedPackage.remotePackage.getRevision());
+        final File staging = StagedInstall.newStagingLocation(sdkRoot);
+        // A package is only installed by one build at a time, so its archive can be resumed from a stable location
+        final File zip = StagedInstall.getDownloadLocation(sdkRoot, packagePath.replace(';', '-') + ".zip");
+        try {
+            try {
+                final String checksum =
+                        downloader.download(archive.getUrl(), zip, archive.getChecksumType(), archive.getChecksum());
+                bytesExtracted.add(ZipExtractor.extract(zip, staging));
+                final File packageDirectory = getPackageRoot(staging);
+                writePackageXml(plannedPackage.packageXml, new File(packageDirectory, PACKAGE_XML));
+                StagedInstall.commit(packageDirectory, sdkRoot, packagePath,
+                        plannedPackage.remotePackage.getRevision().toString(), checksum);
+            } finally {
+                Files.deleteIfExists(zip.toPath());
+                FileUtils.deleteDirectory(staging);
+            }
+        } catch (final IOException e) {
+            logger.warn("Unable to install " + packagePath + " from " + repositoryUrl, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks a package up in the repository manifests
+     * @param packagePath The sdkmanager package path
+     * @return The latest stable revision of the package or empty if the repository does not offer it.
+     */
+    Optional<RepositoryManifest.RemotePackage> resolve(final String packagePath) {
+        return getManifest(packagePath).flatMap(manifest -> manifest.getPackage(packagePath));
+    }
+
+    /**
+     * Lists the revisions the repository offers of the packages sharing a path prefix
+     * @param prefix The start of the package paths, e.g. {@code build-tools;}
+     * @return The package paths starting with the prefix and the latest stable revision of each.
+     */
+    Map<String, AndroidRevision> getAvailableRevisions(final String prefix) {
+        final Map<String, AndroidRevision> revisions = new HashMap<>();
+        getManifest(prefix).ifPresent(manifest -> {
+            for (final Map.Entry<String, RepositoryManifest.RemotePackage> entry : manifest.getPackages().entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    revisions.put(entry.getKey(), entry.getValue().getRevision());
+                }
+            }
+        });
+        return revisions;
+    }
+
+    /**
+     * Finds an archive listed in the main repository manifest by its file name, regardless of the package or host it
+     * belongs to. Only the latest stable revision of each package is considered.
+     * @param fileName The file name of the archive, e.g. {@code commandlinetools-linux-6609375_latest.zip}
+     * @return The archive, if it is listed.
+     */
+    Optional<RepositoryManifest.RemoteArchive> findArchive(final String fileName) {
+        return manifests.computeIfAbsent(REPOSITORY_MANIFEST, this::loadManifest)
+                .flatMap(manifest -> manifest.getPackages().values().stream()
+                        .flatMap(remotePackage -> remotePackage.getArchives().stream())
+                        .filter(archive -> archive.getUrl().getPath().endsWith("/" + fileName))
+                        .findFirst());
+    }
+
+    /**
+     * Gets the manifest that lists a package
+     */
+    private Optional<RepositoryManifest> getManifest(final String packagePath) {
+        return getManifestPath(packagePath).flatMap(path -> manifests.computeIfAbsent(path, this::loadManifest));
+    }
+
+    /**
+     * Gets the path, relative to the repository, of the manifest that lists a package. System images are listed in a
+     * separate manifest per tag.
+     */
+    private static Optional<String> getManifestPath(final String packagePath) {
+        if (!packagePath.startsWith(SYSTEM_IMAGES_PREFIX)) {
+            return Optional.of(REPOSITORY_MANIFEST);
+        }
+        // system-images;<platform>;<tag>;<abi>
+        final String[] segments = packagePath.split(";");
+        if (segments.length < 3) {
+            return Optional.empty();
+        }
+        final String tag = "default".equals(segments[2]) ? "android" : segments[2];
+        return Optional.of(String.format(SYSTEM_IMAGE_MANIFEST_FORMAT, tag));
+    }
+
+    /**
+     * Copies packages, their dependencies and the manifests listing them into a directory laid out like the
+     * repository, so the directory, or a web server serving it, can be used as the repository of other builds. The
+     * archives of every host are copied, as the builds using the mirror may run on other hosts than this one.
+     * Archives already in the mirror are kept if they still match their checksums.
+     * @param packages The sdkmanager package paths to mirror
+     * @param archiveFileNames The file names of other archives listed in the main manifest to mirror, e.g. the
+     *                         command line tools
+     * @param destination The root of the mirror
+     * @param downloader Downloads the archives
+     * @return The number of archives downloaded.
+     * @throws IOException if a package is not offered by the repository or an archive could not be downloaded
+     */
+    int mirror(final Collection<String> packages,
+               final Collection<String> archiveFileNames,
+               final File destination,
+               final Downloader downloader) throws IOException {
+        final Set<String> manifestPaths = new TreeSet<>();
+        final Map<String, RepositoryManifest.RemoteArchive> archives = new TreeMap<>();
+        final Deque<String> pending = new ArrayDeque<>(packages);
+        final Set<String> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            final String packagePath = pending.pop();
+            if (!visited.add(packagePath)) {
+                continue;
+            }
+            final RepositoryManifest.RemotePackage remotePackage = resolve(packagePath).orElseThrow(() ->
+                    new IOException(packagePath + " is not available in the repository manifest"));
+            manifestPaths.add(getManifestPath(packagePath).orElseThrow(IllegalStateException::new));
+            for (final RepositoryManifest.RemoteArchive archive : remotePackage.getArchives()) {
+                archives.put(archive.getUrl().toString(), archive);
+            }
+            pending.addAll(remotePackage.getDependencies());
+        }
+        for (final String fileName : archiveFileNames) {
+            manifestPaths.add(REPOSITORY_MANIFEST);
+            final Optional<RepositoryManifest.RemoteArchive> archive = findArchive(fileName);
+            if (archive.isPresent()) {
+                archives.put(archive.get().getUrl().toString(), archive.get());
+            } else {
+                logger.warn(fileName + " is not listed in the repository manifest so it is not mirrored");
+            }
+        }
+
+        for (final String manifestPath : manifestPaths) {
+            manifestCache.copy(new URL(repositoryUrl, manifestPath), new File(destination, manifestPath));
+        }
+        int downloaded = 0;
+        for (final RepositoryManifest.RemoteArchive archive : archives.values()) {
+            final Optional<String> relativePath = getRelativePath(archive.getUrl());
+            if (!relativePath.isPresent()) {
+                logger.warn(archive.getUrl() + " is outside of " + repositoryUrl + " so it is not mirrored");
+                continue;
+            }
+            final File file = new File(destination, relativePath.get());
+            if (file.isFile() && archive.getChecksum() != null
+                    && archive.getChecksum().equals(Downloader.hash(file, archive.getChecksumType()))) {
+                logger.debug(relativePath.get() + " is already mirrored");
+                continue;
+            }
+            logger.info("Mirroring " + archive.getUrl());
+            downloader.download(archive.getUrl(), file, archive.getChecksumType(), archive.getChecksum());
+            downloaded++;
+        }
+        return downloaded;
+    }
+
+    /**
+     * Gets the path of a URL relative to the repository
+     * @return The relative path or empty if the URL is not in the repository.
+     */
+    private Optional<String> getRelativePath(final URL url) {
+        final String base = repositoryUrl.toString();
+        final String location = url.toString();
+        if (!location.startsWith(base) || location.length() == base.length()) {
+            return Optional.empty();
+        }
+        final String relativePath = location.substring(base.length());
+        if (relativePath.contains("?") || relativePath.contains("#") || relativePath.contains("..")) {
+            return Optional.empty();
+        }
+        return Optional.of(relativePath);
+    }
+
+    private Optional<RepositoryManifest> loadManifest(final String manifestPath) {
+        try {
+            return Optional.of(manifestCache.load(new URL(repositoryUrl, manifestPath)));
+        } catch (final IOException e) {
+            logger.warn("Unable to read repository manifest " + manifestPath + " from " + repositoryUrl, e);
+            return Optional.empty();
+        }
+    }
+
+    private static boolean acceptLicense(final File sdkRoot,
+                                         final RepositoryManifest manifest,
+                                         final RepositoryManifest.RemotePackage remotePackage,
+                                         final boolean shouldAutoAcceptLicenses) throws IOException {
+        final String licenseId = remotePackage.getLicenseRef();
+        if (licenseId == null) {
+            return true;
+        }
+        final String licenseText = manifest.getLicense(licenseId);
+        if (licenseText == null) {
+            return false;
+        }
+        if (SdkLicenses.isAccepted(sdkRoot, licenseId, licenseText)) {
+            return true;
+        }
+        if (!shouldAutoAcceptLicenses) {
+            return false;
+        }
+        SdkLicenses.accept(sdkRoot, licenseId, licenseText);
+        return true;
+    }
+
+    /**
+     * Archives contain a single top-level directory, whose contents make up the package.
+     */
+    private static File getPackageRoot(final File extracted) throws IOException {
+        final File[] children = extracted.listFiles();
+        if (children == null || children.length != 1 || !children[0].isDirectory()) {
+            throw new IOException("Expected the archive to contain a single top-level directory");
+        }
+        return children[0];
+    }
+
+    /**
+     * Builds the {@code package.xml} describing an installed package, matching what sdkmanager writes. The manifest's
+     * DOM is shared by every package and isn't safe to read from several threads, even for reads, so this is done
+     * while planning, holding the manifest's lock, and the installing threads only serialize their own document.
+     * @throws IOException if the manifest's XML source could not be read
+     */
+    private static Document newPackageXml(final RepositoryManifest manifest,
+                                          final RepositoryManifest.RemotePackage remotePackage) throws IOException {
+        final Document document;
+        try {
+            document = InstalledPackageIndex.newDocumentBuilder().newDocument();
+        } catch (final ParserConfigurationException e) {
+            throw new IOException("Unable to create package.xml for " + remotePackage.getPath(), e);
+        }
+        document.setXmlStandalone(true);
+        final String commonNamespace = manifest.getCommonNamespace();
+        final Element root = document.createElementNS(commonNamespace, getCommonPrefix(manifest) + ":repository");
+        for (final Map.Entry<String, String> namespace : manifest.getNamespaces().entrySet()) {
+            root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, namespace.getKey(), namespace.getValue());
+        }
+        document.appendChild(root);
+
+        final String licenseId = remotePackage.getLicenseRef();
+        if (licenseId != null) {
+            final Element license = document.createElement("license");
+            license.setAttribute("id", licenseId);
+            license.setAttribute("type", "text");
+            license.setTextContent(manifest.getLicense(licenseId));
+            root.appendChild(license);
+        }
+
+        final Element localPackage = document.createElement("localPackage");
+        localPackage.setAttribute("path", remotePackage.getPath());
+        localPackage.setAttribute("obsolete", "false");
+        root.appendChild(localPackage);
+        synchronized (manifest) {
+            final Element element = remotePackage.getElement();
+            for (final String name : COPIED_ELEMENTS) {
+                for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (name.equals(child.getLocalName())) {
+                        localPackage.appendChild(document.importNode(child, true));
+                    }
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Writes a {@code package.xml} built by {@link #newPackageXml}
+     */
+    private static void writePackageXml(final Document document, final File packageXml) throws IOException {
+        try {
+            final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+            transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            final Transformer transformer = transformerFactory.newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.transform(new DOMSource(document), new StreamResult(packageXml));
+        } catch (final TransformerException e) {
+            throw new IOException("Unable to write " + packageXml, e);
+        }
+    }
+
+    private static String getCommonPrefix(final RepositoryManifest manifest) {
+        final String commonNamespace = manifest.getCommonNamespace();
+        for (final Map.Entry<String, String> namespace : manifest.getNamespaces().entrySet()) {
+            if (namespace.getValue().equals(commonNamespace)
+                    && namespace.getKey().startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                return namespace.getKey().substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1);
+            }
+        }
+        return "common";
+    }
+
+    /**
+     * Gets the host operating system as named by {@code host-os} in the repository manifest
+     */
+    private static String getHostOs() {
+        // macOS is also a member of the unix family so it must be checked first
+        if (Os.isFamily(Os.FAMILY_MAC)) {
+            return "macosx";
+        } else if (Os.isFamily(Os.FAMILY_UNIX)) {
+            return "linux";
+        } else if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            return "windows";
+        } else {
+            return System.getProperty("os.name").toLowerCase(Locale.US);
+        }
+    }
+
+    /**
+     * Gets the host architecture as named by {@code host-arch} in the repository manifest
+     */
+    private static String getHostArch() {
+        final String arch = System.getProperty("os.arch").toLowerCase(Locale.US);
+        switch (arch) {
+            case "amd64":
+            case "x86_64":
+                return "x64";
+            case "arm64":
+                return "aarch64";
+            default:
+                return arch;
+        }
+    }
+
+    /**
+     * Parses a repository URL, ensuring it is treated as a directory when resolving manifests against it
+     * @param url The URL of the repository
+     * @return The parsed URL, ending in a {@code /}
+     * @throws MalformedURLException if the URL is invalid
+     */
+    static URL toRepositoryUrl(final String url) throws MalformedURLException {
+        return new URL(url.endsWith("/") ? url : url + "/");
+    }
+
+    /**
+     * A package resolved against its manifest, waiting to be installed.
+     */
+    private static final class PlannedPackage {
+        private final RepositoryManifest.RemotePackage remotePackage;
+        private final RepositoryManifest.RemoteArchive archive;
+        private final Document packageXml;
+        private final List<String> dependencies = new ArrayList<>();
+
+        private PlannedPackage(final RepositoryManifest.RemotePackage remotePackage,
+                               final RepositoryManifest.RemoteArchive archive,
+                               final Document packageXml) {
+            this.remotePackage = remotePackage;
+            this.archive = archive;
+            this.packageXml = packageXml;
+        }
+    }
+}
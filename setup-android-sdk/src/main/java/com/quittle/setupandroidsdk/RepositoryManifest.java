@@ -0,0 +1,594 @@
+package com.quittle.setupandroidsdk;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A parsed Android SDK repository manifest, such as Google's {@code repository2-1.xml} or one of the
+ * {@code sys-img2-1.xml} system image manifests. Only packages from the stable channel are exposed.
+ */
+final class RepositoryManifest {
+    private static final String COMMON_NAMESPACE_PREFIX = "http://schemas.android.com/repository/android/common/";
+    private static final String DEFAULT_COMMON_NAMESPACE = COMMON_NAMESPACE_PREFIX + "01";
+    private static final String STABLE_CHANNEL = "channel-0";
+    private static final int INDEX_VERSION = 1;
+
+    private final URL url;
+    private final Map<String, String> namespaces;
+    private final Map<String, String> licenses;
+    private final Map<String, RemotePackage> packages;
+
+    private RepositoryManifest(final URL url,
+                               final Map<String, String> namespaces,
+                               final Map<String, String> licenses,
+                               final Map<String, RemotePackage> packages) {
+        this.url = url;
+        this.namespaces = namespaces;
+        this.licenses = licenses;
+        this.packages = packages;
+    }
+
+    /**
+     * A package available for download from the repository.
+     */
+    static final class RemotePackage {
+        private final String path;
+        private final AndroidRevision revision;
+        private final String licenseRef;
+        private final List<String> dependencies;
+        private final List<RemoteArchive> archives;
+        private final int elementIndex;
+        private final PackageElements elements;
+
+        private RemotePackage(final String path,
+                              final AndroidRevision revision,
+                              final String licenseRef,
+                              final List<String> dependencies,
+                              final List<RemoteArchive> archives,
+                              final int elementIndex,
+                              final PackageElements elements) {
+            this.path = path;
+            this.revision = revision;
+            this.licenseRef = licenseRef;
+            this.dependencies = dependencies;
+            this.archives = archives;
+            this.elementIndex = elementIndex;
+            this.elements = elements;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        AndroidRevision getRevision() {
+            return revision;
+        }
+
+        /**
+         * Gets the id of the license the package is distributed under
+         * @return The license id or {@code null} if the package has no license.
+         */
+        String getLicenseRef() {
+            return licenseRef;
+        }
+
+        /**
+         * Gets the paths of the packages this package depends on
+         * @return An unmodifiable list of package paths.
+         */
+        List<String> getDependencies() {
+            return dependencies;
+        }
+
+        List<RemoteArchive> getArchives() {
+            return archives;
+        }
+
+        /**
+         * Gets the {@code remotePackage} element the package was parsed from. Manifests read from an index parse their
+         * XML source the first time this is called.
+         * @return The element, which is shared and must not be modified.
+         * @throws IOException if the manifest's XML source could not be read or has changed since it was indexed
+         */
+        Element getElement() throws IOException {
+            final List<Element> packageElements = elements.get();
+            if (elementIndex >= packageElements.size()) {
+                throw new IOException("Repository manifest " + elements.source + " has changed since it was indexed");
+            }
+            return packageElements.get(elementIndex);
+        }
+
+        /**
+         * Finds the archive to install on a host
+         * @param hostOs The host operating system, as named in manifests, e.g. {@code linux}
+         * @param hostArch The host architecture, as named in manifests, e.g. {@code x64}
+         * @return The archive built for the host or for any host, if one exists.
+         */
+        Optional<RemoteArchive> getArchiveForHost(final String hostOs, final String hostArch) {
+            return archives.stream()
+                    .filter(archive -> archive.hostOs == null || archive.hostOs.equals(hostOs))
+                    .filter(archive -> archive.hostArch == null || archive.hostArch.equals(hostArch))
+                    .findFirst();
+        }
+    }
+
+    /**
+     * A downloadable archive of a package.
+     */
+    static final class RemoteArchive {
+        private final URL url;
+        private final long size;
+        private final String checksumType;
+        private final String checksum;
+        private final String hostOs;
+        private final String hostArch;
+
+        private RemoteArchive(final URL url,
+                              final long size,
+                              final String checksumType,
+                              final String checksum,
+                              final String hostOs,
+                              final String hostArch) {
+            this.url = url;
+            this.size = size;
+            this.checksumType = checksumType;
+            this.checksum = checksum;
+            this.hostOs = hostOs;
+            this.hostArch = hostArch;
+        }
+
+        URL getUrl() {
+            return url;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the name of the algorithm the checksum was computed with
+         * @return A {@link java.security.MessageDigest} algorithm name, e.g. {@code SHA-1}.
+         */
+        String getChecksumType() {
+            return checksumType;
+        }
+
+        /**
+         * Gets the expected checksum of the archive
+         * @return The lowercase, hex-encoded checksum.
+         */
+        String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Gets the operating system the archive is built for
+         * @return The {@code host-os} of the archive, e.g. {@code linux}, or {@code null} if it runs on any.
+         */
+        String getHostOs() {
+            return hostOs;
+        }
+
+        /**
+         * Gets the architecture the archive is built for
+         * @return The {@code host-arch} of the archive, e.g. {@code x64}, or {@code null} if it runs on any.
+         */
+        String getHostArch() {
+            return hostArch;
+        }
+    }
+
+    /**
+     * The {@code remotePackage} elements of a manifest, in document order. They are only needed to install packages,
+     * so manifests read from an index leave them unparsed until they are first used.
+     */
+    private static final class PackageElements {
+        private final File source;
+        private final String sourceChecksum;
+        private List<Element> elements;
+
+        private PackageElements(final List<Element> elements) {
+            this.source = null;
+            this.sourceChecksum = null;
+            this.elements = elements;
+        }
+
+        private PackageElements(final File source, final String sourceChecksum) {
+            this.source = source;
+            this.sourceChecksum = sourceChecksum;
+            this.elements = null;
+        }
+
+        synchronized List<Element> get() throws IOException {
+            if (elements == null) {
+                final MessageDigest digest = newSourceDigest();
+                final Document document;
+                try (final InputStream is = new DigestInputStream(Files.newInputStream(source.toPath()), digest)) {
+                    document = InstalledPackageIndex.newDocumentBuilder().parse(is);
+                } catch (final SAXException | ParserConfigurationException e) {
+                    throw new IOException("Unable to parse repository manifest " + source, e);
+                }
+                if (!Utils.toHexString(digest.digest()).equals(sourceChecksum)) {
+                    throw new IOException("Repository manifest " + source + " has changed since it was indexed");
+                }
+                elements = getPackageElements(document.getDocumentElement());
+            }
+            return elements;
+        }
+    }
+
+    /**
+     * Creates the digest recorded in indexes to identify the XML source they were built from
+     * @return A new SHA-256 digest.
+     */
+    static MessageDigest newSourceDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by all JVMs", e);
+        }
+    }
+
+    /**
+     * Parses a manifest
+     * @param url The location the manifest was read from. Relative archive URLs are resolved against it.
+     * @param is The manifest's contents
+     * @return The parsed manifest
+     * @throws IOException if the manifest could not be read or parsed
+     */
+    static RepositoryManifest parse(final URL url, final InputStream is) throws IOException {
+        final Document document;
+        try {
+            document = InstalledPackageIndex.newDocumentBuilder().parse(is);
+        } catch (final SAXException | ParserConfigurationException e) {
+            throw new IOException("Unable to parse repository manifest " + url, e);
+        }
+
+        final Element root = document.getDocumentElement();
+        final Map<String, String> namespaces = new HashMap<>();
+        final NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                namespaces.put(attribute.getName(), attribute.getValue());
+            }
+        }
+
+        final Map<String, String> licenses = new HashMap<>();
+        for (final Element child : getChildElements(root)) {
+            if ("license".equals(child.getLocalName())) {
+                licenses.put(child.getAttribute("id"), child.getTextContent());
+            }
+        }
+
+        final List<Element> packageElements = getPackageElements(root);
+        final PackageElements elements = new PackageElements(packageElements);
+        final Map<String, RemotePackage> packages = new HashMap<>();
+        for (int i = 0; i < packageElements.size(); i++) {
+            parsePackage(url, packageElements.get(i), i, elements).ifPresent(remotePackage -> {
+                final RemotePackage existing = packages.get(remotePackage.path);
+                if (existing == null || existing.revision.compareTo(remotePackage.revision) < 0) {
+                    packages.put(remotePackage.path, remotePackage);
+                }
+            });
+        }
+        return new RepositoryManifest(url, Collections.unmodifiableMap(namespaces),
+                Collections.unmodifiableMap(licenses), Collections.unmodifiableMap(packages));
+    }
+
+    private static List<Element> getPackageElements(final Element root) {
+        final List<Element> packageElements = new ArrayList<>();
+        for (final Element child : getChildElements(root)) {
+            if ("remotePackage".equals(child.getLocalName())) {
+                packageElements.add(child);
+            }
+        }
+        return Collections.unmodifiableList(packageElements);
+    }
+
+    private static Optional<RemotePackage> parsePackage(final URL manifestUrl,
+                                                        final Element element,
+                                                        final int elementIndex,
+                                                        final PackageElements elements)
+            throws MalformedURLException {
+        final Element channelRef = getChildElement(element, "channelRef");
+        if (channelRef != null && !STABLE_CHANNEL.equals(channelRef.getAttribute("ref"))) {
+            return Optional.empty();
+        }
+        final Element revision = getChildElement(element, "revision");
+        if (revision == null) {
+            return Optional.empty();
+        }
+
+        final Element usesLicense = getChildElement(element, "uses-license");
+        final List<String> dependencies = new ArrayList<>();
+        final Element dependenciesElement = getChildElement(element, "dependencies");
+        if (dependenciesElement != null) {
+            for (final Element dependency : getChildElements(dependenciesElement)) {
+                dependencies.add(dependency.getAttribute("path"));
+            }
+        }
+
+        final List<RemoteArchive> archives = new ArrayList<>();
+        final Element archivesElement = getChildElement(element, "archives");
+        if (archivesElement != null) {
+            for (final Element archive : getChildElements(archivesElement)) {
+                final Element complete = getChildElement(archive, "complete");
+                if (complete == null) {
+                    continue;
+                }
+                final Element checksum = getChildElement(complete, "checksum");
+                archives.add(new RemoteArchive(
+                        new URL(manifestUrl, getChildText(complete, "url")),
+                        Long.parseLong(getChildText(complete, "size")),
+                        getChecksumAlgorithm(checksum == null ? "" : checksum.getAttribute("type")),
+                        checksum == null ? null : checksum.getTextContent().trim().toLowerCase(Locale.US),
+                        getChildText(archive, "host-os"),
+                        getChildText(archive, "host-arch")));
+            }
+        }
+
+        try {
+            return Optional.of(new RemotePackage(
+                    element.getAttribute("path"),
+                    new AndroidRevision(
+                            Integer.parseInt(getChildText(revision, "major")),
+                            parseIntOrDefault(getChildText(revision, "minor"), AndroidRevision.IMPLICIT_MINOR_REV),
+                            parseIntOrDefault(getChildText(revision, "micro"), AndroidRevision.IMPLICIT_MICRO_REV),
+                            parseIntOrDefault(getChildText(revision, "preview"), AndroidRevision.NOT_A_PREVIEW)),
+                    usesLicense == null ? null : usesLicense.getAttribute("ref"),
+                    Collections.unmodifiableList(dependencies),
+                    Collections.unmodifiableList(archives),
+                    elementIndex,
+                    elements));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes everything but the package elements to a compact binary index, which {@link #readIndex} reads back far
+     * faster than the XML can be parsed.
+     * @param out The stream to write the index to
+     * @throws IOException if the index could not be written
+     */
+    void writeIndex(final DataOutput out) throws IOException {
+        out.writeInt(INDEX_VERSION);
+        writeString(out, url.toString());
+        writeStringMap(out, namespaces);
+        writeStringMap(out, licenses);
+        out.writeInt(packages.size());
+        for (final RemotePackage remotePackage : packages.values()) {
+            writeString(out, remotePackage.path);
+            out.writeInt(remotePackage.revision.getMajor());
+            out.writeInt(remotePackage.revision.getMinor());
+            out.writeInt(remotePackage.revision.getMicro());
+            out.writeInt(remotePackage.revision.getPreview());
+            writeString(out, remotePackage.licenseRef);
+            out.writeInt(remotePackage.dependencies.size());
+            for (final String dependency : remotePackage.dependencies) {
+                writeString(out, dependency);
+            }
+            out.writeInt(remotePackage.archives.size());
+            for (final RemoteArchive archive : remotePackage.archives) {
+                writeString(out, archive.url.toString());
+                out.writeLong(archive.size);
+                writeString(out, archive.checksumType);
+                writeString(out, archive.checksum);
+                writeString(out, archive.hostOs);
+                writeString(out, archive.hostArch);
+            }
+            out.writeInt(remotePackage.elementIndex);
+        }
+    }
+
+    /**
+     * Reads a manifest back from an index written by {@link #writeIndex}
+     * @param in The stream to read the index from
+     * @param source The manifest's XML, parsed if a package's element is needed
+     * @param sourceChecksum The hex-encoded {@link #newSourceDigest} of the XML the index was written from
+     * @return The manifest
+     * @throws IOException if the index could not be read or was written by an incompatible version
+     */
+    static RepositoryManifest readIndex(final DataInput in, final File source, final String sourceChecksum)
+            throws IOException {
+        if (in.readInt() != INDEX_VERSION) {
+            throw new IOException("Unsupported repository manifest index version");
+        }
+        final URL url = new URL(readString(in));
+        final Map<String, String> namespaces = readStringMap(in);
+        final Map<String, String> licenses = readStringMap(in);
+        final PackageElements elements = new PackageElements(source, sourceChecksum);
+        final int packageCount = in.readInt();
+        final Map<String, RemotePackage> packages = new HashMap<>(packageCount * 2);
+        for (int i = 0; i < packageCount; i++) {
+            final String path = readString(in);
+            final AndroidRevision revision =
+                    new AndroidRevision(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            final String licenseRef = readString(in);
+            final int dependencyCount = in.readInt();
+            final List<String> dependencies = new ArrayList<>(dependencyCount);
+            for (int j = 0; j < dependencyCount; j++) {
+                dependencies.add(readString(in));
+            }
+            final int archiveCount = in.readInt();
+            final List<RemoteArchive> archives = new ArrayList<>(archiveCount);
+            for (int j = 0; j < archiveCount; j++) {
+                archives.add(new RemoteArchive(new URL(readString(in)), in.readLong(),
+                        readString(in), readString(in), readString(in), readString(in)));
+            }
+            packages.put(path, new RemotePackage(path, revision, licenseRef,
+                    Collections.unmodifiableList(dependencies), Collections.unmodifiableList(archives),
+                    in.readInt(), elements));
+        }
+        return new RepositoryManifest(url, Collections.unmodifiableMap(namespaces),
+                Collections.unmodifiableMap(licenses), Collections.unmodifiableMap(packages));
+    }
+
+    private static void writeStringMap(final DataOutput out, final Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, String> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    /**
+     * Writes a nullable string. Unlike {@link DataOutput#writeUTF}, strings longer than 64KiB, like license texts,
+     * are supported.
+     */
+    static void writeString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}
+     */
+    static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String getChecksumAlgorithm(final String type) {
+        switch (type.toLowerCase(Locale.US)) {
+            case "sha-256":
+            case "sha256":
+                return "SHA-256";
+            default:
+                // Older manifests leave the type out and always use SHA-1
+                return "SHA-1";
+        }
+    }
+
+    private static int parseIntOrDefault(final String value, final int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static List<Element> getChildElements(final Element parent) {
+        final List<Element> children = new ArrayList<>();
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static Element getChildElement(final Element parent, final String localName) {
+        for (final Element child : getChildElements(parent)) {
+            if (localName.equals(child.getLocalName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static String getChildText(final Element parent, final String localName) {
+        final Element child = getChildElement(parent, localName);
+        return child == null ? null : child.getTextContent().trim();
+    }
+
+    /**
+     * Gets the location the manifest was read from
+     * @return The manifest URL
+     */
+    URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets the namespace declarations of the manifest's root element, which the {@code xsi:type} attributes of
+     * package type details refer to.
+     * @return An unmodifiable map of {@code xmlns} attribute names, e.g. {@code xmlns:generic}, to namespace URIs.
+     */
+    Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * Gets the namespace of the root element of {@code package.xml} files for packages from this manifest
+     * @return The common repository namespace URI declared by the manifest.
+     */
+    String getCommonNamespace() {
+        return namespaces.values().stream()
+                .filter(uri -> uri.startsWith(COMMON_NAMESPACE_PREFIX))
+                .findFirst()
+                .orElse(DEFAULT_COMMON_NAMESPACE);
+    }
+
+    /**
+     * Gets the text of a license
+     * @param id The id of the license
+     * @return The license text or {@code null} if the manifest does not contain the license.
+     */
+    String getLicense(final String id) {
+        return licenses.get(id);
+    }
+
+    /**
+     * Finds a package in the manifest
+     * @param path The sdkmanager package path
+     * @return The latest stable revision of the package, if the manifest contains it.
+     */
+    Optional<RemotePackage> getPackage(final String path) {
+        return Optional.ofNullable(packages.get(path));
+    }
+
+    /**
+     * Gets all the packages in the manifest
+     * @return An unmodifiable map of package paths to the latest stable revision of each package.
+     */
+    Map<String, RemotePackage> getPackages() {
+        return packages;
+    }
+}
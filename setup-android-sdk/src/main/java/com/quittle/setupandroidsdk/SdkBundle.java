@@ -0,0 +1,306 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A single archive holding the installed packages and command line tools of an SDK root, along with a manifest of
+ * what it holds, so a whole SDK can be restored in one step, e.g. on ephemeral CI machines. Only package directories
+ * are bundled, so licenses, locks, caches and staging directories in the SDK root are left out. Restored packages are
+ * committed just like installed ones, so the plugin considers them installed without running sdkmanager.
+ */
+final class SdkBundle {
+    /**
+     * The name of the manifest entry, listing the bundled packages
+     */
+    static final String MANIFEST_ENTRY = "setup-android-sdk-bundle.properties";
+
+    private static final String FORMAT_PROPERTY = "format";
+    private static final String FORMAT_VERSION = "1";
+    private static final String PACKAGE_PREFIX = "package.";
+    private static final String SDK_TOOLS_PATH = "sdkTools.path";
+    private static final String SDK_TOOLS_VERSION = "sdkTools.version";
+    private static final String SDK_TOOLS_CHECKSUM = "sdkTools.checksum";
+
+    private static final int REGULAR_FILE_TYPE = 0100000;
+    private static final int DIRECTORY_TYPE = 0040000;
+    private static final int SYMBOLIC_LINK_TYPE = 0120000;
+
+    private final Map<String, AndroidRevision> packages;
+    private final StagedInstall.Marker sdkTools;
+
+    private SdkBundle(final Map<String, AndroidRevision> packages, final StagedInstall.Marker sdkTools) {
+        this.packages = packages;
+        this.sdkTools = sdkTools;
+    }
+
+    /**
+     * Gets the bundled packages
+     * @return An unmodifiable map of package paths to their bundled revisions.
+     */
+    Map<String, AndroidRevision> getPackages() {
+        return Collections.unmodifiableMap(packages);
+    }
+
+    /**
+     * Gets the bundled command line tools
+     * @return The completion marker the tools were installed with or empty if the bundle doesn't have them.
+     */
+    Optional<StagedInstall.Marker> getSdkTools() {
+        return Optional.ofNullable(sdkTools);
+    }
+
+    /**
+     * Bundles packages installed in an SDK root
+     * @param sdkRoot The root of the Android SDK
+     * @param packages The installed packages to bundle and their revisions
+     * @param sdkTools The completion marker of the installed command line tools or {@code null} to leave them out
+     * @param bundle Where to write the bundle. It is replaced atomically.
+     * @throws IOException if a package could not be read or the bundle could not be written
+     */
+    static void write(final File sdkRoot,
+                      final Map<String, AndroidRevision> packages,
+                      final StagedInstall.Marker sdkTools,
+                      final File bundle) throws IOException {
+        final Map<String, AndroidRevision> sortedPackages = new TreeMap<>(packages);
+        if (sdkTools != null) {
+            // The tools may describe themselves as a package as well
+            sortedPackages.remove(sdkTools.getPath());
+        }
+        final List<Path> roots = new ArrayList<>();
+        if (sdkTools != null) {
+            roots.add(Utils.getPackageDirectory(sdkRoot, sdkTools.getPath()).toPath());
+        }
+        for (final String packagePath : sortedPackages.keySet()) {
+            roots.add(Utils.getPackageDirectory(sdkRoot, packagePath).toPath());
+        }
+
+        final Properties manifest = new Properties();
+        manifest.setProperty(FORMAT_PROPERTY, FORMAT_VERSION);
+        for (final Map.Entry<String, AndroidRevision> entry : sortedPackages.entrySet()) {
+            manifest.setProperty(PACKAGE_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        if (sdkTools != null) {
+            manifest.setProperty(SDK_TOOLS_PATH, sdkTools.getPath());
+            if (sdkTools.getVersion() != null) {
+                manifest.setProperty(SDK_TOOLS_VERSION, sdkTools.getVersion());
+            }
+            if (sdkTools.getChecksum() != null) {
+                manifest.setProperty(SDK_TOOLS_CHECKSUM, sdkTools.getChecksum());
+            }
+        }
+
+        final Path root = sdkRoot.toPath();
+        final File parent = bundle.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        final File temp = new File(parent, bundle.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            final Map<String, Integer> modes = new HashMap<>();
+            try (final ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+                manifest.store(zip, null);
+                zip.closeEntry();
+                for (final Path packageRoot : roots) {
+                    writeTree(zip, root, packageRoot, roots, modes);
+                }
+            }
+            ZipExtractor.writeUnixModes(temp, modes);
+            Files.move(temp.toPath(), bundle.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Adds a package directory to the bundle, skipping completion markers and other packages nested inside it
+     */
+    private static void writeTree(final ZipOutputStream zip,
+                                  final Path sdkRoot,
+                                  final Path packageRoot,
+                                  final List<Path> packageRoots,
+                                  final Map<String, Integer> modes) throws IOException {
+        final List<Path> paths;
+        try (final Stream<Path> walk = Files.walk(packageRoot)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        }
+        for (final Path path : paths) {
+            if (!path.equals(packageRoot) && isInsideOtherPackage(path, packageRoot, packageRoots)
+                    || StagedInstall.MARKER_FILE.equals(path.getFileName().toString())) {
+                continue;
+            }
+            final String relativePath = sdkRoot.relativize(path).toString().replace(File.separatorChar, '/');
+            if (Files.isSymbolicLink(path)) {
+                zip.putNextEntry(new ZipEntry(relativePath));
+                zip.write(Files.readSymbolicLink(path).toString().getBytes(StandardCharsets.UTF_8));
+                modes.put(relativePath, SYMBOLIC_LINK_TYPE | 0777);
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                zip.putNextEntry(new ZipEntry(relativePath + '/'));
+                modes.put(relativePath + '/', DIRECTORY_TYPE | getPermissions(path));
+            } else {
+                zip.putNextEntry(new ZipEntry(relativePath));
+                Files.copy(path, zip);
+                modes.put(relativePath, REGULAR_FILE_TYPE | getPermissions(path));
+            }
+            zip.closeEntry();
+        }
+    }
+
+    private static boolean isInsideOtherPackage(final Path path, final Path packageRoot, final List<Path> roots) {
+        for (final Path other : roots) {
+            if (!other.equals(packageRoot) && other.startsWith(packageRoot) && path.startsWith(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getPermissions(final Path path) throws IOException {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return Files.isDirectory(path) || Files.isExecutable(path) ? 0755 : 0644;
+        }
+        final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+        // PosixFilePermission is declared from owner read (0400) down to others execute (0001)
+        final PosixFilePermission[] values = PosixFilePermission.values();
+        int mode = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (permissions.contains(values[i])) {
+                mode |= 1 << (values.length - 1 - i);
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Reads the manifest of a bundle without extracting it
+     * @param bundle The bundle to read
+     * @return What the bundle holds
+     * @throws IOException if the bundle could not be read or is not a bundle
+     */
+    static SdkBundle read(final File bundle) throws IOException {
+        final Properties manifest = new Properties();
+        try (final ZipFile zip = new ZipFile(bundle)) {
+            final ZipEntry entry = zip.getEntry(MANIFEST_ENTRY);
+            if (entry == null) {
+                throw new IOException(bundle + " is not an SDK bundle");
+            }
+            try (final InputStream is = zip.getInputStream(entry)) {
+                manifest.load(is);
+            }
+        }
+        if (!FORMAT_VERSION.equals(manifest.getProperty(FORMAT_PROPERTY))) {
+            throw new IOException("Unsupported SDK bundle format " + manifest.getProperty(FORMAT_PROPERTY));
+        }
+
+        final Map<String, AndroidRevision> packages = new TreeMap<>();
+        for (final String key : manifest.stringPropertyNames()) {
+            if (key.startsWith(PACKAGE_PREFIX)) {
+                try {
+                    packages.put(key.substring(PACKAGE_PREFIX.length()),
+                            AndroidRevision.parseRevision(manifest.getProperty(key)));
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Invalid revision for " + key + " in " + bundle, e);
+                }
+            }
+        }
+        final String sdkToolsPath = manifest.getProperty(SDK_TOOLS_PATH);
+        return new SdkBundle(packages, sdkToolsPath == null
+                ? null
+                : new StagedInstall.Marker(sdkToolsPath, manifest.getProperty(SDK_TOOLS_VERSION),
+                        manifest.getProperty(SDK_TOOLS_CHECKSUM)));
+    }
+
+    /**
+     * Restores the packages and command line tools of a bundle that are missing from an SDK root or installed at
+     * another revision. The bundle is only extracted if something is missing.
+     * @param bundle The bundle to restore
+     * @param sdkRoot The root of the Android SDK
+     * @return The number of packages restored, counting the command line tools as one.
+     * @throws IOException if the bundle could not be read or restored
+     */
+    static int restore(final File bundle, final File sdkRoot) throws IOException {
+        final SdkBundle contents = read(bundle);
+        final boolean restoreSdkTools = contents.sdkTools != null && !isInstalled(contents.sdkTools, sdkRoot);
+        final Map<String, AndroidRevision> installed = new InstalledPackageIndex(sdkRoot).getPackages();
+        if (!restoreSdkTools && getMissing(contents.packages, installed).isEmpty()) {
+            return 0;
+        }
+
+        final File staging = StagedInstall.newStagingLocation(sdkRoot);
+        try {
+            ZipExtractor.extract(bundle, staging);
+            int restored = 0;
+            // The tools go first as packages may be nested inside their directory
+            if (restoreSdkTools) {
+                final StagedInstall.Marker tools = contents.sdkTools;
+                StagedInstall.commit(Utils.getPackageDirectory(staging, tools.getPath()), sdkRoot, tools.getPath(),
+                        tools.getVersion(), tools.getChecksum());
+                restored++;
+            }
+            for (final String packagePath
+                    : getMissing(contents.packages, new InstalledPackageIndex(sdkRoot).getPackages())) {
+                final AndroidRevision revision = contents.packages.get(packagePath);
+                StagedInstall.commit(Utils.getPackageDirectory(staging, packagePath), sdkRoot, packagePath,
+                        revision.toString(), null);
+                restored++;
+            }
+            return restored;
+        } finally {
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+
+    private static boolean isInstalled(final StagedInstall.Marker sdkTools, final File sdkRoot) {
+        final Optional<StagedInstall.Marker> installed =
+                StagedInstall.readMarker(Utils.getPackageDirectory(sdkRoot, sdkTools.getPath()));
+        return installed.isPresent()
+                && Objects.equals(installed.get().getVersion(), sdkTools.getVersion())
+                && Objects.equals(installed.get().getChecksum(), sdkTools.getChecksum());
+    }
+
+    private static List<String> getMissing(final Map<String, AndroidRevision> packages,
+                                           final Map<String, AndroidRevision> installed) {
+        final List<String> missing = new ArrayList<>();
+        for (final Map.Entry<String, AndroidRevision> entry : packages.entrySet()) {
+            if (!Objects.equals(entry.getValue(), installed.get(entry.getKey()))) {
+                missing.add(entry.getKey());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Describes the contents of the bundle, for logging
+     */
+    @Override
+    public String toString() {
+        return packages.size() + " packages" + (sdkTools == null ? "" : " and SDK tools " + sdkTools.getVersion());
+    }
+}
@@ -0,0 +1,945 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.taskdefs.condition.Os;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.tasks.TaskInstantiationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Installs the Android SDK into an SDK root. A single instance is shared by every project in the build, including
+ * included builds, so work like scanning the installed packages or running sdkmanager only happens once per build
+ * no matter how many projects request it.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public abstract class SdkInstallerService implements BuildService<SdkInstallerService.Parameters>, AutoCloseable {
+    private static final String SDK_TOOLS_FILE_NAME_FORMAT = "commandlinetools-%s-%s.zip";
+    private static final String[] SDK_TOOLS_PLATFORMS = { "linux", "mac", "win" };
+    private static final String LOCKS_DIRECTORY = ".locks";
+    private static final String TOOLS_LOCK = "cmdline-tools.lock";
+    private static final String LICENSES_LOCK = "licenses.lock";
+    private static final String DEDUP_LOCK = "dedup.lock";
+    private static final String SDK_MANAGER_REPOSITORY_ENV = "SDK_TEST_BASE_URL";
+
+    /**
+     * Parameters for {@link SdkInstallerService}.
+     */
+    public interface Parameters extends BuildServiceParameters {
+        /**
+         * The root of the Android SDK to install into
+         * @return The SDK root property
+         */
+        DirectoryProperty getSdkDirectory();
+
+        /**
+         * Where to write the JSON report of the time spent setting up the SDK at the end of the build
+         * @return The report file property. No report is written if it is not set.
+         */
+        RegularFileProperty getReportFile();
+    }
+
+    private final Logger logger = Logging.getLogger(SdkInstallerService.class);
+    private final InstalledPackageIndex packageIndex;
+    private final Set<String> requestedPackages = ConcurrentHashMap.newKeySet();
+    private final Set<String> installedPackages = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, String> resolvedSpecs = new ConcurrentHashMap<>();
+    private final AtomicInteger installRequests = new AtomicInteger();
+    private final AtomicInteger sdkManagerInvocations = new AtomicInteger();
+    private final SetupMetrics metrics = new SetupMetrics();
+    private final Set<SetupMetrics> reportedMetrics = ConcurrentHashMap.newKeySet();
+    private String installedSdkToolsVersion;
+    private boolean licensesSynchronized;
+    private boolean recoveredInterruptedInstalls;
+    private RepositoryInstaller repositoryInstaller;
+    private SdkLockFile lockFile;
+
+    /**
+     * Creates the service. Instantiated by Gradle.
+     */
+    public SdkInstallerService() {
+        this.packageIndex = new InstalledPackageIndex(getSdkDirectory());
+    }
+
+    /**
+     * Gets the root of the Android SDK this service installs into
+     * @return The SDK root
+     */
+    File getSdkDirectory() {
+        return getParameters().getSdkDirectory().get().getAsFile();
+    }
+
+    /**
+     * Includes metrics recorded outside of this service, like the resolution of the default packages, in the report
+     * written at the end of the build
+     * @param other The metrics to include once the build finishes
+     */
+    void addToReport(final SetupMetrics other) {
+        reportedMetrics.add(other);
+    }
+
+    /**
+     * Writes the report of the time spent setting up the SDK, if one is configured. Called by Gradle at the end of
+     * the build.
+     */
+    @Override
+    public void close() {
+        if (!getParameters().getReportFile().isPresent()) {
+            return;
+        }
+        final File reportFile = getParameters().getReportFile().get().getAsFile();
+        final SetupMetrics report = new SetupMetrics();
+        report.addAll(metrics);
+        for (final SetupMetrics other : reportedMetrics) {
+            report.addAll(other);
+        }
+        report.count("sdkManagerInvocations", sdkManagerInvocations.get());
+        if (repositoryInstaller != null) {
+            report.count("bytesExtracted", repositoryInstaller.getBytesExtracted());
+        }
+        try {
+            report.writeReport(reportFile, getSdkDirectory());
+        } catch (final IOException e) {
+            logger.warn("Unable to write the SDK setup report to " + reportFile, e);
+        }
+    }
+
+    /**
+     * Gets every package requested from this service during the build so far
+     * @return A sorted copy of the requested packages.
+     */
+    Set<String> getRequestedPackages() {
+        return new TreeSet<>(requestedPackages);
+    }
+
+    /**
+     * Synchronizes the licenses directory into the SDK root, once per build, rewriting only the files that changed.
+     * @param options The installation settings naming the licenses directory
+     */
+    @SuppressWarnings("try")
+    synchronized void setupLicences(final InstallOptions options) {
+        final File licenseDirectory = options.getLicensesDirectory();
+        if (licensesSynchronized) {
+            return;
+        }
+        if (licenseDirectory == null) {
+            logger.debug("No license directory specified, accepting all licenses automatically");
+            licensesSynchronized = true;
+            return;
+        }
+        try (final SetupMetrics.Phase phase = metrics.start("setupLicences");
+                final FileLocks.HeldLocks lock = lockSdk(LICENSES_LOCK, false)) {
+            final boolean updated = SdkLicenses.synchronize(licenseDirectory, getSdkDirectory());
+            phase.setCacheHit(!updated);
+            if (updated) {
+                logger.debug("Updated the SDK licenses from " + licenseDirectory);
+            }
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to synchronize licenses directory", e);
+        }
+        licensesSynchronized = true;
+    }
+
+    /**
+     * Installs {@code sdkmanager}. If an {@link InstallOptions#getSdkBundle SDK bundle} is configured, whatever it
+     * holds that is missing from the SDK root is restored first. The completion marker committed along with the tools
+     * records which version was installed, to avoid downloading every time and to detect version changes. The check
+     * happens while holding the tools lock so a build waiting on another one installing the same version reuses its
+     * result. The first call in a build also finishes or discards installs a previous build was interrupted in the
+     * middle of, as no other build can be installing into the SDK root while the tools lock is held exclusively.
+     * @param options The installation settings naming the version of the command line tools to install
+     */
+    @SuppressWarnings("try")
+    synchronized void installSdkManager(final InstallOptions options) {
+        final String desiredSdkToolsVersion = options.getSdkToolsVersion();
+        if (Objects.equals(desiredSdkToolsVersion, installedSdkToolsVersion)) {
+            return;
+        }
+        final File sdkDir = getSdkDirectory();
+        try (final SetupMetrics.Phase phase = metrics.start("installSdkManager").setDetail(desiredSdkToolsVersion);
+                final FileLocks.HeldLocks lock = lockSdk(TOOLS_LOCK, false)) {
+            if (!recoveredInterruptedInstalls) {
+                try {
+                    if (StagedInstall.recover(sdkDir, logger)) {
+                        packageIndex.invalidate();
+                    }
+                } catch (final IOException e) {
+                    throw new TaskInstantiationException("Unable to recover from interrupted installs", e);
+                }
+                recoveredInterruptedInstalls = true;
+            }
+            if (options.getSdkBundle() != null && options.getSdkBundle().isFile()) {
+                restoreBundle(sdkDir, options.getSdkBundle());
+            }
+            final boolean installed = isSdkToolsInstalled(sdkDir, options);
+            phase.setCacheHit(installed);
+            if (!installed) {
+                downloadSdkTools(sdkDir, options);
+                packageIndex.invalidate();
+            }
+        }
+        installedSdkToolsVersion = desiredSdkToolsVersion;
+    }
+
+    /**
+     * Installs packages that are not already present in the SDK root. Packages already handled earlier in the build
+     * are skipped without touching the file system.
+     * @param requester Who is requesting the packages, for logging
+     * @param requested The sdkmanager package paths or {@link PackageSpec}s to install
+     * @param options The installation settings
+     */
+    void installPackages(final String requester, final Collection<String> requested, final InstallOptions options) {
+        if (requested.isEmpty()) {
+            return;
+        }
+        final Set<String> packages = resolvePackageSpecs(requested, options);
+        requestedPackages.addAll(packages);
+        installRequests.incrementAndGet();
+        if (options.shouldInstallFromLockFile()) {
+            final SdkLockFile locked = getLockFile(options);
+            final Set<String> unlocked = new TreeSet<>();
+            for (final String packagePath : packages) {
+                if (!locked.getRevision(packagePath).isPresent()) {
+                    unlocked.add(packagePath);
+                }
+            }
+            if (!unlocked.isEmpty()) {
+                throw new TaskInstantiationException("Packages " + unlocked + " requested by " + requester
+                        + " are not in the lock file " + options.getLockFile() + ". Run the "
+                        + SetupAndroidSdkPlugin.LOCK_TASK_NAME + " task to update it.");
+            }
+        }
+
+        final Set<String> newPackages = new TreeSet<>(packages);
+        newPackages.removeAll(installedPackages);
+        if (newPackages.isEmpty()) {
+            logger.debug("All packages for " + requester + " were already installed by this build");
+            return;
+        }
+
+        final Set<String> missingPackages = getMissingPackages(newPackages, options);
+        metrics.count("packagesRequested", newPackages.size());
+        metrics.count("packagesSkipped", newPackages.size() - missingPackages.size());
+        if (missingPackages.isEmpty()) {
+            logger.debug("Packages already present in the SDK root: " + newPackages);
+        } else {
+            if (installMissingPackages(missingPackages, options)) {
+                sdkManagerInvocations.incrementAndGet();
+            }
+            if (options.shouldInstallFromLockFile()) {
+                final Set<String> mismatched = getMissingPackages(missingPackages, options);
+                if (!mismatched.isEmpty()) {
+                    throw new TaskInstantiationException("Unable to install the revisions of " + mismatched
+                            + " in the lock file " + options.getLockFile() + ". Run the "
+                            + SetupAndroidSdkPlugin.LOCK_TASK_NAME + " task to update it.");
+                }
+            }
+        }
+        installedPackages.addAll(newPackages);
+    }
+
+    /**
+     * Replaces package specs, like {@code build-tools;[34,35)}, with the exact package paths they resolve to. A spec
+     * resolves to the latest matching package already installed in the SDK root and only if there is none, to the
+     * latest one the repository offers, so bumping the upper bound of a range doesn't cause a download. When the lock
+     * file is enforced, specs resolve to the locked packages instead. Each spec is resolved once per build so every
+     * project gets the same package.
+     * @throws TaskInstantiationException if a spec is malformed or nothing matches it
+     */
+    private Set<String> resolvePackageSpecs(final Collection<String> packages, final InstallOptions options) {
+        final Set<String> resolved = new TreeSet<>();
+        for (final String packagePath : packages) {
+            final String cached = resolvedSpecs.get(packagePath);
+            if (cached != null) {
+                resolved.add(cached);
+                continue;
+            }
+            final Optional<String> resolvedPath = resolvePackageSpec(packagePath, options,
+                    options.shouldInstallFromLockFile());
+            if (resolvedPath.isPresent()) {
+                logger.info("Resolved " + packagePath + " to " + resolvedPath.get());
+                final String previous = resolvedSpecs.putIfAbsent(packagePath, resolvedPath.get());
+                resolved.add(previous == null ? resolvedPath.get() : previous);
+            } else {
+                resolved.add(packagePath);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Resolves a single package spec
+     * @return The exact package path or empty if {@code packagePath} is not a spec.
+     * @throws TaskInstantiationException if the spec is malformed or nothing matches it
+     */
+    private Optional<String> resolvePackageSpec(final String packagePath,
+                                                final InstallOptions options,
+                                                final boolean fromLockFile) {
+        final Optional<PackageSpec> spec;
+        try {
+            spec = PackageSpec.parse(packagePath);
+        } catch (final IllegalArgumentException e) {
+            throw new TaskInstantiationException(e.getMessage(), e);
+        }
+        if (!spec.isPresent()) {
+            return Optional.empty();
+        }
+
+        final Optional<String> resolved;
+        if (fromLockFile) {
+            resolved = spec.get().selectLatest(getLockFile(options).getRevisions());
+        } else {
+            final Optional<String> installed = spec.get().selectLatest(packageIndex.getPackages());
+            resolved = installed.isPresent()
+                    ? installed
+                    : spec.get().selectLatest(getRepositoryInstaller(options)
+                            .getAvailableRevisions(spec.get().getPrefix()));
+        }
+        if (!resolved.isPresent()) {
+            throw new TaskInstantiationException(fromLockFile
+                    ? "No package in the lock file " + options.getLockFile() + " matches " + packagePath
+                            + ". Run the " + SetupAndroidSdkPlugin.LOCK_TASK_NAME + " task to update it."
+                    : "No installed or available package matches " + packagePath);
+        }
+        return resolved;
+    }
+
+    /**
+     * Finds the packages that are not installed. When the lock file is enforced, packages installed at a revision
+     * other than the locked one count as missing too. Only the SDK root is read.
+     */
+    private Set<String> getMissingPackages(final Collection<String> packages, final InstallOptions options) {
+        final Set<String> missingPackages = packageIndex.getMissingPackages(packages);
+        if (options.shouldInstallFromLockFile()) {
+            final SdkLockFile locked = getLockFile(options);
+            final Map<String, AndroidRevision> installed = packageIndex.getPackages();
+            for (final String packagePath : packages) {
+                if (!Objects.equals(locked.getRevision(packagePath).orElse(null), installed.get(packagePath))) {
+                    missingPackages.add(packagePath);
+                }
+            }
+        }
+        return missingPackages;
+    }
+
+    /**
+     * Resolves packages and their dependencies against the repository and pins them, along with the command line
+     * tools, in the lock file.
+     * @param packages The sdkmanager package paths or {@link PackageSpec}s of every project in the build
+     * @param options The installation settings naming the lock file
+     * @throws TaskInstantiationException if a package is not available in the repository or the lock file could not
+     *                                    be written
+     */
+    void writeLockFile(final Collection<String> packages, final InstallOptions options) {
+        final RepositoryInstaller installer = getRepositoryInstaller(options);
+        final SdkLockFile locked = new SdkLockFile();
+        final Deque<String> pending = new ArrayDeque<>();
+        for (final String packagePath : new TreeSet<>(packages)) {
+            pending.add(resolvePackageSpec(packagePath, options, false).orElse(packagePath));
+        }
+        final Set<String> visited = new HashSet<>();
+        final Set<String> unavailable = new TreeSet<>();
+        while (!pending.isEmpty()) {
+            final String packagePath = pending.pop();
+            if (!visited.add(packagePath)) {
+                continue;
+            }
+            final Optional<RepositoryManifest.RemotePackage> remotePackage = installer.resolve(packagePath);
+            if (remotePackage.isPresent()) {
+                locked.lockPackage(remotePackage.get());
+                pending.addAll(remotePackage.get().getDependencies());
+            } else {
+                unavailable.add(packagePath);
+            }
+        }
+        if (!unavailable.isEmpty()) {
+            throw new TaskInstantiationException("Unable to lock " + unavailable
+                    + " as the repository does not offer them");
+        }
+
+        locked.lockSdkTools(options.getSdkToolsVersion());
+        for (final String platform : SDK_TOOLS_PLATFORMS) {
+            installer.findArchive(getSdkToolsFileName(platform, options.getSdkToolsVersion()))
+                    .ifPresent(archive -> locked.lockSdkToolsArchive(platform, archive));
+        }
+
+        try {
+            locked.write(options.getLockFile());
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to write the lock file " + options.getLockFile(), e);
+        }
+        synchronized (this) {
+            lockFile = locked;
+        }
+        logger.lifecycle("Locked " + visited.size() + " SDK packages in " + options.getLockFile());
+    }
+
+    /**
+     * Fills a mirror of the repository with packages, their dependencies, the command line tools for every platform
+     * and the manifests listing them.
+     * @param packages The sdkmanager package paths or {@link PackageSpec}s of every project in the build
+     * @param options The installation settings naming the repository to mirror and the command line tools version
+     * @param destination The root of the mirror
+     * @throws TaskInstantiationException if a package is not available in the repository or could not be mirrored
+     */
+    void mirror(final Collection<String> packages, final InstallOptions options, final File destination) {
+        final Set<String> resolved = new TreeSet<>();
+        for (final String packagePath : packages) {
+            resolved.add(resolvePackageSpec(packagePath, options, false).orElse(packagePath));
+        }
+        final List<String> sdkToolsFileNames = new ArrayList<>();
+        for (final String platform : SDK_TOOLS_PLATFORMS) {
+            sdkToolsFileNames.add(getSdkToolsFileName(platform, options.getSdkToolsVersion()));
+        }
+        final int downloaded;
+        try {
+            downloaded = getRepositoryInstaller(options)
+                    .mirror(resolved, sdkToolsFileNames, destination, newDownloader(options));
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to mirror the Android SDK into " + destination, e);
+        }
+        logger.lifecycle("Mirrored " + resolved.size() + " SDK packages into " + destination + ", downloading "
+                + downloaded + " archives");
+    }
+
+    /**
+     * Replaces package specs with the exact package paths they resolve to, the same way {@link #installPackages} does,
+     * e.g. so the inputs of a cacheable task don't stay the same when a newer package matches a spec
+     * @param packages The sdkmanager package paths or {@link PackageSpec}s
+     * @param options The installation settings
+     * @return The exact package paths, sorted.
+     * @throws TaskInstantiationException if a spec is malformed or nothing matches it
+     */
+    Set<String> resolvePackages(final Collection<String> packages, final InstallOptions options) {
+        return resolvePackageSpecs(packages, options);
+    }
+
+    /**
+     * Bundles the command line tools and some installed packages, along with the installed packages they depend on,
+     * into a single archive. Other packages in the SDK root, e.g. ones installed for other builds sharing it, are left
+     * out. The bundled packages are locked, shared, while they are read so no other build replaces their files midway.
+     * @param packages The exact sdkmanager package paths to bundle, which must be installed
+     * @param bundle Where to write the bundle
+     * @throws TaskInstantiationException if the bundle could not be written
+     */
+    @SuppressWarnings("try")
+    void exportBundle(final Collection<String> packages, final File bundle) {
+        final File sdkDir = getSdkDirectory();
+        try (final FileLocks.HeldLocks lock = lockSdk(TOOLS_LOCK, true)) {
+            packageIndex.invalidate();
+            final Map<String, AndroidRevision> installed = packageIndex.getPackages();
+            final Map<String, AndroidRevision> bundled = new TreeMap<>();
+            final Deque<String> pending = new ArrayDeque<>(packages);
+            while (!pending.isEmpty()) {
+                final String packagePath = pending.pop();
+                final AndroidRevision revision = installed.get(packagePath);
+                if (revision != null && bundled.put(packagePath, revision) == null) {
+                    pending.addAll(packageIndex.getDependencies(packagePath));
+                }
+            }
+            final File locksDirectory = new File(sdkDir, LOCKS_DIRECTORY);
+            final List<File> packageLockFiles = new ArrayList<>();
+            for (final String packagePath : bundled.keySet()) {
+                packageLockFiles.add(FileLocks.getPackageLockFile(locksDirectory, packagePath));
+            }
+            try (final FileLocks.HeldLocks packageLocks = FileLocks.acquireAll(packageLockFiles, true, logger)) {
+                SdkBundle.write(sdkDir, bundled, readSdkToolsMarker(sdkDir).orElse(null), bundle);
+            }
+            logger.lifecycle("Bundled " + bundled.size() + " SDK packages into " + bundle);
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to bundle the Android SDK into " + bundle, e);
+        }
+    }
+
+    /**
+     * Restores whatever a bundle holds that is missing from the SDK root
+     * @param bundle The bundle to restore
+     * @throws TaskInstantiationException if the bundle could not be restored
+     */
+    @SuppressWarnings("try")
+    synchronized void importBundle(final File bundle) {
+        try (final FileLocks.HeldLocks lock = lockSdk(TOOLS_LOCK, false)) {
+            restoreBundle(getSdkDirectory(), bundle);
+        }
+        // The bundle may have replaced the command line tools
+        installedSdkToolsVersion = null;
+    }
+
+    /**
+     * Restores a bundle while holding the tools lock exclusively, so no other build is installing into the SDK root
+     * @throws TaskInstantiationException if the bundle could not be restored
+     */
+    private void restoreBundle(final File sdkDir, final File bundle) {
+        try (final SetupMetrics.Phase phase = metrics.start("restoreBundle").setDetail(bundle.getPath())) {
+            final int restored = SdkBundle.restore(bundle, sdkDir);
+            phase.setCacheHit(restored == 0);
+            metrics.count("packagesRestoredFromBundle", restored);
+            if (restored > 0) {
+                packageIndex.invalidate();
+                logger.lifecycle("Restored " + restored + " SDK packages from " + bundle);
+            }
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to restore the Android SDK from " + bundle, e);
+        }
+    }
+
+    /**
+     * Reads the lock file, once per build
+     * @throws TaskInstantiationException if the lock file is missing or malformed
+     */
+    private synchronized SdkLockFile getLockFile(final InstallOptions options) {
+        if (lockFile == null) {
+            try {
+                lockFile = SdkLockFile.read(options.getLockFile());
+            } catch (final IOException e) {
+                throw new TaskInstantiationException("Unable to read the lock file " + options.getLockFile()
+                        + ". Run the " + SetupAndroidSdkPlugin.LOCK_TASK_NAME + " task to create it.", e);
+            }
+        }
+        return lockFile;
+    }
+
+    /**
+     * Logs how much work sharing the installation across projects saved.
+     */
+    void logSummary() {
+        final int invocations = sdkManagerInvocations.get();
+        final int saved = installRequests.get() - invocations;
+        logger.debug("Resolved " + installedPackages.size() + " SDK packages with " + invocations +
+                " sdkmanager invocations, saving " + saved + " invocations");
+    }
+
+    /**
+     * Gets the location of the sdkmanager executable
+     * @param sdkDir The SDK directory to find the sdkmanager in
+     * @return The OS-dependent location of the sdkmanager tool or {@code null} if no appropriate file was found.
+     */
+    private static File getSdkManager(final File sdkDir) {
+        for (final String relativePath : new String[] {"cmdline-tools/bin/sdkmanager", "tools/bin/sdkmanager"}){
+            final File file;
+            if (Os.isFamily(Os.FAMILY_UNIX) || Os.isFamily(Os.FAMILY_MAC)) {
+                file = new File(sdkDir, relativePath);
+            } else if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+                file = new File(sdkDir, relativePath + ".bat");
+            } else {
+                throw new TaskInstantiationException("Unsupported OS. File a bug report to get it added.");
+            }
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Acquires one of the locks guarding the SDK root
+     * @param name The name of the lock file
+     * @param shared {@code true} to only exclude exclusive holders
+     * @return The held lock
+     * @throws TaskInstantiationException if the lock could not be acquired
+     */
+    private FileLocks.HeldLocks lockSdk(final String name, final boolean shared) {
+        try {
+            return FileLocks.acquire(new File(new File(getSdkDirectory(), LOCKS_DIRECTORY), name), shared, logger);
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to lock " + name, e);
+        }
+    }
+
+    /**
+     * Checks if the desired version of the command line tools is completely installed in the SDK root. When the lock
+     * file is enforced, the tools must also have been installed from the locked archive.
+     * @param sdkDir The SDK directory to check
+     * @param options The installation settings naming the version of the command line tools
+     * @return {@code true} if the tools don't need to be installed.
+     */
+    private boolean isSdkToolsInstalled(final File sdkDir, final InstallOptions options) {
+        final Optional<StagedInstall.Marker> marker = readSdkToolsMarker(sdkDir);
+        if (!marker.isPresent() || !Objects.equals(options.getSdkToolsVersion(), marker.get().getVersion())) {
+            return false;
+        }
+        return !options.shouldInstallFromLockFile() || getLockedSdkToolsArchive(options)
+                .map(archive -> Objects.equals(archive.getChecksum(), marker.get().getChecksum()))
+                .orElse(false);
+    }
+
+    /**
+     * Reads the completion marker of the command line tools installed in an SDK root
+     * @param sdkDir The SDK directory to check
+     * @return The marker, recording the installed version, or empty if the tools are missing or were not completely
+     *         installed.
+     */
+    static Optional<StagedInstall.Marker> readSdkToolsMarker(final File sdkDir) {
+        final File sdkManager = getSdkManager(sdkDir);
+        if (sdkManager == null) {
+            return Optional.empty();
+        }
+        // sdkmanager lives in <tools>/bin
+        return StagedInstall.readMarker(sdkManager.getParentFile().getParentFile());
+    }
+
+    /**
+     * Gets the archive the command line tools for this platform are locked to
+     * @throws TaskInstantiationException if the lock file locks another version of the tools
+     */
+    private Optional<SdkLockFile.LockedArchive> getLockedSdkToolsArchive(final InstallOptions options) {
+        final SdkLockFile locked = getLockFile(options);
+        if (!Objects.equals(options.getSdkToolsVersion(), locked.getSdkToolsVersion())) {
+            throw new TaskInstantiationException("The lock file " + options.getLockFile() + " locks version "
+                    + locked.getSdkToolsVersion() + " of the SDK tools rather than " + options.getSdkToolsVersion()
+                    + ". Run the " + SetupAndroidSdkPlugin.LOCK_TASK_NAME + " task to update it.");
+        }
+        return locked.getSdkToolsArchive(getSdkToolsPlatform());
+    }
+
+    /**
+     * Downloads the command line tools zip, verifies it against the checksum listed in the repository manifest and
+     * only then extracts it into a staging directory, which is committed into the SDK root in place of any previously
+     * installed tools.
+     */
+    private void downloadSdkTools(final File sdkRoot, final InstallOptions options) {
+        final String fileName = getSdkToolsFileName(getSdkToolsPlatform(), options.getSdkToolsVersion());
+        final String checksumType;
+        final String expectedChecksum;
+        if (options.shouldInstallFromLockFile()) {
+            final SdkLockFile.LockedArchive archive = getLockedSdkToolsArchive(options).orElseThrow(() ->
+                    new TaskInstantiationException("The lock file " + options.getLockFile()
+                            + " has no SDK tools for this platform. Run the " + SetupAndroidSdkPlugin.LOCK_TASK_NAME
+                            + " task to update it."));
+            checksumType = archive.getChecksumType();
+            expectedChecksum = archive.getChecksum();
+        } else {
+            final Optional<RepositoryManifest.RemoteArchive> archive =
+                    getRepositoryInstaller(options).findArchive(fileName);
+            if (!archive.isPresent()) {
+                logger.warn(fileName + " is not listed in the repository manifest so it cannot be verified");
+            }
+            checksumType = archive.map(RepositoryManifest.RemoteArchive::getChecksumType).orElse("SHA-1");
+            expectedChecksum = archive.map(RepositoryManifest.RemoteArchive::getChecksum).orElse(null);
+        }
+
+        final File staging = StagedInstall.newStagingLocation(sdkRoot);
+        final File zip = StagedInstall.getDownloadLocation(sdkRoot, fileName);
+        try (final SetupMetrics.Phase phase = metrics.start("downloadSdkTools").setDetail(fileName)) {
+            try {
+                final Downloader downloader = newDownloader(options);
+                final String checksum = downloader.download(
+                        new URL(RepositoryInstaller.toRepositoryUrl(options.getRepositoryUrl()), fileName),
+                        zip,
+                        checksumType,
+                        expectedChecksum);
+                phase.addBytes(downloader.getBytesDownloaded());
+                metrics.count("bytesDownloaded", downloader.getBytesDownloaded());
+                metrics.count("bytesExtracted", ZipExtractor.extract(zip, staging));
+                final File[] extracted = staging.listFiles();
+                if (extracted == null) {
+                    throw new IOException("Unable to list the extracted SDK tools");
+                }
+                for (final File file : extracted) {
+                    StagedInstall.commit(file, sdkRoot, file.getName(), options.getSdkToolsVersion(), checksum);
+                }
+            } finally {
+                Files.deleteIfExists(zip.toPath());
+                FileUtils.deleteDirectory(staging);
+            }
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to install the Android SDK tools", e);
+        }
+
+        logger.info("Done downloading sdkmanager");
+    }
+
+    private Downloader newDownloader(final InstallOptions options) {
+        return new Downloader(options.getDownloadRetries(), options.getDownloadRetryBackoffMillis(), logger);
+    }
+
+    /**
+     * Gets the platform of this host, as named in command line tools archives
+     * @return {@code linux}, {@code mac} or {@code win}
+     * @throws TaskInstantiationException if the host's OS is not supported
+     */
+    static String getSdkToolsPlatform() {
+        // macOS is also a member of the unix family so it must be checked first
+        if (Os.isFamily(Os.FAMILY_MAC)) {
+            return "mac";
+        } else if (Os.isFamily(Os.FAMILY_UNIX)) {
+            return "linux";
+        } else if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            return "win";
+        } else {
+            throw new TaskInstantiationException("Unsupported OS. File a bug report to get it added");
+        }
+    }
+
+    private static String getSdkToolsFileName(final String platform, final String sdkToolsVersion) {
+        return String.format(SDK_TOOLS_FILE_NAME_FORMAT, platform, sdkToolsVersion);
+    }
+
+    /**
+     * Materializes as many of the packages as possible from the cache, removing them from {@code packages}.
+     */
+    private void materializeFromCache(final SdkPackageCache packageCache,
+                                      final Set<String> packages,
+                                      final boolean shouldAutoAcceptLicenses) {
+        final Iterator<String> iterator = packages.iterator();
+        while (iterator.hasNext()) {
+            final String packagePath = iterator.next();
+            try {
+                if (packageCache.materialize(packagePath, getSdkDirectory(), shouldAutoAcceptLicenses)) {
+                    logger.debug("Materialized " + packagePath + " from the shared cache");
+                    iterator.remove();
+                }
+            } catch (final IOException e) {
+                logger.warn("Unable to materialize " + packagePath + " from the shared cache", e);
+            }
+        }
+    }
+
+    private void storeInCache(final SdkPackageCache packageCache, final Collection<String> packages) {
+        for (final String packagePath : packages) {
+            final AndroidRevision revision = packageIndex.getPackages().get(packagePath);
+            if (revision == null) {
+                continue;
+            }
+            try {
+                packageCache.store(packagePath, revision, getSdkDirectory());
+            } catch (final IOException e) {
+                logger.warn("Unable to store " + packagePath + " in the shared cache", e);
+            }
+        }
+    }
+
+    /**
+     * Installs packages missing from the SDK root. Packages are taken from the shared cache if possible, then from the
+     * built-in installer if it is enabled, and sdkmanager installs whatever is left. When the lock file is enforced,
+     * whatever the built-in installer couldn't install fails the build instead, as sdkmanager can neither pin revisions
+     * nor verify the locked checksums. Each package, along with any dependency the built-in installer may install with
+     * it, is locked while it is installed so concurrent builds sharing the SDK root don't race each other. Once the
+     * locks are held, the SDK root is checked again so packages another build installed while this one was waiting
+     * are reused. Deduplication, if enabled, only starts once those locks are released, as it locks every installed
+     * package itself.
+     * @return {@code true} if sdkmanager had to be run.
+     */
+    private boolean installMissingPackages(final Set<String> packages, final InstallOptions options) {
+        final Set<String> downloadedPackages = new TreeSet<>();
+        final boolean ranSdkManager = installMissingPackagesLocked(packages, options, downloadedPackages);
+        if (options.getDeduplicateFiles() && !downloadedPackages.isEmpty()) {
+            deduplicateFiles(getSdkDirectory());
+        }
+        return ranSdkManager;
+    }
+
+    /**
+     * Installs packages missing from the SDK root while holding their locks
+     * @param downloadedPackages Filled with the packages that were not in the SDK root or the shared cache
+     * @return {@code true} if sdkmanager had to be run.
+     */
+    @SuppressWarnings("try")
+    private boolean installMissingPackagesLocked(final Set<String> packages,
+                                                 final InstallOptions options,
+                                                 final Set<String> downloadedPackages) {
+        final File sdkRoot = getSdkDirectory();
+        final File locksDirectory = new File(sdkRoot, LOCKS_DIRECTORY);
+        // The built-in installer also installs missing dependencies, which other builds may be installing as well
+        final Set<String> lockedPackages = options.getUseBuiltInInstaller()
+                ? getRepositoryInstaller(options).getDependencyClosure(packages)
+                : packages;
+        final List<File> packageLockFiles = new ArrayList<>();
+        for (final String packagePath : lockedPackages) {
+            packageLockFiles.add(FileLocks.getPackageLockFile(locksDirectory, packagePath));
+        }
+        final SdkPackageCache packageCache = options.getSharedCacheDirectory() == null
+                ? null
+                : new SdkPackageCache(options.getSharedCacheDirectory(), logger);
+        final boolean shouldAutoAcceptLicenses = options.shouldAutoAcceptLicenses();
+
+        try (final FileLocks.HeldLocks toolsLock = lockSdk(TOOLS_LOCK, true);
+                final FileLocks.HeldLocks licensesLock = lockSdk(LICENSES_LOCK, true);
+                final FileLocks.HeldLocks packageLocks = FileLocks.acquireAll(packageLockFiles, false, logger)) {
+            packageIndex.invalidate();
+            Set<String> missingPackages = getMissingPackages(packages, options);
+            if (packageCache != null) {
+                try (final SetupMetrics.Phase phase = metrics.start("restoreFromSharedCache")) {
+                    final int before = missingPackages.size();
+                    materializeFromCache(packageCache, missingPackages, shouldAutoAcceptLicenses);
+                    phase.setCacheHit(missingPackages.isEmpty());
+                    metrics.count("packagesFromSharedCache", before - missingPackages.size());
+                }
+                packageIndex.invalidate();
+            }
+            downloadedPackages.addAll(missingPackages);
+            if (options.getUseBuiltInInstaller() && !missingPackages.isEmpty()) {
+                try (final SetupMetrics.Phase phase =
+                        metrics.start("builtInInstaller").setDetail(missingPackages.toString())) {
+                    final Downloader downloader = newDownloader(options);
+                    final int before = missingPackages.size();
+                    missingPackages = getRepositoryInstaller(options)
+                            .install(sdkRoot, packageIndex, missingPackages, shouldAutoAcceptLicenses,
+                                    options.getInstallParallelism(), downloader,
+                                    options.shouldInstallFromLockFile() ? getLockFile(options) : null);
+                    phase.addBytes(downloader.getBytesDownloaded());
+                    metrics.count("bytesDownloaded", downloader.getBytesDownloaded());
+                    metrics.count("packagesInstalled", before - missingPackages.size());
+                }
+                packageIndex.invalidate();
+            }
+
+            if (options.shouldInstallFromLockFile() && !missingPackages.isEmpty()) {
+                throw new TaskInstantiationException("Unable to install " + missingPackages
+                        + " at the revisions locked in " + options.getLockFile() + " with the built-in installer."
+                        + " sdkmanager is not used when installing from the lock file as it can't verify the locked"
+                        + " checksums.");
+            }
+            final boolean ranSdkManager = !missingPackages.isEmpty();
+            if (ranSdkManager) {
+                try (final SetupMetrics.Phase phase =
+                        metrics.start("sdkmanager").setDetail(missingPackages.toString())) {
+                    installSdk(logger, sdkRoot, getSdkManager(sdkRoot), missingPackages, shouldAutoAcceptLicenses,
+                            options.hasCustomRepository() ? options.getRepositoryUrl() : null, options);
+                    metrics.count("packagesInstalled", missingPackages.size());
+                }
+                packageIndex.invalidate();
+            }
+            if (packageCache != null) {
+                storeInCache(packageCache, downloadedPackages);
+            }
+            return ranSdkManager;
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to lock packages " + packages, e);
+        }
+    }
+
+    /**
+     * Replaces identical files across the installed packages with hardlinks. The tools lock is held shared, so the
+     * tools are not replaced in the middle of it, and the lock of every package being deduplicated is held
+     * exclusively, so no other build reinstalls or caches a package while its files are being replaced.
+     * @throws TaskInstantiationException if the packages could not be deduplicated
+     */
+    @SuppressWarnings("try")
+    private void deduplicateFiles(final File sdkRoot) {
+        final File locksDirectory = new File(sdkRoot, LOCKS_DIRECTORY);
+        final List<File> packageDirectories = new ArrayList<>();
+        final List<File> packageLockFiles = new ArrayList<>();
+        packageIndex.invalidate();
+        for (final String packagePath : packageIndex.getPackages().keySet()) {
+            packageDirectories.add(Utils.getPackageDirectory(sdkRoot, packagePath));
+            packageLockFiles.add(FileLocks.getPackageLockFile(locksDirectory, packagePath));
+        }
+        try (final SetupMetrics.Phase phase = metrics.start("deduplicateFiles");
+                final FileLocks.HeldLocks toolsLock = lockSdk(TOOLS_LOCK, true);
+                final FileLocks.HeldLocks dedupLock = lockSdk(DEDUP_LOCK, false);
+                final FileLocks.HeldLocks packageLocks = FileLocks.acquireAll(packageLockFiles, false, logger)) {
+            final long reclaimed = PackageDeduplicator.deduplicate(sdkRoot, packageDirectories);
+            phase.addBytes(reclaimed);
+            metrics.count("bytesReclaimed", reclaimed);
+            if (reclaimed > 0) {
+                logger.lifecycle("Deduplicated SDK packages, reclaiming "
+                        + FileUtils.byteCountToDisplaySize(reclaimed));
+            }
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to deduplicate SDK packages", e);
+        }
+    }
+
+    private synchronized RepositoryInstaller getRepositoryInstaller(final InstallOptions options) {
+        if (repositoryInstaller == null) {
+            final ManifestCache manifestCache = new ManifestCache(
+                    options.getManifestCacheDirectory(getSdkDirectory()), options.getManifestCacheTtlMillis(),
+                    options.isOffline(), logger);
+            try {
+                repositoryInstaller = new RepositoryInstaller(
+                        RepositoryInstaller.toRepositoryUrl(options.getRepositoryUrl()), manifestCache, logger);
+            } catch (final MalformedURLException e) {
+                throw new TaskInstantiationException("Invalid repository URL", e);
+            }
+        }
+        return repositoryInstaller;
+    }
+
+    private static void installSdk(final Logger logger,
+                                   final File sdkRoot,
+                                   final File sdkManager,
+                                   final Collection<String> packages,
+                                   final boolean shouldAutoAcceptLicenses,
+                                   final String repositoryUrl,
+                                   final InstallOptions options) {
+        final List<String> command = new ArrayList<>();
+        command.add(sdkManager.getAbsolutePath());
+        command.add("--sdk_root=" + sdkRoot.getAbsolutePath());
+        command.addAll(packages);
+        logger.debug("Installing SDK with command: " + command);
+        final ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        if (repositoryUrl != null) {
+            // sdkmanager reads every manifest and archive relative to this base URL instead of Google's repository
+            pb.environment().put(SDK_MANAGER_REPOSITORY_ENV,
+                    repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + "/");
+        }
+        final long stallTimeoutMillis = options.getSdkManagerStallTimeoutMillis();
+        for (int attempt = 0; attempt <= options.getDownloadRetries(); attempt++) {
+            final Process process;
+            final OptionalInt exitCode;
+            try {
+                process = pb.start();
+            } catch (final IOException e) {
+                throw new TaskInstantiationException("sdkmanager failed to run successfully", e);
+            }
+            try {
+                if (shouldAutoAcceptLicenses) {
+                    try (final OutputStream os = process.getOutputStream()) {
+                        os.write('y');
+                    }
+                } else {
+                    process.getOutputStream().close();
+                }
+                exitCode = new SdkManagerMonitor(logger, stallTimeoutMillis).watch(process);
+            } catch (final IOException e) {
+                throw new TaskInstantiationException("sdkmanager failed to run successfully", e);
+            } catch (final InterruptedException e) {
+                // The build was cancelled, so sdkmanager must not keep installing into the SDK root behind its back
+                Thread.currentThread().interrupt();
+                SdkManagerMonitor.destroy(process);
+                throw new TaskInstantiationException("Interrupted while waiting for sdkmanager", e);
+            }
+
+            if (exitCode.isPresent()) {
+                if (exitCode.getAsInt() != 0) {
+                    throw new TaskInstantiationException(
+                            "Unable to run sdkmanager successfully. Exit code: " + exitCode.getAsInt());
+                }
+                return;
+            }
+            logger.warn("sdkmanager made no progress for " + stallTimeoutMillis + " milliseconds and was stopped"
+                    + (attempt < options.getDownloadRetries() ? ". Retrying." : "."));
+        }
+        throw new TaskInstantiationException("sdkmanager stalled installing " + packages + " after "
+                + (options.getDownloadRetries() + 1) + " attempts");
+    }
+}
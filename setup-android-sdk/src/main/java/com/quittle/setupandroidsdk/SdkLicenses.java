@@ -0,0 +1,174 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads and writes the license acceptance files sdkmanager keeps in {@code <sdk root>/licenses}. Each file is named
+ * after a license id and contains one SHA-1 hash per line, one for each revision of the license text accepted.
+ */
+final class SdkLicenses {
+    private static final String LICENSES_DIRECTORY = "licenses";
+    private static final String FINGERPRINT_FILE = ".licenses-fingerprint";
+
+    /**
+     * Gets the directory license acceptance files are stored in.
+     * @param sdkRoot The root of the Android SDK
+     * @return The licenses directory. It may not exist.
+     */
+    static File getLicensesDirectory(final File sdkRoot) {
+        return new File(sdkRoot, LICENSES_DIRECTORY);
+    }
+
+    /**
+     * Checks if a license has been accepted in the SDK root.
+     * @param sdkRoot The root of the Android SDK
+     * @param licenseId The id of the license, e.g. {@code android-sdk-license}
+     * @param licenseText The full text of the license
+     * @return {@code true} if the hash of the license text is listed in the license file.
+     */
+    static boolean isAccepted(final File sdkRoot, final String licenseId, final String licenseText) {
+        final File licenseFile = new File(getLicensesDirectory(sdkRoot), licenseId);
+        if (!licenseFile.isFile()) {
+            return false;
+        }
+        final String hash = hash(licenseText);
+        try {
+            return FileUtils.readLines(licenseFile, StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .anyMatch(hash::equals);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records a license as accepted in the SDK root, the same way sdkmanager does when the user accepts it.
+     * @param sdkRoot The root of the Android SDK
+     * @param licenseId The id of the license, e.g. {@code android-sdk-license}
+     * @param licenseText The full text of the license
+     * @throws IOException if the license file could not be written
+     */
+    static void accept(final File sdkRoot, final String licenseId, final String licenseText) throws IOException {
+        if (isAccepted(sdkRoot, licenseId, licenseText)) {
+            return;
+        }
+        final File licenseFile = new File(getLicensesDirectory(sdkRoot), licenseId);
+        FileUtils.writeStringToFile(licenseFile, System.lineSeparator() + hash(licenseText),
+                StandardCharsets.UTF_8, true);
+    }
+
+    /**
+     * Makes the licenses directory of the SDK root match a directory of license files. Only files whose contents
+     * differ are written, each atomically so sdkmanager never sees a partial file, and only files missing from the
+     * source are deleted. The names, sizes and modification times of the source files and of the licenses directory
+     * are recorded after each sync, so when none of them changed the SDK root isn't touched at all, while files
+     * edited or deleted in the licenses directory since are still repaired.
+     * @param sourceDirectory The directory to copy the license files from
+     * @param sdkRoot The root of the Android SDK
+     * @return {@code true} if any license file was written or deleted.
+     * @throws IOException if the source could not be read or the licenses directory could not be updated
+     */
+    static boolean synchronize(final File sourceDirectory, final File sdkRoot) throws IOException {
+        final Path source = sourceDirectory.toPath();
+        final Path destination = getLicensesDirectory(sdkRoot).toPath();
+        final Map<String, Path> sourceFiles = listFiles(source);
+        final File fingerprintFile = new File(sdkRoot, FINGERPRINT_FILE);
+        if (Files.isDirectory(destination) && fingerprintFile.isFile()
+                && fingerprint(sourceDirectory, sourceFiles, listFiles(destination)).equals(FileUtils.readFileToString(fingerprintFile, StandardCharsets.UTF_8))) {
+            return false;
+        }
+
+        boolean changed = false;
+        for (final Map.Entry<String, Path> sourceFile : sourceFiles.entrySet()) {
+            final Path target = destination.resolve(sourceFile.getKey());
+            if (Files.isRegularFile(target) && FileUtils.contentEquals(sourceFile.getValue().toFile(), target.toFile())) {
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            final Path temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID());
+            try {
+                Files.copy(sourceFile.getValue(), temp);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            changed = true;
+        }
+        for (final Map.Entry<String, Path> destinationFile : listFiles(destination).entrySet()) {
+            if (!sourceFiles.containsKey(destinationFile.getKey())) {
+                Files.delete(destinationFile.getValue());
+                changed = true;
+            }
+        }
+
+        FileUtils.writeStringToFile(fingerprintFile, fingerprint(sourceDirectory, sourceFiles, listFiles(destination)),
+                StandardCharsets.UTF_8);
+        return changed;
+    }
+
+    /**
+     * Lists the regular files within a directory
+     * @return The files keyed and sorted by their path relative to the directory, with {@code /} as the separator.
+     */
+    private static Map<String, Path> listFiles(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new TreeMap<>();
+        }
+        try (final Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .collect(Collectors.toMap(
+                            file -> directory.relativize(file).toString().replace(File.separatorChar, '/'),
+                            file -> file,
+                            (a, b) -> a,
+                            TreeMap::new));
+        }
+    }
+
+    private static String fingerprint(final File sourceDirectory, final Map<String, Path> sourceFiles,
+            final Map<String, Path> destinationFiles) throws IOException {
+        final StringBuilder builder = new StringBuilder(sourceDirectory.getAbsolutePath()).append('\n');
+        appendFiles(builder, sourceFiles);
+        builder.append('\n');
+        appendFiles(builder, destinationFiles);
+        return hash(builder.toString());
+    }
+
+    private static void appendFiles(final StringBuilder builder, final Map<String, Path> files) throws IOException {
+        for (final Map.Entry<String, Path> file : files.entrySet()) {
+            builder.append(file.getKey())
+                    .append('\0').append(Files.size(file.getValue()))
+                    .append('\0').append(Files.getLastModifiedTime(file.getValue()).toMillis())
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Computes the hash sdkmanager records when accepting a license.
+     * @param licenseText The full text of the license
+     * @return The lowercase, hex-encoded SHA-1 of the text.
+     */
+    static String hash(final String licenseText) {
+        try {
+            return Utils.toHexString(
+                    MessageDigest.getInstance("SHA-1").digest(licenseText.getBytes(StandardCharsets.UTF_8)));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required to be supported by all JVMs", e);
+        }
+    }
+
+    private SdkLicenses() {}
+}
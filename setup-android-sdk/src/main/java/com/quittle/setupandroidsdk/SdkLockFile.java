@@ -0,0 +1,280 @@
+package com.quittle.setupandroidsdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Pins every package of a build to an exact revision and to the archives, with their checksums, that revision is
+ * installed from, along with the archives of the command line tools. Package specs like {@code emulator} and tools
+ * versions like {@code latest} are otherwise resolved against the repository on every install, so the same build can
+ * end up with different SDK trees on different days. The file is a properties file with one entry per line, sorted so
+ * it diffs well when checked in.
+ */
+final class SdkLockFile {
+    /**
+     * The name of the lock file, in the root project, unless another is configured
+     */
+    static final String DEFAULT_FILE_NAME = "android-sdk.lock";
+
+    private static final String HEADER =
+            "# Generated by the setupAndroidSdkLock task. Do not edit, run the task again to update it.";
+    private static final String PACKAGE_PREFIX = "package.";
+    private static final String REVISION_SUFFIX = ".revision";
+    private static final String ARCHIVE_INFIX = ".archive.";
+    private static final String SDK_TOOLS_VERSION = "sdkTools.version";
+    private static final String SDK_TOOLS_ARCHIVE_PREFIX = "sdkTools.archive.";
+    private static final String ANY_HOST = "any";
+
+    private final Map<String, AndroidRevision> revisions = new TreeMap<>();
+    private final Map<String, Map<String, LockedArchive>> archives = new TreeMap<>();
+    private final Map<String, LockedArchive> sdkToolsArchives = new TreeMap<>();
+    private String sdkToolsVersion;
+
+    /**
+     * An archive a locked package or the command line tools are installed from.
+     */
+    static final class LockedArchive {
+        private final String url;
+        private final String checksumType;
+        private final String checksum;
+
+        private LockedArchive(final String url, final String checksumType, final String checksum) {
+            this.url = url;
+            this.checksumType = checksumType;
+            this.checksum = checksum;
+        }
+
+        private static LockedArchive of(final RepositoryManifest.RemoteArchive archive) {
+            return new LockedArchive(archive.getUrl().toString(), archive.getChecksumType(), archive.getChecksum());
+        }
+
+        private static LockedArchive parse(final String key, final String value) throws IOException {
+            // <url> <checksum type>:<checksum>
+            final int space = value.lastIndexOf(' ');
+            final int colon = value.lastIndexOf(':');
+            if (space < 0 || colon < space) {
+                throw new IOException("Invalid archive for " + key + ": " + value);
+            }
+            final String checksum = value.substring(colon + 1);
+            return new LockedArchive(value.substring(0, space), value.substring(space + 1, colon),
+                    checksum.isEmpty() ? null : checksum);
+        }
+
+        private String format() {
+            return url + ' ' + checksumType + ':' + (checksum == null ? "" : checksum);
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        /**
+         * Gets the name of the algorithm the checksum was computed with
+         * @return A {@link java.security.MessageDigest} algorithm name, e.g. {@code SHA-256}.
+         */
+        String getChecksumType() {
+            return checksumType;
+        }
+
+        /**
+         * Gets the expected checksum of the archive
+         * @return The lowercase, hex-encoded checksum or {@code null} if the repository listed none.
+         */
+        String getChecksum() {
+            return checksum;
+        }
+
+        private boolean matches(final RepositoryManifest.RemoteArchive archive) {
+            return url.equals(archive.getUrl().toString())
+                    && checksumType.equals(archive.getChecksumType())
+                    && Objects.equals(checksum, archive.getChecksum());
+        }
+    }
+
+    /**
+     * Reads a lock file
+     * @param file The lock file
+     * @return The locked packages and tools
+     * @throws IOException if the file could not be read or is malformed
+     */
+    static SdkLockFile read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        final SdkLockFile lockFile = new SdkLockFile();
+        for (final String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key);
+            if (SDK_TOOLS_VERSION.equals(key)) {
+                lockFile.sdkToolsVersion = value;
+            } else if (key.startsWith(SDK_TOOLS_ARCHIVE_PREFIX)) {
+                lockFile.sdkToolsArchives.put(key.substring(SDK_TOOLS_ARCHIVE_PREFIX.length()),
+                        LockedArchive.parse(key, value));
+            } else if (key.startsWith(PACKAGE_PREFIX) && key.endsWith(REVISION_SUFFIX)) {
+                final String packagePath =
+                        key.substring(PACKAGE_PREFIX.length(), key.length() - REVISION_SUFFIX.length());
+                try {
+                    lockFile.revisions.put(packagePath, AndroidRevision.parseRevision(value));
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Invalid revision for " + packagePath + ": " + value, e);
+                }
+            } else if (key.startsWith(PACKAGE_PREFIX) && key.contains(ARCHIVE_INFIX)) {
+                final int infix = key.lastIndexOf(ARCHIVE_INFIX);
+                lockFile.archives
+                        .computeIfAbsent(key.substring(PACKAGE_PREFIX.length(), infix), path -> new TreeMap<>())
+                        .put(key.substring(infix + ARCHIVE_INFIX.length()), LockedArchive.parse(key, value));
+            } else {
+                throw new IOException("Unexpected entry " + key + " in " + file);
+            }
+        }
+        return lockFile;
+    }
+
+    /**
+     * Writes the lock file, replacing any previous one
+     * @param file Where to write the lock file
+     * @throws IOException if the file could not be written
+     */
+    void write(final File file) throws IOException {
+        final Properties properties = new Properties();
+        if (sdkToolsVersion != null) {
+            properties.setProperty(SDK_TOOLS_VERSION, sdkToolsVersion);
+        }
+        for (final Map.Entry<String, LockedArchive> archive : sdkToolsArchives.entrySet()) {
+            properties.setProperty(SDK_TOOLS_ARCHIVE_PREFIX + archive.getKey(), archive.getValue().format());
+        }
+        for (final Map.Entry<String, AndroidRevision> revision : revisions.entrySet()) {
+            properties.setProperty(PACKAGE_PREFIX + revision.getKey() + REVISION_SUFFIX,
+                    revision.getValue().toString());
+        }
+        for (final Map.Entry<String, Map<String, LockedArchive>> packageArchives : archives.entrySet()) {
+            for (final Map.Entry<String, LockedArchive> archive : packageArchives.getValue().entrySet()) {
+                properties.setProperty(PACKAGE_PREFIX + packageArchives.getKey() + ARCHIVE_INFIX + archive.getKey(),
+                        archive.getValue().format());
+            }
+        }
+
+        // Properties escapes every entry onto a single line, so sorting the lines sorts the entries. This also drops
+        // the timestamp it writes, keeping the file identical until a locked package actually changes.
+        final StringWriter stringWriter = new StringWriter();
+        properties.store(stringWriter, null);
+        final List<String> lines = new ArrayList<>();
+        for (final String line : stringWriter.toString().split("\\R")) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        Collections.sort(lines);
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        try (final Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (final String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Pins a package to a revision and the archives it is distributed as
+     * @param remotePackage The package, as listed in the repository manifest
+     */
+    void lockPackage(final RepositoryManifest.RemotePackage remotePackage) {
+        revisions.put(remotePackage.getPath(), remotePackage.getRevision());
+        final Map<String, LockedArchive> packageArchives = new TreeMap<>();
+        for (final RepositoryManifest.RemoteArchive archive : remotePackage.getArchives()) {
+            packageArchives.put(getHostKey(archive), LockedArchive.of(archive));
+        }
+        archives.put(remotePackage.getPath(), packageArchives);
+    }
+
+    /**
+     * Pins the command line tools to a version
+     * @param version The version of the tools, as configured in the extension
+     */
+    void lockSdkTools(final String version) {
+        this.sdkToolsVersion = version;
+    }
+
+    /**
+     * Pins the archive of the command line tools for a platform
+     * @param platform The platform, as named in the archive's file name, e.g. {@code linux}
+     * @param archive The archive, as listed in the repository manifest
+     */
+    void lockSdkToolsArchive(final String platform, final RepositoryManifest.RemoteArchive archive) {
+        sdkToolsArchives.put(platform, LockedArchive.of(archive));
+    }
+
+    /**
+     * Gets the revision a package is locked to
+     * @param packagePath The sdkmanager package path
+     * @return The revision or empty if the package is not locked.
+     */
+    Optional<AndroidRevision> getRevision(final String packagePath) {
+        return Optional.ofNullable(revisions.get(packagePath));
+    }
+
+    /**
+     * Gets every locked package
+     * @return An unmodifiable map of package paths to the revisions they are locked to.
+     */
+    Map<String, AndroidRevision> getRevisions() {
+        return Collections.unmodifiableMap(revisions);
+    }
+
+    /**
+     * Checks if a package from the repository is the one locked
+     * @param packagePath The sdkmanager package path
+     * @param revision The revision the repository offers
+     * @param archive The archive the package would be installed from
+     * @return {@code true} if the package is locked to the same revision and archive.
+     */
+    boolean matches(final String packagePath,
+                    final AndroidRevision revision,
+                    final RepositoryManifest.RemoteArchive archive) {
+        final LockedArchive locked = archives.getOrDefault(packagePath, Collections.emptyMap()).get(getHostKey(archive));
+        return revision.equals(revisions.get(packagePath)) && locked != null && locked.matches(archive);
+    }
+
+    /**
+     * Gets the version the command line tools are locked to
+     * @return The version or {@code null} if the tools are not locked.
+     */
+    String getSdkToolsVersion() {
+        return sdkToolsVersion;
+    }
+
+    /**
+     * Gets the locked archive of the command line tools for a platform
+     * @param platform The platform, as named in the archive's file name, e.g. {@code linux}
+     * @return The archive or empty if none is locked for the platform.
+     */
+    Optional<LockedArchive> getSdkToolsArchive(final String platform) {
+        return Optional.ofNullable(sdkToolsArchives.get(platform));
+    }
+
+    private static String getHostKey(final RepositoryManifest.RemoteArchive archive) {
+        if (archive.getHostOs() == null && archive.getHostArch() == null) {
+            return ANY_HOST;
+        }
+        return (archive.getHostOs() == null ? ANY_HOST : archive.getHostOs())
+                + '-' + (archive.getHostArch() == null ? ANY_HOST : archive.getHostArch());
+    }
+}
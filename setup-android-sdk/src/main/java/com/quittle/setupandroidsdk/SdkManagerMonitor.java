@@ -0,0 +1,219 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the output of a running sdkmanager. Its progress bars, like
+ * {@code [=======      ] 17% Downloading build-tools_r30.0.3-linux.zip...}, are parsed as they stream and the current
+ * step, percentage and rate are logged periodically so long installs show progress. A watchdog kills sdkmanager if
+ * its output stops changing for too long, which is how a stalled download shows, so it can be retried instead of
+ * hanging the build.
+ */
+final class SdkManagerMonitor {
+    private static final Pattern PROGRESS_BAR = Pattern.compile("^\\s*\\[[=\\s]*]\\s+(\\d{1,3})%\\s*(.*?)\\s*$");
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long WATCHDOG_INTERVAL_MILLIS = 1000;
+
+    private final Logger logger;
+    private final long stallTimeoutMillis;
+    private Progress lastProgress;
+    private long lastActivityNanos;
+    private long lastReportNanos;
+    private Progress lastReportedProgress;
+
+    /**
+     * A step of sdkmanager's progress
+     */
+    static final class Progress {
+        private final int percent;
+        private final String message;
+
+        private Progress(final int percent, final String message) {
+            this.percent = percent;
+            this.message = message;
+        }
+
+        /**
+         * Gets how far along the step is
+         * @return The percentage, from 0 to 100.
+         */
+        int getPercent() {
+            return percent;
+        }
+
+        /**
+         * Gets what sdkmanager is doing, which names the package or archive
+         * @return The message, e.g. {@code Downloading build-tools_r30.0.3-linux.zip...}
+         */
+        String getMessage() {
+            return message;
+        }
+
+        /**
+         * Compares the percentage and message of two steps
+         */
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Progress)) {
+                return false;
+            }
+            final Progress progress = (Progress) other;
+            return percent == progress.percent && message.equals(progress.message);
+        }
+
+        /**
+         * Hashes the percentage and message
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(percent, message);
+        }
+    }
+
+    /**
+     * Creates a monitor for one run of sdkmanager
+     * @param logger Informed of every line of output and, periodically, of the progress
+     * @param stallTimeoutMillis How long the output may go unchanged before sdkmanager is killed, or 0 to never kill it
+     */
+    SdkManagerMonitor(final Logger logger, final long stallTimeoutMillis) {
+        this.logger = logger;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    /**
+     * Parses a progress bar printed by sdkmanager
+     * @param line A line of sdkmanager's output. Progress bars are separated by carriage returns, which
+     *             {@link BufferedReader#readLine} treats as line breaks.
+     * @return The progress or empty if the line is not a progress bar.
+     */
+    static Optional<Progress> parseProgress(final String line) {
+        final Matcher matcher = PROGRESS_BAR.matcher(line);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        final int percent = Integer.parseInt(matcher.group(1));
+        if (percent > 100) {
+            return Optional.empty();
+        }
+        return Optional.of(new Progress(percent, matcher.group(2)));
+    }
+
+    /**
+     * Reads the output of sdkmanager until it exits or is killed for stalling
+     * @param process The running sdkmanager, with its error stream redirected into its output
+     * @return The exit code or empty if sdkmanager was killed because it stalled.
+     * @throws IOException if the output could not be read
+     * @throws InterruptedException if interrupted while waiting for sdkmanager to exit
+     */
+    OptionalInt watch(final Process process) throws IOException, InterruptedException {
+        synchronized (this) {
+            lastActivityNanos = System.nanoTime();
+            lastReportNanos = lastActivityNanos;
+        }
+        final AtomicBoolean stalled = new AtomicBoolean();
+        final Thread watchdog = stallTimeoutMillis <= 0 ? null : Utils
+                .newDaemonThreadFactory("setup-android-sdk-sdkmanager-watchdog")
+                .newThread(() -> killIfStalled(process, stalled));
+        if (watchdog != null) {
+            watchdog.start();
+        }
+        try (final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                onLine(line);
+            }
+        } catch (final IOException e) {
+            // Killing sdkmanager may break the pipe while it is being read
+            if (!stalled.get()) {
+                throw e;
+            }
+        } finally {
+            if (watchdog != null) {
+                watchdog.interrupt();
+            }
+        }
+        final int exitCode = process.waitFor();
+        return stalled.get() ? OptionalInt.empty() : OptionalInt.of(exitCode);
+    }
+
+    private void killIfStalled(final Process process, final AtomicBoolean stalled) {
+        try {
+            while (process.isAlive()) {
+                Thread.sleep(Math.min(WATCHDOG_INTERVAL_MILLIS, stallTimeoutMillis));
+                if (isStalled()) {
+                    stalled.set(true);
+                    destroy(process);
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            // sdkmanager exited, so there is nothing left to watch
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forcibly stops sdkmanager along with every process it started. sdkmanager is a script launching Java, which
+     * would otherwise keep running and hold the output open.
+     * @param process The running sdkmanager
+     */
+    static void destroy(final Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private synchronized boolean isStalled() {
+        return System.nanoTime() - lastActivityNanos > TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+    }
+
+    /**
+     * Handles a line of output. Any change in the output counts as activity, as sdkmanager reprints the same progress
+     * bar while it is stuck.
+     */
+    private synchronized void onLine(final String line) {
+        logger.debug(line);
+        final Optional<Progress> progress = parseProgress(line);
+        if (!progress.isPresent()) {
+            if (!line.trim().isEmpty()) {
+                lastActivityNanos = System.nanoTime();
+            }
+            return;
+        }
+        final long now = System.nanoTime();
+        if (!progress.get().equals(lastProgress)) {
+            lastProgress = progress.get();
+            lastActivityNanos = now;
+        }
+
+        final boolean newStep = lastReportedProgress == null
+                || !lastReportedProgress.message.equals(progress.get().message);
+        if (newStep || now - lastReportNanos >= REPORT_INTERVAL_NANOS) {
+            final StringBuilder report = new StringBuilder("sdkmanager: ")
+                    .append(progress.get().message).append(' ').append(progress.get().percent).append('%');
+            if (!newStep) {
+                final double seconds = (now - lastReportNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+                report.append(String.format(Locale.ROOT, " (%.1f%%/s)",
+                        (progress.get().percent - lastReportedProgress.percent) / seconds));
+            }
+            logger.lifecycle(report.toString());
+            lastReportedProgress = progress.get();
+            lastReportNanos = now;
+        }
+    }
+}
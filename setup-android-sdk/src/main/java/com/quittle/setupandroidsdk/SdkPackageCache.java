@@ -0,0 +1,174 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A machine-wide store of installed SDK packages that can be shared between projects and checkouts. Each package is
+ * stored once under {@code <cache>/packages/<package path>/<revision>} and materialized into SDK roots with
+ * hardlinks, falling back to copies when the cache lives on a different file system.
+ */
+final class SdkPackageCache {
+    private static final String PACKAGES_DIRECTORY = "packages";
+    private static final String PACKAGE_XML = "package.xml";
+
+    private static final String LOCKS_DIRECTORY = "locks";
+
+    private final File packagesDirectory;
+    private final File locksDirectory;
+    private final Logger logger;
+
+    /**
+     * Creates a cache rooted in a directory. The directory is created lazily.
+     * @param cacheDirectory The directory to store the cached packages in
+     * @param logger Informed when the cache is locked by another build
+     */
+    SdkPackageCache(final File cacheDirectory, final Logger logger) {
+        this.packagesDirectory = new File(cacheDirectory, PACKAGES_DIRECTORY);
+        this.locksDirectory = new File(cacheDirectory, LOCKS_DIRECTORY);
+        this.logger = logger;
+    }
+
+    /**
+     * Finds the cache entry for a package. If the package path ends in a revision, only that revision is considered,
+     * otherwise the highest cached revision is returned.
+     * @param packagePath The sdkmanager package path
+     * @return The directory of the cached package or empty if it is not cached.
+     */
+    Optional<File> find(final String packagePath) {
+        final File packageRoot = Utils.getPackageDirectory(packagesDirectory, packagePath);
+        final File[] revisions = packageRoot.listFiles(file -> new File(file, PACKAGE_XML).isFile());
+        if (revisions == null) {
+            return Optional.empty();
+        }
+        return Stream.of(revisions)
+                .map(dir -> InstalledPackageIndex.readPackageXml(new File(dir, PACKAGE_XML))
+                        .filter(entry -> entry.getKey().equals(packagePath))
+                        .map(entry -> new CacheEntry(dir, entry.getValue())))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .max(Comparator.comparing(entry -> entry.revision))
+                .map(entry -> entry.directory);
+    }
+
+    /**
+     * Links a cached package into an SDK root, atomically replacing anything already at the package's location.
+     * @param packagePath The sdkmanager package path to materialize
+     * @param sdkRoot The SDK root to materialize the package in
+     * @param shouldAutoAcceptLicenses If {@code false}, the package is only materialized if its license has already
+     *                                 been accepted in the SDK root.
+     * @return {@code true} if the package was materialized, {@code false} if it was not available.
+     * @throws IOException if the package could not be linked into place
+     */
+    @SuppressWarnings("try")
+    boolean materialize(final String packagePath, final File sdkRoot, final boolean shouldAutoAcceptLicenses)
+            throws IOException {
+        try (final FileLocks.HeldLocks lock = lock(packagePath, true)) {
+            final Optional<File> cached = find(packagePath);
+            if (!cached.isPresent()) {
+                return false;
+            }
+            if (!shouldAutoAcceptLicenses && !areLicensesAccepted(new File(cached.get(), PACKAGE_XML), sdkRoot)) {
+                return false;
+            }
+
+            final File staged = StagedInstall.newStagingLocation(sdkRoot);
+            try {
+                Utils.linkOrCopyTree(cached.get().toPath(), staged.toPath());
+                StagedInstall.commit(staged, sdkRoot, packagePath, cached.get().getName(),
+                        StagedInstall.readMarker(cached.get()).map(StagedInstall.Marker::getChecksum).orElse(null));
+            } finally {
+                FileUtils.deleteDirectory(staged);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds a package installed in an SDK root to the cache if that revision is not already cached.
+     * @param packagePath The sdkmanager package path to store
+     * @param revision The installed revision of the package
+     * @param sdkRoot The SDK root the package is installed in
+     * @throws IOException if the package could not be stored
+     */
+    @SuppressWarnings("try")
+    void store(final String packagePath, final AndroidRevision revision, final File sdkRoot) throws IOException {
+        final File source = Utils.getPackageDirectory(sdkRoot, packagePath);
+        final File entry = new File(Utils.getPackageDirectory(packagesDirectory, packagePath),
+                revision.toString().replace(' ', '-'));
+        if (entry.exists() || !source.isDirectory()) {
+            return;
+        }
+
+        // Populate a temporary directory first so other builds never observe a partially stored package
+        final File temp = new File(packagesDirectory, ".tmp-" + UUID.randomUUID());
+        try (final FileLocks.HeldLocks lock = lock(packagePath, false)) {
+            Utils.linkOrCopyTree(source.toPath(), temp.toPath());
+            Files.createDirectories(entry.getParentFile().toPath());
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // Another build stored the same revision first
+        } finally {
+            FileUtils.deleteDirectory(temp);
+        }
+    }
+
+    private FileLocks.HeldLocks lock(final String packagePath, final boolean shared) throws IOException {
+        return FileLocks.acquire(FileLocks.getPackageLockFile(locksDirectory, packagePath), shared, logger);
+    }
+
+    private static boolean areLicensesAccepted(final File packageXml, final File sdkRoot) {
+        final Document document;
+        try {
+            document = InstalledPackageIndex.newDocumentBuilder().parse(packageXml);
+        } catch (final IOException | SAXException | ParserConfigurationException e) {
+            return false;
+        }
+
+        final NodeList usesLicenses = document.getElementsByTagNameNS("*", "uses-license");
+        final NodeList licenses = document.getElementsByTagNameNS("*", "license");
+        for (int i = 0; i < usesLicenses.getLength(); i++) {
+            final String ref = ((Element) usesLicenses.item(i)).getAttribute("ref");
+            boolean accepted = false;
+            for (int j = 0; j < licenses.getLength(); j++) {
+                final Element license = (Element) licenses.item(j);
+                if (ref.equals(license.getAttribute("id"))
+                        && SdkLicenses.isAccepted(sdkRoot, ref, license.getTextContent())) {
+                    accepted = true;
+                    break;
+                }
+            }
+            if (!accepted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class CacheEntry {
+        private final File directory;
+        private final AndroidRevision revision;
+
+        private CacheEntry(final File directory, final AndroidRevision revision) {
+            this.directory = directory;
+            this.revision = revision;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Fingerprints how far the SDK root is from the state the build wants. When obtained during configuration, Gradle's
+ * configuration cache records the fingerprint and recomputes it on the next build, so the cached configuration is only
+ * reused while the SDK root still satisfies it, without the plugin having to run again. Only local metadata files
+ * are read to compute it.
+ */
+public abstract class SdkStateValueSource implements ValueSource<String, SdkStateValueSource.Parameters> {
+    /**
+     * Parameters for {@link SdkStateValueSource}.
+     */
+    public interface Parameters extends ValueSourceParameters {
+        /**
+         * The root of the Android SDK to check
+         * @return The SDK root property
+         */
+        DirectoryProperty getSdkDirectory();
+
+        /**
+         * The version of the command line tools that should be installed
+         * @return The tools version property
+         */
+        Property<String> getSdkToolsVersion();
+
+        /**
+         * The sdkmanager packages that should be installed
+         * @return The packages property
+         */
+        SetProperty<String> getPackages();
+    }
+
+    @Override
+    public String obtain() {
+        final File sdkDir = getParameters().getSdkDirectory().get().getAsFile();
+        final String desiredSdkToolsVersion = getParameters().getSdkToolsVersion().getOrNull();
+        final boolean sdkToolsInstalled = SdkInstallerService.readSdkToolsMarker(sdkDir)
+                .map(marker -> Objects.equals(desiredSdkToolsVersion, marker.getVersion()))
+                .orElse(false);
+
+        return "sdkTools=" + (sdkToolsInstalled ? desiredSdkToolsVersion : "missing") +
+                ";missingPackages=" +
+                new InstalledPackageIndex(sdkDir).getMissingPackages(getParameters().getPackages().get());
+    }
+}
@@ -0,0 +1,97 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.TaskInstantiationException;
+import org.gradle.api.tasks.options.Option;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serves a mirror of the repository, as filled by the {@value SetupAndroidSdkPlugin#MIRROR_TASK_NAME} task, over HTTP
+ * so other machines can use this one as their {@link SetupAndroidSdkExtension#setRepositoryUrl repository}. The task
+ * keeps serving until the build is cancelled.
+ */
+public abstract class ServeAndroidSdkCacheTask extends DefaultTask {
+    /**
+     * The port served on, unless another one is configured
+     */
+    static final int DEFAULT_PORT = 8089;
+
+    /**
+     * How many connections are served at once, unless configured otherwise
+     */
+    static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /**
+     * Creates the task. Instantiated by Gradle.
+     */
+    public ServeAndroidSdkCacheTask() {
+        getOutputs().upToDateWhen(task -> false);
+        getPort().convention(DEFAULT_PORT);
+        getBindAddress().convention("0.0.0.0");
+        getMaxConnections().convention(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * The directory to serve
+     * @return The directory property
+     */
+    @Internal
+    public abstract DirectoryProperty getDirectory();
+
+    /**
+     * The port to serve on
+     * @return The port property
+     */
+    @Internal
+    public abstract Property<Integer> getPort();
+
+    /**
+     * Sets the port to serve on from the command line
+     * @param port The port
+     */
+    @Option(option = "port", description = "The port to serve on.")
+    public void setPort(final String port) {
+        getPort().set(Integer.parseInt(port));
+    }
+
+    /**
+     * The address of the interface to serve on
+     * @return The address property
+     */
+    @Internal
+    @Option(option = "bind", description = "The address of the interface to serve on. Defaults to all interfaces.")
+    public abstract Property<String> getBindAddress();
+
+    /**
+     * How many connections are served at once
+     * @return The connections property
+     */
+    @Internal
+    public abstract Property<Integer> getMaxConnections();
+
+    /**
+     * Serves the directory until the build is cancelled.
+     */
+    @TaskAction
+    public void serve() {
+        final InetSocketAddress address = new InetSocketAddress(getBindAddress().get(), getPort().get());
+        try (final CacheServer server = new CacheServer(getDirectory().get().getAsFile().toPath(), address,
+                getMaxConnections().get(), getLogger())) {
+            getLogger().lifecycle("Serving " + getDirectory().get().getAsFile() + " on port " + server.getPort()
+                    + ". Set the repositoryUrl of other builds to http://<this host>:" + server.getPort() + "/");
+            new CountDownLatch(1).await();
+        } catch (final IOException e) {
+            throw new TaskInstantiationException("Unable to serve " + getDirectory().get().getAsFile(), e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLogger().lifecycle("Stopped serving " + getDirectory().get().getAsFile());
+        }
+    }
+}
@@ -17,6 +17,31 @@ public class SetupAndroidSdkExtension {
      */
     public static final String DEFAULT_SDK_TOOLS_VERSION = "6609375_latest";
 
+    /**
+     * The default number of packages the built-in installer installs at once.
+     */
+    public static final int DEFAULT_INSTALL_PARALLELISM = 4;
+
+    /**
+     * The default number of times a failed download is retried.
+     */
+    public static final int DEFAULT_DOWNLOAD_RETRIES = 3;
+
+    /**
+     * The default number of milliseconds to wait before retrying a failed download.
+     */
+    public static final long DEFAULT_DOWNLOAD_RETRY_BACKOFF_MILLIS = 1000;
+
+    /**
+     * The default number of milliseconds a cached repository manifest is used before it is revalidated. One day.
+     */
+    public static final long DEFAULT_MANIFEST_CACHE_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * How long sdkmanager may go without making progress before it is restarted, unless configured otherwise.
+     */
+    public static final long DEFAULT_SDK_MANAGER_STALL_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
     /**
      * The version of Android SDK Tools to download and use. Defaults to
      * {@link #DEFAULT_SDK_TOOLS_VERSION}.
@@ -34,6 +59,88 @@ public class SetupAndroidSdkExtension {
      */
     private final Set<String> packages = new HashSet<>();
 
+    /**
+     * The Android SDK Manager packages to install only once a task that needs them runs.
+     */
+    private final Set<String> lazyPackages = new HashSet<>();
+
+    /**
+     * Whether the NDK, CMake, system images and the emulator are installed only once a task that needs them runs.
+     */
+    private boolean installHeavyPackagesLazily = false;
+
+    /**
+     * Whether installed packages should be stored in and reused from a cache shared by every build on the machine.
+     */
+    private boolean useSharedCache = false;
+
+    /**
+     * Directory of the shared package cache. If {@code null}, a directory in the Gradle user home is used.
+     */
+    private File sharedCacheDirectory = null;
+
+    /**
+     * Whether the SDK should be installed while projects are configured rather than by the
+     * {@value SetupAndroidSdkPlugin#INSTALL_TASK_NAME} tasks.
+     */
+    private boolean installDuringConfiguration = true;
+
+    /**
+     * Whether packages should be downloaded and extracted by the plugin itself instead of by sdkmanager.
+     */
+    private boolean useBuiltInInstaller = false;
+
+    /**
+     * How many packages the built-in installer may download and extract at once.
+     */
+    private int installParallelism = DEFAULT_INSTALL_PARALLELISM;
+
+    /**
+     * How many times a failed download is retried.
+     */
+    private int downloadRetries = DEFAULT_DOWNLOAD_RETRIES;
+
+    /**
+     * How long to wait before retrying a failed download, doubling with each retry.
+     */
+    private long downloadRetryBackoffMillis = DEFAULT_DOWNLOAD_RETRY_BACKOFF_MILLIS;
+
+    /**
+     * How long a cached repository manifest is used before it is revalidated with the repository.
+     */
+    private long manifestCacheTtlMillis = DEFAULT_MANIFEST_CACHE_TTL_MILLIS;
+
+    /**
+     * How long sdkmanager may go without making progress before it is restarted.
+     */
+    private long sdkManagerStallTimeoutMillis = DEFAULT_SDK_MANAGER_STALL_TIMEOUT_MILLIS;
+
+    /**
+     * The lock file written by the {@value SetupAndroidSdkPlugin#LOCK_TASK_NAME} task. If {@code null}, a file in the
+     * root project is used.
+     */
+    private File lockFile = null;
+
+    /**
+     * Whether packages must be installed at exactly the revisions in the lock file.
+     */
+    private boolean installFromLockFile = false;
+
+    /**
+     * The base URL of the repository to install from. If {@code null}, Google's repository is used.
+     */
+    private String repositoryUrl = null;
+
+    /**
+     * A bundle written by the {@value SetupAndroidSdkPlugin#EXPORT_BUNDLE_TASK_NAME} task to restore the SDK from.
+     */
+    private File sdkBundle = null;
+
+    /**
+     * Whether identical files across installed packages are replaced with hardlinks after installing.
+     */
+    private boolean deduplicateFiles = false;
+
     /**
      * Gets the SDK Tools version.
      * @return The currently set SDK Tools version.
@@ -62,7 +169,9 @@ public class SetupAndroidSdkExtension {
      * Adds all the packages to the collection to install via the plugin
      * @param packages The package names used by the Android SDK Manager. e.g.
      *                 {@code add-ons;addon-google_apis-google-4} or
-     *                 {@code system-images;android-25;google_apis;x86}.
+     *                 {@code system-images;android-25;google_apis;x86}. The revision may also be a range, e.g.
+     *                 {@code build-tools;[34,35)}, or a prefix, e.g. {@code ndk;26.+}, to use the latest matching
+     *                 revision already installed or else the latest available one.
      */
     public void packages(final Collection<String> packages) {
         this.packages.addAll(packages);
@@ -72,7 +181,9 @@ public class SetupAndroidSdkExtension {
      * Adds all the packages to the collection to install via the plugin
      * @param packages The package names used by the Android SDK Manager. e.g.
      *                 {@code add-ons;addon-google_apis-google-4} or
-     *                 {@code system-images;android-25;google_apis;x86}.
+     *                 {@code system-images;android-25;google_apis;x86}. The revision may also be a range, e.g.
+     *                 {@code build-tools;[34,35)}, or a prefix, e.g. {@code ndk;26.+}, to use the latest matching
+     *                 revision already installed or else the latest available one.
      */
     public void packages(final String... packages) {
         Collections.addAll(this.packages, packages);
@@ -86,6 +197,63 @@ public class SetupAndroidSdkExtension {
         return new HashSet<>(this.packages);
     }
 
+    /**
+     * Adds packages to install only once a task that needs them runs, rather than with the rest of the project's
+     * packages. Only the NDK, CMake, system images and the emulator can be installed lazily, as the tasks that need
+     * them are known. Other packages fail the build's configuration.
+     * @param lazyPackages The package names used by the Android SDK Manager. e.g. {@code ndk;21.4.7075529}.
+     */
+    public void lazyPackages(final Collection<String> lazyPackages) {
+        this.lazyPackages.addAll(lazyPackages);
+    }
+
+    /**
+     * Adds packages to install only once a task that needs them runs, rather than with the rest of the project's
+     * packages. Only the NDK, CMake, system images and the emulator can be installed lazily, as the tasks that need
+     * them are known. Other packages fail the build's configuration.
+     * @param lazyPackages The package names used by the Android SDK Manager. e.g. {@code ndk;21.4.7075529}.
+     */
+    public void lazyPackages(final String... lazyPackages) {
+        Collections.addAll(this.lazyPackages, lazyPackages);
+    }
+
+    /**
+     * Gets the packages to be installed lazily
+     * @return A collection of Android SDK Manager packages to be installed once a task needs them.
+     */
+    public Collection<String> getLazyPackages() {
+        return new HashSet<>(this.lazyPackages);
+    }
+
+    /**
+     * Checks if the NDK, CMake, system images and the emulator are installed lazily even when added with
+     * {@link #packages}
+     * @return {@code true} if heavyweight packages are installed once a task needs them.
+     */
+    public boolean getInstallHeavyPackagesLazily() {
+        return this.installHeavyPackagesLazily;
+    }
+
+    /**
+     * Sets whether the NDK, CMake, system images and the emulator are installed lazily even when added with
+     * {@link #packages}. Lazy packages are installed just before the first native build or managed device task runs,
+     * so builds that only run tasks like {@code lint} or {@code test} never install them. Defaults to {@code false}.
+     * @param installHeavyPackagesLazily {@code true} to install heavyweight packages lazily
+     */
+    public void setInstallHeavyPackagesLazily(final boolean installHeavyPackagesLazily) {
+        this.installHeavyPackagesLazily = installHeavyPackagesLazily;
+    }
+
+    /**
+     * Sets whether the NDK, CMake, system images and the emulator are installed lazily even when added with
+     * {@link #packages}. Lazy packages are installed just before the first native build or managed device task runs,
+     * so builds that only run tasks like {@code lint} or {@code test} never install them. Defaults to {@code false}.
+     * @param installHeavyPackagesLazily {@code true} to install heavyweight packages lazily
+     */
+    public void installHeavyPackagesLazily(final boolean installHeavyPackagesLazily) {
+        setInstallHeavyPackagesLazily(installHeavyPackagesLazily);
+    }
+
     /**
      * Gets the directory where license files to use when installing the SDK are stored
      * @return The directory to copy licenses from or {@code null} if licenses should be
@@ -112,4 +280,406 @@ public class SetupAndroidSdkExtension {
     public void licensesDirectory(final File licensesDirectory) {
         setLicensesDirectory(licensesDirectory);
     }
+
+    /**
+     * Checks if the shared package cache is enabled
+     * @return {@code true} if packages should be stored in and materialized from the shared cache.
+     */
+    public boolean getUseSharedCache() {
+        return this.useSharedCache;
+    }
+
+    /**
+     * Enables or disables the shared package cache. When enabled, each package revision is downloaded once per
+     * machine and hardlinked into the SDK root of every project that needs it.
+     * @param useSharedCache {@code true} to use the shared cache
+     */
+    public void setUseSharedCache(final boolean useSharedCache) {
+        this.useSharedCache = useSharedCache;
+    }
+
+    /**
+     * Enables or disables the shared package cache. When enabled, each package revision is downloaded once per
+     * machine and hardlinked into the SDK root of every project that needs it.
+     * @param useSharedCache {@code true} to use the shared cache
+     */
+    public void useSharedCache(final boolean useSharedCache) {
+        setUseSharedCache(useSharedCache);
+    }
+
+    /**
+     * Gets the directory the shared package cache is stored in
+     * @return The cache directory or {@code null} if the default location in the Gradle user home should be used.
+     */
+    public File getSharedCacheDirectory() {
+        return this.sharedCacheDirectory;
+    }
+
+    /**
+     * Sets the directory the shared package cache is stored in
+     * @param sharedCacheDirectory The cache directory or {@code null} to use the default location in the Gradle user
+     *                             home.
+     */
+    public void setSharedCacheDirectory(final File sharedCacheDirectory) {
+        this.sharedCacheDirectory = sharedCacheDirectory;
+    }
+
+    /**
+     * Sets the directory the shared package cache is stored in
+     * @param sharedCacheDirectory The cache directory or {@code null} to use the default location in the Gradle user
+     *                             home.
+     */
+    public void sharedCacheDirectory(final File sharedCacheDirectory) {
+        setSharedCacheDirectory(sharedCacheDirectory);
+    }
+
+    /**
+     * Checks if the SDK is installed while projects are configured
+     * @return {@code true} if the SDK is installed during configuration, {@code false} if installation is left to the
+     *         {@value SetupAndroidSdkPlugin#INSTALL_TASK_NAME} tasks.
+     */
+    public boolean getInstallDuringConfiguration() {
+        return this.installDuringConfiguration;
+    }
+
+    /**
+     * Sets whether the SDK is installed while projects are configured. Defaults to {@code true} because some versions
+     * of the Android Gradle plugin check the SDK while they are applied. When {@code false}, nothing is installed
+     * during configuration and the {@value SetupAndroidSdkPlugin#INSTALL_TASK_NAME} task installs the SDK just
+     * before the first task that needs it runs.
+     * @param installDuringConfiguration {@code false} to defer installation to task execution
+     */
+    public void setInstallDuringConfiguration(final boolean installDuringConfiguration) {
+        this.installDuringConfiguration = installDuringConfiguration;
+    }
+
+    /**
+     * Sets whether the SDK is installed while projects are configured. Defaults to {@code true} because some versions
+     * of the Android Gradle plugin check the SDK while they are applied. When {@code false}, nothing is installed
+     * during configuration and the {@value SetupAndroidSdkPlugin#INSTALL_TASK_NAME} task installs the SDK just
+     * before the first task that needs it runs.
+     * @param installDuringConfiguration {@code false} to defer installation to task execution
+     */
+    public void installDuringConfiguration(final boolean installDuringConfiguration) {
+        setInstallDuringConfiguration(installDuringConfiguration);
+    }
+
+    /**
+     * Checks if packages are installed by the plugin itself rather than by sdkmanager
+     * @return {@code true} if the built-in installer is used, with sdkmanager as the fallback.
+     */
+    public boolean getUseBuiltInInstaller() {
+        return this.useBuiltInInstaller;
+    }
+
+    /**
+     * Sets whether packages are downloaded and extracted by the plugin itself, which avoids launching sdkmanager in a
+     * separate JVM. Packages the built-in installer can't handle are still installed with sdkmanager. Always enabled
+     * when installing from the lock file. Defaults to {@code false}.
+     * @param useBuiltInInstaller {@code true} to use the built-in installer
+     */
+    public void setUseBuiltInInstaller(final boolean useBuiltInInstaller) {
+        this.useBuiltInInstaller = useBuiltInInstaller;
+    }
+
+    /**
+     * Sets whether packages are downloaded and extracted by the plugin itself, which avoids launching sdkmanager in a
+     * separate JVM. Packages the built-in installer can't handle are still installed with sdkmanager. Always enabled
+     * when installing from the lock file. Defaults to {@code false}.
+     * @param useBuiltInInstaller {@code true} to use the built-in installer
+     */
+    public void useBuiltInInstaller(final boolean useBuiltInInstaller) {
+        setUseBuiltInInstaller(useBuiltInInstaller);
+    }
+
+    /**
+     * Gets how many packages the built-in installer may install at once
+     * @return The maximum number of concurrent package installations.
+     */
+    public int getInstallParallelism() {
+        return this.installParallelism;
+    }
+
+    /**
+     * Sets how many packages the built-in installer may download and extract at once. Packages are only installed
+     * concurrently when they don't depend on each other. Defaults to {@value #DEFAULT_INSTALL_PARALLELISM}.
+     * @param installParallelism The maximum number of concurrent package installations, at least 1
+     */
+    public void setInstallParallelism(final int installParallelism) {
+        this.installParallelism = installParallelism;
+    }
+
+    /**
+     * Sets how many packages the built-in installer may download and extract at once. Packages are only installed
+     * concurrently when they don't depend on each other. Defaults to {@value #DEFAULT_INSTALL_PARALLELISM}.
+     * @param installParallelism The maximum number of concurrent package installations, at least 1
+     */
+    public void installParallelism(final int installParallelism) {
+        setInstallParallelism(installParallelism);
+    }
+
+    /**
+     * Gets how many times a failed download is retried
+     * @return The number of retries.
+     */
+    public int getDownloadRetries() {
+        return this.downloadRetries;
+    }
+
+    /**
+     * Sets how many times a failed download of the command line tools or of a package is retried. Retries resume
+     * from where the failed attempt stopped. Defaults to {@value #DEFAULT_DOWNLOAD_RETRIES}.
+     * @param downloadRetries The number of retries, or 0 to fail on the first error
+     */
+    public void setDownloadRetries(final int downloadRetries) {
+        this.downloadRetries = downloadRetries;
+    }
+
+    /**
+     * Sets how many times a failed download of the command line tools or of a package is retried. Retries resume
+     * from where the failed attempt stopped. Defaults to {@value #DEFAULT_DOWNLOAD_RETRIES}.
+     * @param downloadRetries The number of retries, or 0 to fail on the first error
+     */
+    public void downloadRetries(final int downloadRetries) {
+        setDownloadRetries(downloadRetries);
+    }
+
+    /**
+     * Gets how long to wait before the first retry of a failed download
+     * @return The wait in milliseconds.
+     */
+    public long getDownloadRetryBackoffMillis() {
+        return this.downloadRetryBackoffMillis;
+    }
+
+    /**
+     * Sets how long to wait before the first retry of a failed download. The wait doubles with each further retry.
+     * Defaults to {@value #DEFAULT_DOWNLOAD_RETRY_BACKOFF_MILLIS}.
+     * @param downloadRetryBackoffMillis The wait in milliseconds
+     */
+    public void setDownloadRetryBackoffMillis(final long downloadRetryBackoffMillis) {
+        this.downloadRetryBackoffMillis = downloadRetryBackoffMillis;
+    }
+
+    /**
+     * Sets how long to wait before the first retry of a failed download. The wait doubles with each further retry.
+     * Defaults to {@value #DEFAULT_DOWNLOAD_RETRY_BACKOFF_MILLIS}.
+     * @param downloadRetryBackoffMillis The wait in milliseconds
+     */
+    public void downloadRetryBackoffMillis(final long downloadRetryBackoffMillis) {
+        setDownloadRetryBackoffMillis(downloadRetryBackoffMillis);
+    }
+
+    /**
+     * Gets how long a cached repository manifest is used before it is revalidated
+     * @return The time-to-live in milliseconds.
+     */
+    public long getManifestCacheTtlMillis() {
+        return this.manifestCacheTtlMillis;
+    }
+
+    /**
+     * Sets how long a cached repository manifest is used before it is revalidated with the repository, which only
+     * sends it again if it has changed. When Gradle runs with {@code --offline}, cached manifests are used regardless.
+     * Defaults to {@value #DEFAULT_MANIFEST_CACHE_TTL_MILLIS}.
+     * @param manifestCacheTtlMillis The time-to-live in milliseconds, or 0 to revalidate on every build
+     */
+    public void setManifestCacheTtlMillis(final long manifestCacheTtlMillis) {
+        this.manifestCacheTtlMillis = manifestCacheTtlMillis;
+    }
+
+    /**
+     * Sets how long a cached repository manifest is used before it is revalidated with the repository, which only
+     * sends it again if it has changed. When Gradle runs with {@code --offline}, cached manifests are used regardless.
+     * Defaults to {@value #DEFAULT_MANIFEST_CACHE_TTL_MILLIS}.
+     * @param manifestCacheTtlMillis The time-to-live in milliseconds, or 0 to revalidate on every build
+     */
+    public void manifestCacheTtlMillis(final long manifestCacheTtlMillis) {
+        setManifestCacheTtlMillis(manifestCacheTtlMillis);
+    }
+
+    /**
+     * Gets the lock file
+     * @return The lock file or {@code null} to use {@code android-sdk.lock} in the root project.
+     */
+    public File getLockFile() {
+        return this.lockFile;
+    }
+
+    /**
+     * Sets where the {@value SetupAndroidSdkPlugin#LOCK_TASK_NAME} task writes the lock file, which pins every
+     * package and the command line tools to exact revisions and archive checksums.
+     * @param lockFile The lock file or {@code null} to use {@code android-sdk.lock} in the root project
+     */
+    public void setLockFile(final File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * Sets where the {@value SetupAndroidSdkPlugin#LOCK_TASK_NAME} task writes the lock file, which pins every
+     * package and the command line tools to exact revisions and archive checksums.
+     * @param lockFile The lock file or {@code null} to use {@code android-sdk.lock} in the root project
+     */
+    public void lockFile(final File lockFile) {
+        setLockFile(lockFile);
+    }
+
+    /**
+     * Checks if packages must be installed at exactly the revisions in the lock file
+     * @return {@code true} if the lock file is enforced.
+     */
+    public boolean getInstallFromLockFile() {
+        return this.installFromLockFile;
+    }
+
+    /**
+     * Sets whether packages must be installed at exactly the revisions in the lock file. Packages missing from the
+     * lock file fail the build, installed packages at other revisions are reinstalled and archives are verified
+     * against the locked checksums. Packages are always installed with the built-in installer, as sdkmanager can't
+     * verify the checksums, and packages it can't install fail the build rather than falling back to sdkmanager.
+     * Checking an installed SDK against the lock file only reads local files. Defaults to {@code false}.
+     * @param installFromLockFile {@code true} to enforce the lock file
+     */
+    public void setInstallFromLockFile(final boolean installFromLockFile) {
+        this.installFromLockFile = installFromLockFile;
+    }
+
+    /**
+     * Sets whether packages must be installed at exactly the revisions in the lock file. Packages missing from the
+     * lock file fail the build, installed packages at other revisions are reinstalled and archives are verified
+     * against the locked checksums. Packages are always installed with the built-in installer, as sdkmanager can't
+     * verify the checksums, and packages it can't install fail the build rather than falling back to sdkmanager.
+     * Checking an installed SDK against the lock file only reads local files. Defaults to {@code false}.
+     * @param installFromLockFile {@code true} to enforce the lock file
+     */
+    public void installFromLockFile(final boolean installFromLockFile) {
+        setInstallFromLockFile(installFromLockFile);
+    }
+
+    /**
+     * Gets the base URL of the repository to install from
+     * @return The repository URL or {@code null} to use Google's repository.
+     */
+    public String getRepositoryUrl() {
+        return this.repositoryUrl;
+    }
+
+    /**
+     * Sets the base URL of the repository the command line tools, packages and manifests are installed from, instead
+     * of Google's. The repository may be a web server or a {@code file:} URL of a directory, like the ones the
+     * {@value SetupAndroidSdkPlugin#MIRROR_TASK_NAME} task fills.
+     * @param repositoryUrl The URL of the directory containing {@code repository2-1.xml} or {@code null} to use
+     *                      Google's repository
+     */
+    public void setRepositoryUrl(final String repositoryUrl) {
+        this.repositoryUrl = repositoryUrl;
+    }
+
+    /**
+     * Sets the base URL of the repository the command line tools, packages and manifests are installed from, instead
+     * of Google's. The repository may be a web server or a {@code file:} URL of a directory, like the ones the
+     * {@value SetupAndroidSdkPlugin#MIRROR_TASK_NAME} task fills.
+     * @param repositoryUrl The URL of the directory containing {@code repository2-1.xml} or {@code null} to use
+     *                      Google's repository
+     */
+    public void repositoryUrl(final String repositoryUrl) {
+        setRepositoryUrl(repositoryUrl);
+    }
+
+    /**
+     * Sets a local directory, like the ones the {@value SetupAndroidSdkPlugin#MIRROR_TASK_NAME} task fills, as the
+     * repository the command line tools, packages and manifests are installed from, instead of Google's.
+     * @param repositoryDirectory The directory containing {@code repository2-1.xml}
+     */
+    public void repositoryUrl(final File repositoryDirectory) {
+        setRepositoryUrl(repositoryDirectory.getAbsoluteFile().toURI().toString());
+    }
+
+    /**
+     * Gets the SDK bundle restored before installing
+     * @return The bundle or {@code null} if none is restored.
+     */
+    public File getSdkBundle() {
+        return this.sdkBundle;
+    }
+
+    /**
+     * Sets a bundle, written by the {@value SetupAndroidSdkPlugin#EXPORT_BUNDLE_TASK_NAME} task, to restore the SDK
+     * from before anything is downloaded. Packages and command line tools in the bundle that are missing from the SDK
+     * root are extracted in one step, e.g. on fresh CI machines restoring the bundle from a cache. Anything the bundle
+     * doesn't hold is installed as usual. A bundle that doesn't exist is ignored.
+     * @param sdkBundle The bundle or {@code null} to not restore one
+     */
+    public void setSdkBundle(final File sdkBundle) {
+        this.sdkBundle = sdkBundle;
+    }
+
+    /**
+     * Sets a bundle, written by the {@value SetupAndroidSdkPlugin#EXPORT_BUNDLE_TASK_NAME} task, to restore the SDK
+     * from before anything is downloaded. Packages and command line tools in the bundle that are missing from the SDK
+     * root are extracted in one step, e.g. on fresh CI machines restoring the bundle from a cache. Anything the bundle
+     * doesn't hold is installed as usual. A bundle that doesn't exist is ignored.
+     * @param sdkBundle The bundle or {@code null} to not restore one
+     */
+    public void sdkBundle(final File sdkBundle) {
+        setSdkBundle(sdkBundle);
+    }
+
+    /**
+     * Checks if identical files across installed packages are replaced with hardlinks
+     * @return {@code true} if files are deduplicated after installing.
+     */
+    public boolean getDeduplicateFiles() {
+        return this.deduplicateFiles;
+    }
+
+    /**
+     * Sets whether byte-identical files across the installed packages, which side-by-side versions of build tools,
+     * platforms and NDKs have many of, are replaced with hardlinks to a single copy after packages are installed. An
+     * index in the SDK root remembers the hash of every file, so later installs only hash the new files. Defaults to
+     * {@code false}.
+     * @param deduplicateFiles {@code true} to deduplicate files
+     */
+    public void setDeduplicateFiles(final boolean deduplicateFiles) {
+        this.deduplicateFiles = deduplicateFiles;
+    }
+
+    /**
+     * Sets whether byte-identical files across the installed packages, which side-by-side versions of build tools,
+     * platforms and NDKs have many of, are replaced with hardlinks to a single copy after packages are installed. An
+     * index in the SDK root remembers the hash of every file, so later installs only hash the new files. Defaults to
+     * {@code false}.
+     * @param deduplicateFiles {@code true} to deduplicate files
+     */
+    public void deduplicateFiles(final boolean deduplicateFiles) {
+        setDeduplicateFiles(deduplicateFiles);
+    }
+
+    /**
+     * Gets how long sdkmanager may go without making progress
+     * @return The timeout in milliseconds, or 0 if sdkmanager is never stopped.
+     */
+    public long getSdkManagerStallTimeoutMillis() {
+        return this.sdkManagerStallTimeoutMillis;
+    }
+
+    /**
+     * Sets how long sdkmanager may go without making progress before it is stopped and run again, as a stalled
+     * download would otherwise hang the build. sdkmanager is run again up to
+     * {@link #setDownloadRetries downloadRetries} times. Defaults to {@value #DEFAULT_SDK_MANAGER_STALL_TIMEOUT_MILLIS}.
+     * @param sdkManagerStallTimeoutMillis The timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void setSdkManagerStallTimeoutMillis(final long sdkManagerStallTimeoutMillis) {
+        this.sdkManagerStallTimeoutMillis = sdkManagerStallTimeoutMillis;
+    }
+
+    /**
+     * Sets how long sdkmanager may go without making progress before it is stopped and run again, as a stalled
+     * download would otherwise hang the build. sdkmanager is run again up to
+     * {@link #setDownloadRetries downloadRetries} times. Defaults to {@value #DEFAULT_SDK_MANAGER_STALL_TIMEOUT_MILLIS}.
+     * @param sdkManagerStallTimeoutMillis The timeout in milliseconds, or 0 to wait indefinitely
+     */
+    public void sdkManagerStallTimeoutMillis(final long sdkManagerStallTimeoutMillis) {
+        setSdkManagerStallTimeoutMillis(sdkManagerStallTimeoutMillis);
+    }
 }
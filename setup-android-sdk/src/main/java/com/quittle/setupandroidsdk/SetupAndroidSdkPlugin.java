@@ -1,65 +1,87 @@
 package com.quittle.setupandroidsdk;
 
 import com.android.build.gradle.BaseExtension;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.tools.ant.taskdefs.condition.Os;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.ProjectState;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.Task;
-import org.gradle.api.logging.Logger;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Delete;
 import org.gradle.api.tasks.TaskInstantiationException;
+import org.gradle.api.tasks.TaskProvider;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Objects;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
-import java.util.function.Consumer;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.TreeSet;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
-import static com.quittle.setupandroidsdk.Utils.getConstantViaReflection;
-
 /**
  * Automatically installs the Android SDK. Apply after the Android Gradle plugin.
  */
 @SuppressWarnings("PMD.DataflowAnomalyAnalysis")
 public class SetupAndroidSdkPlugin implements Plugin<Project> {
-    private static final String SDK_TOOLS_URL_FORMAT =
-            "https://dl.google.com/android/repository/commandlinetools-%s-%s.zip";
+    /**
+     * The name of the task registered in each project to install its SDK packages.
+     */
+    public static final String INSTALL_TASK_NAME = "installAndroidSdk";
+
+    /**
+     * The name of the task registered in the project applying the plugin to write the lock file.
+     */
+    public static final String LOCK_TASK_NAME = "setupAndroidSdkLock";
+
+    /**
+     * The name of the task registered in the project applying the plugin to fill a local mirror of the repository.
+     */
+    public static final String MIRROR_TASK_NAME = "mirrorAndroidSdk";
+
+    /**
+     * The name of the task registered in the project applying the plugin to serve the mirror of the repository.
+     */
+    public static final String SERVE_TASK_NAME = "serveAndroidSdkCache";
+
+    /**
+     * The name of the task registered in the project applying the plugin to bundle the installed SDK into one archive.
+     */
+    public static final String EXPORT_BUNDLE_TASK_NAME = "exportAndroidSdkBundle";
+
+    /**
+     * The name of the task registered in the project applying the plugin to restore the SDK from a bundle.
+     */
+    public static final String IMPORT_BUNDLE_TASK_NAME = "importAndroidSdkBundle";
+    private static final String SERVICE_NAME_PREFIX = "setupAndroidSdk:";
+    private static final String RESOLVER_SERVICE_NAME = "setupAndroidSdkPackageResolver";
 
     @Override
     public void apply(final Project project) {
         final Project rootProject = project.getRootProject();
-        final Logger logger = rootProject.getLogger();
         final File sdkDir = new File(rootProject.getBuildDir(), "android-sdk-root");
-        final File sdkToolsVersionFile = new File(sdkDir, "sdkToolsVersion.txt");
         final File localProperties = rootProject.file("local.properties");
 
         final SetupAndroidSdkExtension extension =
                 project.getExtensions().create("setupAndroidSdk", SetupAndroidSdkExtension.class);
-
+        final Provider<SdkInstallerService> installerService = project.getGradle().getSharedServices()
+                .registerIfAbsent(SERVICE_NAME_PREFIX + sdkDir.getAbsolutePath(), SdkInstallerService.class,
+                        spec -> {
+                            spec.getParameters().getSdkDirectory().set(sdkDir);
+                            spec.getParameters().getReportFile().set(
+                                    new File(rootProject.getBuildDir(), "reports/setup-android-sdk/setup-report.json"));
+                        });
+        final Provider<PackageResolverService> resolver = project.getGradle().getSharedServices()
+                .registerIfAbsent(RESOLVER_SERVICE_NAME, PackageResolverService.class, spec -> { });
 
         createCleanTask(rootProject, localProperties);
         if (!localProperties.exists()) {
@@ -68,21 +90,55 @@ public class SetupAndroidSdkPlugin implements Plugin<Project> {
 
         // afterEvaluate required for consumer to configure extension
         project.afterEvaluate(p -> {
-            final File sdkManager = getSdkManager(sdkDir);
-            setupLicences(logger, extension.getLicensesDirectory(), sdkDir);
-            installSdkManager(logger, sdkToolsVersionFile, extension.getSdkToolsVersion(), sdkDir, sdkManager);
+            validateLazyPackages(extension);
+            if (extension.getInstallDuringConfiguration()) {
+                final SdkInstallerService service = installerService.get();
+                final InstallOptions options = InstallOptions.fromExtension(p, extension);
+                service.setupLicences(options);
+                service.installSdkManager(options);
+            }
         });
 
         final Action<Project> installPackagesForProject = p -> {
-            final File sdkManager = getSdkManager(sdkDir);
-            final boolean shouldAutoAcceptLicenses = extension.getLicensesDirectory() == null;
-            final Set<String> packages = new HashSet<>();
-            packages.addAll(getDefaultPackagesToInstall(p));
-            packages.addAll(extension.getPackages());
-            installSdk(logger, sdkDir, sdkManager, packages, shouldAutoAcceptLicenses);
+            if (extension.getInstallDuringConfiguration()) {
+                installerService.get().installPackages(p.getPath(), getPackagesToInstall(p, extension, resolver),
+                        InstallOptions.fromExtension(p, extension));
+            }
         };
 
+        project.getGradle().projectsEvaluated(g -> {
+            // The default packages are resolved while configuring, so their timings go into the report now
+            installerService.get().addToReport(resolver.get().getMetrics());
+            if (!extension.getInstallDuringConfiguration()) {
+                return;
+            }
+            final SdkInstallerService service = installerService.get();
+            service.logSummary();
+            resolver.get().logSummary();
+
+            // Record the state of the SDK root as a configuration input now that it has been fully set up. On
+            // configuration cache hits Gradle re-checks this instead of rerunning the plugin and only reconfigures
+            // if the SDK root no longer satisfies the build, e.g. after a clean.
+            project.getProviders().of(SdkStateValueSource.class, spec -> {
+                spec.getParameters().getSdkDirectory().set(sdkDir);
+                spec.getParameters().getSdkToolsVersion().set(extension.getSdkToolsVersion());
+                spec.getParameters().getPackages().set(service.getRequestedPackages());
+            }).get();
+        });
+
+        registerLockTask(project, extension, installerService, resolver);
+        final TaskProvider<MirrorAndroidSdkTask> mirrorTask =
+                registerMirrorTask(project, extension, installerService, resolver);
+        project.getTasks().register(SERVE_TASK_NAME, ServeAndroidSdkCacheTask.class, task -> {
+            task.setGroup("build setup");
+            task.setDescription("Serves the mirror of the Android SDK repository to other machines over HTTP.");
+            task.getDirectory().convention(mirrorTask.flatMap(MirrorAndroidSdkTask::getDestination));
+        });
+        final TaskProvider<ImportAndroidSdkBundleTask> importBundleTask =
+                registerBundleTasks(project, extension, installerService, resolver);
         project.allprojects(p -> {
+            registerInstallTask(p, extension, installerService, resolver, importBundleTask);
+
             final ProjectState state = p.getState();
             // If applied to a root project that uses evaluationDependsOnChildren, afterEvaluate actions won't be
             // triggered so checking the current state of that project is required and must be scheduled for after the
@@ -96,101 +152,240 @@ public class SetupAndroidSdkPlugin implements Plugin<Project> {
     }
 
     /**
-     * Gets the location of the sdkmanager executable
-     * @param sdkDir The SDK directory to find the sdkmanager in
-     * @return The OS-dependent location of the sdkmanager tool or {@code null} if no appropriate file was found.
+     * Registers the {@value #INSTALL_TASK_NAME} task, which installs the project's packages at execution time, and
+     * runs it before the Android plugin's {@code preBuild} task, which every variant's tasks depend on. When the SDK
+     * was already installed during configuration, the task only verifies that nothing is missing. If the plugin is
+     * also applied to a project above this one, which registered the tasks already, they are reconfigured instead so
+     * the settings of the nearest application of the plugin win.
      */
-    private static File getSdkManager(final File sdkDir) {
-        for (final String relativePath : new String[] {"cmdline-tools/bin/sdkmanager", "tools/bin/sdkmanager"}){
-            final File file;
-            if (Os.isFamily(Os.FAMILY_UNIX) || Os.isFamily(Os.FAMILY_MAC)) {
-                file = new File(sdkDir, relativePath);
-            } else if (Os.isFamily(Os.FAMILY_WINDOWS)) {
-                file = new File(sdkDir, relativePath + ".bat");
-            } else {
-                throw new TaskInstantiationException("Unsupported OS. File a bug report to get it added.");
+    private static void registerInstallTask(final Project project,
+                                            final SetupAndroidSdkExtension extension,
+                                            final Provider<SdkInstallerService> installerService,
+                                            final Provider<PackageResolverService> resolver,
+                                            final TaskProvider<ImportAndroidSdkBundleTask> importBundleTask) {
+        final boolean alreadyRegistered = project.getTasks().getNames().contains(INSTALL_TASK_NAME);
+        final TaskProvider<InstallAndroidSdkTask> installTask =
+                registerOrReconfigure(project, INSTALL_TASK_NAME, task -> {
+                    task.setGroup("build setup");
+                    task.setDescription("Installs the Android SDK packages required by the project.");
+                    task.usesService(installerService);
+                    task.getInstallerService().set(installerService);
+                    task.getPackages().set(project.provider(() -> getPackagesToInstall(project, extension, resolver)));
+                    task.getOptions().set(project.provider(() -> InstallOptions.fromExtension(project, extension)));
+                    task.mustRunAfter(importBundleTask);
+                });
+
+        final Map<LazyPackageGroup, TaskProvider<InstallAndroidSdkTask>> lazyInstallTasks =
+                new EnumMap<>(LazyPackageGroup.class);
+        for (final LazyPackageGroup group : LazyPackageGroup.values()) {
+            lazyInstallTasks.put(group, registerOrReconfigure(project, group.getTaskName(), task -> {
+                task.setGroup("build setup");
+                task.setDescription("Installs the Android SDK packages lazily installed for "
+                        + group.name().toLowerCase(Locale.US) + " tasks.");
+                task.usesService(installerService);
+                task.getInstallerService().set(installerService);
+                task.getPackages().set(
+                        project.provider(() -> getLazyPackagesToInstall(project, extension, resolver, group)));
+                task.getOptions().set(project.provider(() -> InstallOptions.fromExtension(project, extension)));
+                task.onlyIf(t -> !((InstallAndroidSdkTask) t).getPackages().get().isEmpty());
+                task.mustRunAfter(installTask);
+            }));
+        }
+
+        if (alreadyRegistered) {
+            // The tasks were wired into the build when they were first registered
+            return;
+        }
+        project.getTasks().configureEach(task -> {
+            if ("preBuild".equals(task.getName())) {
+                task.dependsOn(installTask);
             }
-            if (file.isFile()) {
-                return file;
+            for (final Map.Entry<LazyPackageGroup, TaskProvider<InstallAndroidSdkTask>> lazyInstallTask
+                    : lazyInstallTasks.entrySet()) {
+                if (lazyInstallTask.getKey().isNeededBy(task.getName())) {
+                    task.dependsOn(lazyInstallTask.getValue());
+                }
             }
-        }
-        return null;
+        });
     }
 
-    private static void setupLicences(
-            final Logger logger, final File licenseDirectory, final File sdkDir) {
-        if (licenseDirectory == null) {
-            logger.debug("No license directory specified, accepting all licenses automatically");
-            return;
+    /**
+     * Registers an install task or, if one was already registered by an application of the plugin to a project above
+     * this one, configures the existing task again, overriding the earlier configuration.
+     */
+    private static TaskProvider<InstallAndroidSdkTask> registerOrReconfigure(
+            final Project project, final String name, final Action<InstallAndroidSdkTask> configuration) {
+        if (project.getTasks().getNames().contains(name)) {
+            final TaskProvider<InstallAndroidSdkTask> task = project.getTasks().named(name, InstallAndroidSdkTask.class);
+            task.configure(configuration);
+            return task;
         }
-        final File sdkLicensesDirectory = new File(sdkDir, "licenses");
-        try {
-            FileUtils.deleteDirectory(sdkLicensesDirectory);
-            FileUtils.copyDirectory(licenseDirectory, sdkLicensesDirectory);
-        } catch (final IOException e) {
-            throw new TaskInstantiationException("Unable to synchronize licenses directory", e);
+        return project.getTasks().register(name, InstallAndroidSdkTask.class, configuration);
+    }
+
+    /**
+     * Registers the {@value #LOCK_TASK_NAME} task, which locks the packages of every project the plugin installs
+     * packages for.
+     */
+    private static void registerLockTask(final Project project,
+                                         final SetupAndroidSdkExtension extension,
+                                         final Provider<SdkInstallerService> installerService,
+                                         final Provider<PackageResolverService> resolver) {
+        project.getTasks().register(LOCK_TASK_NAME, LockAndroidSdkTask.class, task -> {
+            task.setGroup("build setup");
+            task.setDescription("Pins the Android SDK packages of every project to exact revisions in a lock file.");
+            task.usesService(installerService);
+            task.getInstallerService().set(installerService);
+            task.getPackages().set(project.provider(() -> getPackagesOfAllProjects(project, extension, resolver)));
+            task.getOptions().set(project.provider(() -> InstallOptions.fromExtension(project, extension)));
+        });
+    }
+
+    /**
+     * Registers the {@value #MIRROR_TASK_NAME} task, which mirrors the packages of every project the plugin installs
+     * packages for into {@code build/android-sdk-mirror} of the root project, unless the task is configured otherwise.
+     */
+    private static TaskProvider<MirrorAndroidSdkTask> registerMirrorTask(
+            final Project project,
+            final SetupAndroidSdkExtension extension,
+            final Provider<SdkInstallerService> installerService,
+            final Provider<PackageResolverService> resolver) {
+        return project.getTasks().register(MIRROR_TASK_NAME, MirrorAndroidSdkTask.class, task -> {
+            task.setGroup("build setup");
+            task.setDescription("Mirrors the Android SDK packages of every project into a local repository.");
+            task.usesService(installerService);
+            task.getInstallerService().set(installerService);
+            task.getPackages().set(project.provider(() -> getPackagesOfAllProjects(project, extension, resolver)));
+            task.getDestination().convention(project.getLayout().getBuildDirectory().dir("android-sdk-mirror"));
+            task.getOptions().set(project.provider(() -> InstallOptions.fromExtension(project, extension)));
+        });
+    }
+
+    /**
+     * Registers the {@value #EXPORT_BUNDLE_TASK_NAME} task, which bundles the packages of every project the plugin
+     * installs packages for into {@code build/android-sdk-bundle/android-sdk.zip} of the root project, and the
+     * {@value #IMPORT_BUNDLE_TASK_NAME} task, which restores that bundle unless configured otherwise.
+     * @return The import task, which the install tasks run after.
+     */
+    private static TaskProvider<ImportAndroidSdkBundleTask> registerBundleTasks(
+            final Project project,
+            final SetupAndroidSdkExtension extension,
+            final Provider<SdkInstallerService> installerService,
+            final Provider<PackageResolverService> resolver) {
+        // The import task doesn't use the export task's output directly as it would then depend on it
+        final Provider<RegularFile> bundle =
+                project.getLayout().getBuildDirectory().file("android-sdk-bundle/android-sdk.zip");
+        project.getTasks().register(EXPORT_BUNDLE_TASK_NAME, ExportAndroidSdkBundleTask.class, task -> {
+            task.setGroup("build setup");
+            task.setDescription("Bundles the Android SDK packages of every project into a single archive.");
+            task.usesService(installerService);
+            task.getInstallerService().set(installerService);
+            // Specs are resolved so the cache key changes along with the packages they resolve to
+            task.getPackages().set(project.provider(() -> installerService.get().resolvePackages(
+                    getPackagesOfAllProjects(project, extension, resolver),
+                    InstallOptions.fromExtension(project, extension))));
+            task.getSdkToolsVersion().set(project.provider(extension::getSdkToolsVersion));
+            task.getBundle().convention(bundle);
+            task.getOptions().set(project.provider(() -> InstallOptions.fromExtension(project, extension)));
+        });
+        return project.getTasks().register(IMPORT_BUNDLE_TASK_NAME, ImportAndroidSdkBundleTask.class, task -> {
+            task.setGroup("build setup");
+            task.setDescription("Restores the Android SDK packages missing from the SDK root from a bundle.");
+            task.usesService(installerService);
+            task.getInstallerService().set(installerService);
+            task.getBundle().convention(bundle);
+        });
+    }
+
+    /**
+     * Gets the packages of every project in the build, installed lazily or not
+     */
+    private static Set<String> getPackagesOfAllProjects(final Project project,
+                                                        final SetupAndroidSdkExtension extension,
+                                                        final Provider<PackageResolverService> resolver) {
+        final Set<String> packages = new TreeSet<>();
+        for (final Project p : project.getAllprojects()) {
+            packages.addAll(getAllPackages(p, extension, resolver));
         }
+        return packages;
     }
 
     /**
-     * Installs {@code sdkmanager}. There is a file storing what the version downloaded was to
-     * avoid downloading every time and detecting version changes.
+     * Gets the packages the project installs with the {@value #INSTALL_TASK_NAME} task or during configuration
      */
-    private static void installSdkManager(final Logger logger, final File sdkToolsVersionFile,
-            final String desiredSdkToolsVersion, final File sdkDir, final File sdkManager) {
-        final String currentSdkToolsVersion = getCurrentSdkToolsVersion(logger, sdkToolsVersionFile);
-        if (sdkManager == null || !sdkManager.exists() || !Objects.equals(desiredSdkToolsVersion, currentSdkToolsVersion)) {
-            downloadSdkTools(logger, sdkDir, desiredSdkToolsVersion);
-            getSdkManager(sdkDir).setExecutable(true);
-            try {
-                FileUtils.writeStringToFile(sdkToolsVersionFile, desiredSdkToolsVersion, StandardCharsets.UTF_8);
-            } catch (final IOException e) {
-                throw new TaskInstantiationException("Unable to save sdk tools version", e);
+    private static Set<String> getPackagesToInstall(final Project project,
+                                                    final SetupAndroidSdkExtension extension,
+                                                    final Provider<PackageResolverService> resolver) {
+        final Set<String> packages = new TreeSet<>();
+        for (final String packagePath : getAllPackages(project, extension, resolver)) {
+            if (!getLazyPackageGroup(packagePath, extension).isPresent()) {
+                packages.add(packagePath);
             }
         }
+        return packages;
     }
 
-    private static String getCurrentSdkToolsVersion(final Logger logger, final File sdkToolsVersionFile) {
-        if (!sdkToolsVersionFile.exists()) {
-            return null;
-        } else {
-            try {
-                return FileUtils.readFileToString(sdkToolsVersionFile, StandardCharsets.UTF_8);
-            } catch (final IOException e) {
-                logger.error(
-                        "Unable to read sdk tools version file: " + sdkToolsVersionFile.getAbsolutePath());
-                throw new TaskInstantiationException("Unable to read sdk tools version file", e);
+    /**
+     * Gets the packages the project installs lazily, with the install task of their group
+     */
+    private static Set<String> getLazyPackagesToInstall(final Project project,
+                                                        final SetupAndroidSdkExtension extension,
+                                                        final Provider<PackageResolverService> resolver,
+                                                        final LazyPackageGroup group) {
+        final Set<String> packages = new TreeSet<>();
+        for (final String packagePath : getAllPackages(project, extension, resolver)) {
+            if (getLazyPackageGroup(packagePath, extension).filter(group::equals).isPresent()) {
+                packages.add(packagePath);
             }
         }
+        return packages;
     }
 
-    @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
-    @SuppressWarnings("PMD.AssignmentInOperand")
-    private static void downloadSdkTools(final Logger logger, final File sdkRoot, final String sdkToolsVersion) {
-        try (final InputStream is = new URL(getSdkToolsUrl(sdkToolsVersion)).openStream();
-                final ZipInputStream zis = new ZipInputStream(is)) {
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                final String fileName = entry.getName();
-                logger.debug("Downloading " + fileName);
-                final File curFile = new File(sdkRoot, fileName);
-                if (entry.isDirectory()) {
-                    curFile.mkdirs();
-                } else {
-                    curFile.getParentFile().mkdirs();
-                    try (final OutputStream os = new FileOutputStream(curFile)) {
-                        IOUtils.copy(zis, os);
-                    }
-                }
-            }
-        } catch (final IOException e) {
-            throw new TaskInstantiationException("Unable read Android SDK tools zip", e);
+    private static Set<String> getAllPackages(final Project project,
+                                              final SetupAndroidSdkExtension extension,
+                                              final Provider<PackageResolverService> resolver) {
+        final Set<String> packages = new TreeSet<>();
+        packages.addAll(getDefaultPackagesToInstall(project, resolver));
+        packages.addAll(extension.getPackages());
+        packages.addAll(extension.getLazyPackages());
+        return packages;
+    }
+
+    /**
+     * Determines whether a package is installed lazily and by which group's task
+     * @return The package's group or empty if it is installed with the rest of the project's packages.
+     */
+    private static Optional<LazyPackageGroup> getLazyPackageGroup(final String packagePath,
+                                                                  final SetupAndroidSdkExtension extension) {
+        if (!extension.getInstallHeavyPackagesLazily() && !extension.getLazyPackages().contains(packagePath)) {
+            return Optional.empty();
         }
+        return LazyPackageGroup.of(packagePath);
+    }
 
-        logger.info("Done downloading sdkmanager");
+    /**
+     * Ensures every package added with {@link SetupAndroidSdkExtension#lazyPackages} belongs to a
+     * {@link LazyPackageGroup}, as nothing would know when to install any other package lazily.
+     */
+    private static void validateLazyPackages(final SetupAndroidSdkExtension extension) {
+        final Set<String> unsupported = new TreeSet<>();
+        for (final String packagePath : extension.getLazyPackages()) {
+            if (!LazyPackageGroup.of(packagePath).isPresent()) {
+                unsupported.add(packagePath);
+            }
+        }
+        if (!unsupported.isEmpty()) {
+            throw new TaskInstantiationException("Unable to install " + String.join(", ", unsupported)
+                    + " lazily. Only the packages of these groups can be installed lazily: "
+                    + LazyPackageGroup.describeSupportedPackages() + ". Add other packages with packages instead.");
+        }
     }
 
     private static void createCleanTask(final Project project, final File localProperties) {
+        if (project.getTasks().getNames().contains("cleanLocalProperties")) {
+            // Created by an application of the plugin to another project of the build
+            return;
+        }
         final Task deleteTask = project.getTasks().create("cleanLocalProperties", Delete.class, task -> {
             task.delete(localProperties);
         });
@@ -218,22 +413,8 @@ public class SetupAndroidSdkPlugin implements Plugin<Project> {
         }
     }
 
-    private static String getSdkToolsUrl(final String sdkToolsVersion) {
-        final String platform;
-        if (Os.isFamily(Os.FAMILY_UNIX)) {
-            platform = "linux";
-        } else if (Os.isFamily(Os.FAMILY_WINDOWS)) {
-            platform = "win";
-        } else if (Os.isFamily(Os.FAMILY_MAC)) {
-            platform = "mac";
-        } else {
-            throw new TaskInstantiationException("Unsupported OS. File a bug report to get it added");
-        }
-
-        return String.format(SDK_TOOLS_URL_FORMAT, platform, sdkToolsVersion);
-    }
-
-    private static Collection<String> getDefaultPackagesToInstall(final Project project) {
+    private static Collection<String> getDefaultPackagesToInstall(final Project project,
+                                                                  final Provider<PackageResolverService> resolver) {
         final BaseExtension android = project.getExtensions().findByType(BaseExtension.class);
         if (android == null) {
             project.getLogger().debug("Unable to find android extension for project " + project.getName() + ". Skipping...");
@@ -245,94 +426,6 @@ public class SetupAndroidSdkPlugin implements Plugin<Project> {
             throw new TaskInstantiationException("Android compile sdk version not set");
         }
 
-        final String buildToolsVersion = getBuildToolsVersion(android);
-
-        return Arrays.asList("platforms;" + compileSdkVersion, "build-tools;" + buildToolsVersion);
-    }
-
-    private static void installSdk(final Logger logger,
-                                   final File sdkRoot,
-                                   final File sdkManager,
-                                   final Collection<String> packages,
-                                   final boolean shouldAutoAcceptLicenses) {
-        final List<String> command = new ArrayList<>();
-        command.add(sdkManager.getAbsolutePath());
-        command.add("--sdk_root=" + sdkRoot.getAbsolutePath());
-        command.addAll(packages);
-        logger.debug("Installing SDK with command: " + command);
-        final ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        final int exitCode;
-        try {
-            final Process process = pb.start();
-            if (shouldAutoAcceptLicenses) {
-                try (final OutputStream os = process.getOutputStream()) {
-                    os.write('y');
-                }
-            } else {
-                process.getOutputStream().close();
-            }
-            write(process.getInputStream(), logger::debug);
-            exitCode = process.waitFor();
-        } catch (final IOException | InterruptedException e) {
-            throw new TaskInstantiationException("sdkmanager failed to run successfully", e);
-        }
-
-        if (exitCode != 0) {
-            throw new TaskInstantiationException("Unable to run sdkmanager successfully. Exit code: " + exitCode);
-        }
-    }
-
-    /**
-     * If the android extension does not specify a build tools version explicitly, then a default version as chosen by
-     * the plugin is used. If the build tools version added is lower than this default version, it considered
-     * unsupported and rather than failing the build, the plugin helpfully ignores what was specified, logs a warning,
-     * and instead uses the min version hardcoded in the plugin.
-     */
-    @SuppressFBWarnings(
-            value = "RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE",
-            justification = "Older versions of the plugin don't guarantee getBuildToolsVersion won't return null.")
-    private static String getBuildToolsVersion(final BaseExtension android) {
-        final String explicitVersion = android.getBuildToolsVersion();
-        final AndroidRevision minBuildToolsVersion = getMinBuildToolsRev();
-        final AndroidRevision determinedVersion;
-        if (explicitVersion == null) {
-            determinedVersion = minBuildToolsVersion;
-        } else {
-            final AndroidRevision explicitFullRevision = AndroidRevision.parseRevision(explicitVersion);
-            if (explicitFullRevision.compareTo(minBuildToolsVersion) < 0) {
-                determinedVersion = minBuildToolsVersion;
-            } else {
-                determinedVersion = explicitFullRevision;
-            }
-        }
-        return determinedVersion.toString().replace(' ', '-');
-    }
-
-    /**
-     * Determines the minimum build tools version from the plugin
-     * @return The minimum version.
-     * @throws TaskInstantiationException if unable to determine the version
-     */
-    private static AndroidRevision getMinBuildToolsRev() {
-        final Object o = Stream.of(
-                    getConstantViaReflection("com.android.builder.core.AndroidBuilder", "MIN_BUILD_TOOLS_REV", Object.class),
-                    getConstantViaReflection("com.android.builder.core.ToolsRevisionUtils", "MIN_BUILD_TOOLS_REV", Object.class))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .findFirst()
-                .orElseThrow(() -> new TaskInstantiationException("Unable to determine min build tools version"));
-        return AndroidRevision.parseRevision(o.toString());
-    }
-
-    /**
-     * Reads {@link is} as a stream of text and passes each line to the {@link consumer}.
-     * @param is The stream to read from
-     * @param consumer Called with each line from the input stream as it is read.
-     */
-    private static void write(final InputStream is, final Consumer<String> consumer) throws IOException {
-        try (final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            bufferedReader.lines().forEach(consumer);
-        }
+        return resolver.get().getDefaultPackages(compileSdkVersion, android.getBuildToolsVersion());
     }
 }
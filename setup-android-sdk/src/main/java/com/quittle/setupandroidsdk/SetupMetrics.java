@@ -0,0 +1,209 @@
+package com.quittle.setupandroidsdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the phases of setting up the SDK and counts the work they did, for the report written at the end of the
+ * build. Each phase is also emitted as a {@link SetupPhaseEvent} to Java Flight Recorder. Safe to use from multiple
+ * threads.
+ */
+final class SetupMetrics {
+    private static final int REPORT_FORMAT_VERSION = 1;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Instant start = Instant.now();
+    private final ConcurrentMap<String, PhaseTotals> phases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * The totals of every run of a phase
+     */
+    private static final class PhaseTotals {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * A single run of a phase, recorded once it is closed
+     */
+    final class Phase implements AutoCloseable {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final SetupPhaseEvent event = new SetupPhaseEvent();
+        private String detail;
+        private boolean cacheHit;
+        private long bytes;
+
+        private Phase(final String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        /**
+         * Describes what the phase worked on
+         * @param detail The description, e.g. the packages installed
+         * @return This phase
+         */
+        Phase setDetail(final String detail) {
+            this.detail = detail;
+            return this;
+        }
+
+        /**
+         * Marks whether the phase found its work already done, e.g. because the tools were already installed
+         * @param cacheHit {@code true} if the phase had nothing to do
+         * @return This phase
+         */
+        Phase setCacheHit(final boolean cacheHit) {
+            this.cacheHit = cacheHit;
+            return this;
+        }
+
+        /**
+         * Adds to the bytes the phase transferred
+         * @param count The number of bytes
+         * @return This phase
+         */
+        Phase addBytes(final long count) {
+            this.bytes += count;
+            return this;
+        }
+
+        /**
+         * Records the phase and emits its event.
+         */
+        @Override
+        public void close() {
+            final long elapsed = System.nanoTime() - startNanos;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.detail = detail;
+                event.cacheHit = cacheHit;
+                event.bytes = bytes;
+                event.commit();
+            }
+            final PhaseTotals totals = phases.computeIfAbsent(name, key -> new PhaseTotals());
+            totals.count.increment();
+            totals.nanos.add(elapsed);
+            totals.bytes.add(bytes);
+            if (cacheHit) {
+                totals.cacheHits.increment();
+            }
+        }
+    }
+
+    /**
+     * Starts timing a phase. Close it, typically with try-with-resources, once the phase is done.
+     * @param name The name of the phase, e.g. {@code downloadSdkTools}
+     * @return The running phase
+     */
+    Phase start(final String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Adds to a counter of the report, like the number of packages installed
+     * @param name The name of the counter
+     * @param delta How much to add
+     */
+    void count(final String name, final long delta) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(delta);
+    }
+
+    /**
+     * Adds the phases and counters of other metrics to these
+     * @param other The metrics to add, which are left as they are
+     */
+    void addAll(final SetupMetrics other) {
+        for (final Map.Entry<String, PhaseTotals> entry : other.phases.entrySet()) {
+            final PhaseTotals totals = phases.computeIfAbsent(entry.getKey(), key -> new PhaseTotals());
+            totals.count.add(entry.getValue().count.sum());
+            totals.nanos.add(entry.getValue().nanos.sum());
+            totals.cacheHits.add(entry.getValue().cacheHits.sum());
+            totals.bytes.add(entry.getValue().bytes.sum());
+        }
+        for (final Map.Entry<String, AtomicLong> entry : other.counters.entrySet()) {
+            count(entry.getKey(), entry.getValue().get());
+        }
+    }
+
+    /**
+     * Writes the report as a JSON object with the time the metrics started being recorded, every counter and the
+     * totals of every phase. The report is replaced atomically.
+     * @param reportFile Where to write the report
+     * @param sdkRoot The SDK root the metrics are for
+     * @throws IOException if the report could not be written
+     */
+    void writeReport(final File reportFile, final File sdkRoot) throws IOException {
+        final StringBuilder json = new StringBuilder(1024)
+                .append("{\n")
+                .append("  \"formatVersion\": ").append(REPORT_FORMAT_VERSION).append(",\n")
+                .append("  \"sdkRoot\": ").append(quote(sdkRoot.getAbsolutePath())).append(",\n")
+                .append("  \"startedAt\": ").append(quote(start.toString())).append(",\n")
+                .append("  \"counters\": {");
+        String separator = "\n";
+        for (final Map.Entry<String, AtomicLong> counter : new TreeMap<>(counters).entrySet()) {
+            json.append(separator).append("    ").append(quote(counter.getKey())).append(": ")
+                    .append(counter.getValue().get());
+            separator = ",\n";
+        }
+        json.append(counters.isEmpty() ? "},\n" : "\n  },\n").append("  \"phases\": {");
+        separator = "\n";
+        for (final Map.Entry<String, PhaseTotals> phase : new TreeMap<>(phases).entrySet()) {
+            final PhaseTotals totals = phase.getValue();
+            json.append(separator).append("    ").append(quote(phase.getKey())).append(": { ")
+                    .append("\"count\": ").append(totals.count.sum()).append(", ")
+                    .append("\"totalMillis\": ")
+                    .append(String.format(Locale.ROOT, "%.3f", totals.nanos.sum() / NANOS_PER_MILLI)).append(", ")
+                    .append("\"cacheHits\": ").append(totals.cacheHits.sum()).append(", ")
+                    .append("\"bytes\": ").append(totals.bytes.sum()).append(" }");
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "}\n" : "\n  }\n").append("}\n");
+
+        final File parent = reportFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        final File temp = new File(parent, reportFile.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(json.toString());
+            }
+            Files.move(temp.toPath(), reportFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
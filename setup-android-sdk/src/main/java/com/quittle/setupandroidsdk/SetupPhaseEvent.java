@@ -0,0 +1,36 @@
+package com.quittle.setupandroidsdk;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event covering one phase of setting up the SDK, like downloading the command line tools or
+ * running sdkmanager. Record a build with {@code -XX:StartFlightRecording} in {@code org.gradle.jvmargs} to see where
+ * its setup time goes.
+ */
+@Name("com.quittle.setupandroidsdk.SetupPhase")
+@Label("Android SDK Setup Phase")
+@Category({ "Gradle", "Setup Android SDK" })
+@Description("A phase of installing the Android SDK")
+@StackTrace(false)
+class SetupPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Detail")
+    @Description("What the phase worked on, e.g. the packages installed")
+    String detail;
+
+    @Label("Cache Hit")
+    @Description("Whether the phase found its work already done")
+    boolean cacheHit;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,256 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installs directories into the SDK root atomically. Everything is first written to a staging directory within
+ * {@code <sdk root>/.temp}, on the same file system as its destination, and then committed by writing a completion
+ * marker into it and renaming it into place. A build killed part way through an install therefore leaves either the
+ * old tree or the new one in the SDK root, never a mix of the two, and {@link #recover} finishes or discards whatever
+ * it left behind in the staging area. Downloads are kept in a stable location within the staging area instead, so
+ * a download interrupted by a killed build is resumed rather than started over by the next one.
+ */
+final class StagedInstall {
+    /**
+     * The name of the completion marker written into every committed directory
+     */
+    static final String MARKER_FILE = ".setup-android-sdk-install";
+
+    private static final String TEMP_DIRECTORY = ".temp";
+    private static final String DOWNLOADS_DIRECTORY = "downloads";
+    private static final String REPLACED_SUFFIX = ".replaced";
+    /** How long a partial download nothing resumed is kept, e.g. after the requested version changed */
+    private static final long ABANDONED_DOWNLOAD_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final String PATH_PROPERTY = "path";
+    private static final String VERSION_PROPERTY = "version";
+    private static final String CHECKSUM_PROPERTY = "checksum";
+
+    /**
+     * The completion marker of an installed directory.
+     */
+    static final class Marker {
+        private final String path;
+        private final String version;
+        private final String checksum;
+
+        /**
+         * Describes an installed directory
+         * @param path The sdkmanager package path of the directory
+         * @param version The version that was installed or {@code null}
+         * @param checksum A hash identifying the installed content or {@code null}
+         */
+        Marker(final String path, final String version, final String checksum) {
+            this.path = path;
+            this.version = version;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Gets where the directory is installed to
+         * @return The sdkmanager package path of the directory, relative to the SDK root.
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the version that was installed
+         * @return The version or {@code null} if none was recorded.
+         */
+        String getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets a hash identifying the installed content, typically the checksum of the archive it was extracted from
+         * @return The checksum or {@code null} if none was recorded.
+         */
+        String getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Gets the directory staging directories and downloads are kept in
+     * @param sdkRoot The root of the Android SDK
+     * @return The staging area, which may not exist yet.
+     */
+    static File getTempDirectory(final File sdkRoot) {
+        return new File(sdkRoot, TEMP_DIRECTORY);
+    }
+
+    /**
+     * Picks a new, unique location in the staging area
+     * @param sdkRoot The root of the Android SDK
+     * @return A location that does not exist yet. Add a suffix to it for files related to the same install.
+     */
+    static File newStagingLocation(final File sdkRoot) {
+        return new File(getTempDirectory(sdkRoot), UUID.randomUUID().toString());
+    }
+
+    /**
+     * Gets the stable location to download an archive to, which is where an interrupted download of it is resumed
+     * from. Only one build may download to a location at a time.
+     * @param sdkRoot The root of the Android SDK
+     * @param name The name of the file, unique to what is downloaded
+     * @return The location, whose parent directory may not exist yet.
+     */
+    static File getDownloadLocation(final File sdkRoot, final String name) {
+        return new File(new File(getTempDirectory(sdkRoot), DOWNLOADS_DIRECTORY), name);
+    }
+
+    /**
+     * Atomically replaces a directory in the SDK root with a fully populated staging directory.
+     * @param staged The staging directory, which must be on the same file system as the destination
+     * @param sdkRoot The root of the Android SDK
+     * @param path The sdkmanager package path to install to, e.g. {@code build-tools;30.0.3}
+     * @param version The version being installed or {@code null}
+     * @param checksum A hash identifying the content being installed or {@code null}
+     * @throws IOException if the directory could not be committed
+     */
+    static void commit(final File staged,
+                       final File sdkRoot,
+                       final String path,
+                       final String version,
+                       final String checksum) throws IOException {
+        writeMarker(staged, new Marker(path, version, checksum));
+
+        final File destination = Utils.getPackageDirectory(sdkRoot, path);
+        Files.createDirectories(destination.getParentFile().toPath());
+        // Move the old tree aside first as a directory can only be renamed over an empty one
+        final File replaced = new File(getTempDirectory(sdkRoot), UUID.randomUUID() + REPLACED_SUFFIX);
+        final boolean hadPrevious = destination.exists();
+        if (hadPrevious) {
+            Files.createDirectories(replaced.getParentFile().toPath());
+            Files.move(destination.toPath(), replaced.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(staged.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (hadPrevious) {
+            FileUtils.deleteDirectory(replaced);
+        }
+    }
+
+    /**
+     * Reads the completion marker of an installed directory
+     * @param directory The directory to check
+     * @return The marker or empty if the directory was not installed by {@link #commit}.
+     */
+    static Optional<Marker> readMarker(final File directory) {
+        final File markerFile = new File(directory, MARKER_FILE);
+        if (!markerFile.isFile()) {
+            return Optional.empty();
+        }
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(markerFile.toPath())) {
+            properties.load(is);
+        } catch (final IOException e) {
+            return Optional.empty();
+        }
+        final String path = properties.getProperty(PATH_PROPERTY);
+        if (path == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new Marker(path,
+                properties.getProperty(VERSION_PROPERTY), properties.getProperty(CHECKSUM_PROPERTY)));
+    }
+
+    /**
+     * Cleans up after installs interrupted by a previous build. Staging directories that were completely populated,
+     * and so carry a completion marker, are committed unless their destination already holds the same content.
+     * Everything else in the staging area, like partial extractions, is discarded. Partial downloads are kept to be
+     * resumed unless nothing touched them for a week. Must only be called while no other build is installing into the
+     * SDK root.
+     * @param sdkRoot The root of the Android SDK
+     * @param logger Informed of what is resumed
+     * @return {@code true} if anything was committed into the SDK root.
+     * @throws IOException if the staging area could not be cleaned up
+     */
+    static boolean recover(final File sdkRoot, final Logger logger) throws IOException {
+        final File[] leftovers = getTempDirectory(sdkRoot).listFiles();
+        if (leftovers == null) {
+            return false;
+        }
+        boolean committed = false;
+        for (final File leftover : leftovers) {
+            if (leftover.getName().equals(DOWNLOADS_DIRECTORY) && leftover.isDirectory()) {
+                deleteAbandonedDownloads(leftover);
+                continue;
+            }
+            final Optional<File> staged = leftover.getName().endsWith(REPLACED_SUFFIX)
+                    ? Optional.empty()
+                    : findStaged(leftover);
+            if (staged.isPresent()) {
+                final Marker marker = readMarker(staged.get()).get();
+                final Optional<Marker> installed =
+                        readMarker(Utils.getPackageDirectory(sdkRoot, marker.getPath()));
+                if (!installed.isPresent()
+                        || !Objects.equals(installed.get().getChecksum(), marker.getChecksum())) {
+                    logger.lifecycle("Resuming the interrupted installation of " + marker.getPath());
+                    commit(staged.get(), sdkRoot, marker.getPath(), marker.getVersion(), marker.getChecksum());
+                    committed = true;
+                }
+            }
+            FileUtils.forceDelete(leftover);
+        }
+        return committed;
+    }
+
+    private static void deleteAbandonedDownloads(final File downloads) throws IOException {
+        final File[] files = downloads.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long cutoff = System.currentTimeMillis() - ABANDONED_DOWNLOAD_MILLIS;
+        for (final File file : files) {
+            if (file.lastModified() < cutoff) {
+                FileUtils.forceDelete(file);
+            }
+        }
+    }
+
+    /**
+     * Finds a completely populated staging directory, which may be nested one level deep when an archive was
+     * extracted into it.
+     */
+    private static Optional<File> findStaged(final File leftover) {
+        if (!leftover.isDirectory()) {
+            return Optional.empty();
+        } else if (readMarker(leftover).isPresent()) {
+            return Optional.of(leftover);
+        }
+        final File[] children = leftover.listFiles(child -> readMarker(child).isPresent());
+        return children == null || children.length != 1 ? Optional.empty() : Optional.of(children[0]);
+    }
+
+    private static void writeMarker(final File directory, final Marker marker) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(PATH_PROPERTY, marker.path);
+        if (marker.version != null) {
+            properties.setProperty(VERSION_PROPERTY, marker.version);
+        }
+        if (marker.checksum != null) {
+            properties.setProperty(CHECKSUM_PROPERTY, marker.checksum);
+        }
+        // The marker may be a hardlink into the shared cache, which must not be modified in place
+        final File markerFile = new File(directory, MARKER_FILE);
+        Files.deleteIfExists(markerFile.toPath());
+        try (final OutputStream os = Files.newOutputStream(markerFile.toPath())) {
+            properties.store(os, null);
+        }
+    }
+
+    private StagedInstall() {}
+}
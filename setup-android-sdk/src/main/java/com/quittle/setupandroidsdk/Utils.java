@@ -1,7 +1,18 @@
 package com.quittle.setupandroidsdk;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Contains utility methods
@@ -45,5 +56,79 @@ final class Utils {
         return null;
     }
 
+    /**
+     * Encodes bytes, such as a digest, as a hex string
+     * @param bytes The bytes to encode
+     * @return A lowercase hex string with two characters per byte.
+     */
+    static String toHexString(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the directory a package is installed to in the SDK root
+     * @param sdkRoot The root of the Android SDK
+     * @param packagePath The sdkmanager package path, e.g. {@code build-tools;28.0.3}
+     * @return The directory the package lives in, e.g. {@code <sdkRoot>/build-tools/28.0.3}.
+     */
+    static File getPackageDirectory(final File sdkRoot, final String packagePath) {
+        return new File(sdkRoot, packagePath.replace(';', File.separatorChar));
+    }
+
+    /**
+     * Recreates a directory tree by hardlinking each file from the source into the destination. Symbolic links are
+     * recreated as-is. If a file cannot be hardlinked, for instance because the destination is on another file
+     * system, it is copied instead.
+     * @param source The directory to mirror
+     * @param destination The directory to create. Must not exist yet.
+     * @throws IOException if the tree could not be recreated
+     */
+    static void linkOrCopyTree(final Path source, final Path destination) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                    throws IOException {
+                Files.createDirectories(destination.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                final Path target = destination.resolve(source.relativize(file));
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+                    return FileVisitResult.CONTINUE;
+                }
+                try {
+                    Files.createLink(target, file);
+                } catch (final FileAlreadyExistsException e) {
+                    throw e;
+                } catch (final IOException | UnsupportedOperationException e) {
+                    Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Creates a factory for the worker threads of the plugin's thread pools. The threads are daemons so a pool that
+     * isn't shut down never keeps the Gradle daemon from exiting.
+     * @param namePrefix The prefix of the threads' names, followed by a counter
+     * @return A new thread factory
+     */
+    static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     private Utils() {}
 }
@@ -0,0 +1,356 @@
+package com.quittle.setupandroidsdk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts SDK archives. Unlike {@link java.util.zip.ZipInputStream}, this preserves the unix file modes and
+ * symbolic links stored in the archive, which the SDK's tools and scripts rely on. Symbolic links are only created
+ * once every other entry has been extracted, and only if they stay within the destination, so no entry can be
+ * written through one to outside of it.
+ */
+final class ZipExtractor {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int UNIX_HOST = 3;
+
+    private static final int FILE_TYPE_MASK = 0170000;
+    private static final int SYMBOLIC_LINK_TYPE = 0120000;
+
+    /**
+     * Shared by all extractions so concurrent package installations don't oversubscribe the cores
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Extracts every entry of an archive. Directories are created up front and then the files are decompressed
+     * concurrently, each on its own worker of a pool sized to the number of cores.
+     * @param zip The archive to extract
+     * @param destination The directory to extract into
+     * @return The total uncompressed size of the extracted files in bytes.
+     * @throws IOException if the archive could not be read or an entry, or the target of a symbolic link, would be
+     *                     outside of the destination
+     */
+    static long extract(final File zip, final File destination) throws IOException {
+        final Path root = destination.toPath().toAbsolutePath().normalize();
+        final Map<String, Integer> modes = readUnixModes(zip);
+        final boolean posix = Files.createDirectories(root).getFileSystem()
+                .supportedFileAttributeViews().contains("posix");
+
+        try (final ZipFile zipFile = new ZipFile(zip)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            final Map<ZipEntry, Path> links = new LinkedHashMap<>();
+            IOException failure = null;
+            long bytes = 0;
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final Path target = root.resolve(entry.getName()).normalize();
+                if (!target.startsWith(root)) {
+                    failure = new IOException("Archive entry " + entry.getName() + " is outside of the destination");
+                    break;
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+
+                Files.createDirectories(target.getParent());
+                final int mode = modes.getOrDefault(entry.getName(), 0);
+                bytes += Math.max(0, entry.getSize());
+                if ((mode & FILE_TYPE_MASK) == SYMBOLIC_LINK_TYPE) {
+                    links.put(entry, target);
+                    continue;
+                }
+                futures.add(POOL.submit(() -> {
+                    extractEntry(zipFile, entry, target, mode, posix);
+                    return null;
+                }));
+            }
+
+            // Every submitted entry is waited for, even after a failure, so the archive is never closed while
+            // entries are still being extracted from it
+            final IOException extractionFailure = awaitAll(futures, zip);
+            if (failure != null) {
+                throw failure;
+            } else if (extractionFailure != null) {
+                throw extractionFailure;
+            }
+            extractLinks(zipFile, links, root);
+            return bytes;
+        }
+    }
+
+    private static void extractEntry(final ZipFile zipFile,
+                                     final ZipEntry entry,
+                                     final Path target,
+                                     final int mode,
+                                     final boolean posix) throws IOException {
+        try (final InputStream is = zipFile.getInputStream(entry)) {
+            try (final ReadableByteChannel source = Channels.newChannel(is);
+                    final FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.transferFrom(source, 0, Long.MAX_VALUE);
+            }
+        }
+        if (posix && mode != 0) {
+            Files.setPosixFilePermissions(target, toPermissions(mode));
+        }
+    }
+
+    /**
+     * Creates the symbolic links, one at a time so links nested in the directories of earlier ones are checked against
+     * where those actually lead. Absolute targets and targets outside of the destination are rejected, both as written
+     * and once every link exists, as a link can lead elsewhere through another.
+     */
+    private static void extractLinks(final ZipFile zipFile, final Map<ZipEntry, Path> links, final Path root)
+            throws IOException {
+        if (links.isEmpty()) {
+            return;
+        }
+        final Path realRoot = root.toRealPath();
+        for (final Map.Entry<ZipEntry, Path> link : links.entrySet()) {
+            final String linkTarget;
+            try (final InputStream is = zipFile.getInputStream(link.getKey())) {
+                linkTarget = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            final Path target = link.getValue();
+            final Path realParent = target.getParent().toRealPath();
+            final Path linkTargetPath = Paths.get(linkTarget);
+            if (linkTargetPath.isAbsolute() || !realParent.startsWith(realRoot)
+                    || !realParent.resolve(linkTargetPath).normalize().startsWith(realRoot)) {
+                throw new IOException("Archive entry " + link.getKey().getName() + " links to " + linkTarget
+                        + ", which is outside of the destination");
+            }
+            Files.deleteIfExists(target);
+            Files.createSymbolicLink(target, linkTargetPath);
+        }
+        for (final Map.Entry<ZipEntry, Path> link : links.entrySet()) {
+            final Path target = link.getValue();
+            if (Files.exists(target) && !target.toRealPath().startsWith(realRoot)) {
+                Files.delete(target);
+                throw new IOException("Archive entry " + link.getKey().getName()
+                        + " links to outside of the destination");
+            }
+        }
+    }
+
+    /**
+     * Waits for all the entries to be extracted
+     * @return The first failure or {@code null} if every entry was extracted.
+     */
+    private static IOException awaitAll(final List<Future<?>> futures, final File zip) {
+        IOException failure = null;
+        boolean interrupted = false;
+        for (final Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Unable to extract " + zip, e.getCause());
+                    }
+                    break;
+                } catch (final InterruptedException e) {
+                    // Keep waiting as the workers are still using the archive but remember to restore the flag
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failure;
+    }
+
+    private static Set<PosixFilePermission> toPermissions(final int mode) {
+        final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        // PosixFilePermission is declared from owner read (0400) down to others execute (0001)
+        final PosixFilePermission[] values = PosixFilePermission.values();
+        for (int i = 0; i < values.length; i++) {
+            if ((mode & (1 << (values.length - 1 - i))) != 0) {
+                permissions.add(values[i]);
+            }
+        }
+        // Never make a file unreadable or unwritable by its owner
+        permissions.add(PosixFilePermission.OWNER_READ);
+        permissions.add(PosixFilePermission.OWNER_WRITE);
+        return permissions;
+    }
+
+    /**
+     * Reads the unix modes of the archive's entries from its central directory, which {@link ZipEntry} doesn't
+     * expose.
+     * @return The modes by entry name. Entries not created on a unix host are absent.
+     */
+    private static Map<String, Integer> readUnixModes(final File zip) throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(zip, "r")) {
+            final Map<String, Integer> modes = new HashMap<>();
+            visitCentralDirectory(file, (directory, position, name) -> {
+                final int madeBy = Short.toUnsignedInt(directory.getShort(position + 4)) >> 8;
+                if (madeBy == UNIX_HOST) {
+                    modes.put(name, directory.getInt(position + 38) >>> 16);
+                }
+            });
+            return modes;
+        }
+    }
+
+    /**
+     * Records unix modes in the central directory of an archive, such as one written by
+     * {@link java.util.zip.ZipOutputStream}, which can't store them itself, so {@link #extract} restores them.
+     * @param zip The archive to update in place
+     * @param modes The modes, including the file type bits, by entry name. Other entries are left alone.
+     * @throws IOException if the archive could not be updated
+     */
+    static void writeUnixModes(final File zip, final Map<String, Integer> modes) throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(zip, "rw")) {
+            final long directoryOffset = visitCentralDirectory(file, (directory, position, name) -> {
+                final Integer mode = modes.get(name);
+                if (mode != null) {
+                    final int version = Short.toUnsignedInt(directory.getShort(position + 4)) & 0xFF;
+                    directory.putShort(position + 4, (short) (UNIX_HOST << 8 | version));
+                    final int dosAttributes = directory.getInt(position + 38) & 0xFFFF;
+                    directory.putInt(position + 38, mode << 16 | dosAttributes);
+                }
+            });
+            if (directoryOffset < 0) {
+                throw new IOException("Unable to read the central directory of " + zip);
+            }
+        }
+    }
+
+    /**
+     * Visits a central directory entry
+     */
+    @FunctionalInterface
+    private interface CentralDirectoryVisitor {
+        /**
+         * Called for each entry
+         * @param directory The whole central directory, which may be modified
+         * @param position Where the entry's header starts in the directory
+         * @param name The name of the entry
+         */
+        void visit(ByteBuffer directory, int position, String name);
+    }
+
+    /**
+     * Reads the central directory of an archive and visits each entry. If the visitor modified the directory and the
+     * file is writable, the directory is written back.
+     * @return The offset of the central directory or -1 if it couldn't be found.
+     */
+    private static long visitCentralDirectory(final RandomAccessFile file, final CentralDirectoryVisitor visitor)
+            throws IOException {
+        final long length = file.length();
+        final int tailSize = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        final ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        file.seek(length - tailSize);
+        file.readFully(tail.array());
+
+        int end = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return -1;
+        }
+        long entryCount = Short.toUnsignedInt(tail.getShort(end + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+        // Archives with too many entries, or too large, for those fields record the real values in a zip64 end of
+        // central directory record, found through a locator just before the end of central directory record
+        final long locatorOffset = length - tailSize + end - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+        if (locatorOffset >= 0) {
+            final ByteBuffer locator = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            file.seek(locatorOffset);
+            file.readFully(locator.array());
+            if (locator.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                final long recordOffset = locator.getLong(8);
+                if (recordOffset < 0 || recordOffset + ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE > locatorOffset) {
+                    return -1;
+                }
+                final ByteBuffer record = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                file.seek(recordOffset);
+                file.readFully(record.array());
+                if (record.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    return -1;
+                }
+                entryCount = record.getLong(32);
+                directorySize = record.getLong(40);
+                directoryOffset = record.getLong(48);
+            }
+        }
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > length
+                || directorySize > Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        final ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        file.seek(directoryOffset);
+        file.readFully(directory.array());
+        final ByteBuffer original = ByteBuffer.wrap(directory.array().clone());
+
+        int position = 0;
+        for (long i = 0; i < entryCount && position + CENTRAL_DIRECTORY_HEADER_SIZE <= directorySize; i++) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                break;
+            }
+            final int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            final int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            final int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            final String name = new String(directory.array(), position + CENTRAL_DIRECTORY_HEADER_SIZE,
+                    nameLength, StandardCharsets.UTF_8);
+            visitor.visit(directory, position, name);
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        if (!original.equals(ByteBuffer.wrap(directory.array()))) {
+            file.seek(directoryOffset);
+            file.write(directory.array());
+        }
+        return directoryOffset;
+    }
+
+    private ZipExtractor() {}
+}
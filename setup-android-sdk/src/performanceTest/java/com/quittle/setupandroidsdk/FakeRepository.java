@@ -0,0 +1,134 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Stands in for Google's repository in performance tests. A manifest listing a few packages, small fake archives for
+ * them and fake command line tools are generated into a directory, which is served over HTTP with the
+ * {@link CacheServer} the plugin uses to serve mirrors, so builds under test install without reaching the internet.
+ */
+final class FakeRepository implements Closeable {
+    /**
+     * The packages listed in the manifest
+     */
+    static final List<String> PACKAGES = Collections.unmodifiableList(Arrays.asList(
+            "build-tools;30.0.3", "platform-tools", "platforms;android-30", "sources;android-30"));
+
+    /**
+     * The version of the fake command line tools
+     */
+    static final String SDK_TOOLS_VERSION = "1_fake";
+
+    private static final String LICENSE_ID = "android-sdk-license";
+    private static final int FILES_PER_PACKAGE = 500;
+    private static final int FILE_SIZE = 2048;
+
+    private final CacheServer server;
+
+    /**
+     * Generates the repository and starts serving it
+     * @param directory Where to generate the repository
+     * @throws IOException if the repository could not be generated or served
+     */
+    FakeRepository(final File directory) throws IOException {
+        final StringBuilder manifest = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+                .append("<sdk:sdk-repository xmlns:sdk=\"http://schemas.android.com/sdk/android/repo/repository2/01\" ")
+                .append("xmlns:generic=\"http://schemas.android.com/repository/android/generic/01\" ")
+                .append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n")
+                .append("    <license id=\"").append(LICENSE_ID).append("\" type=\"text\">Fake license</license>\n")
+                .append("    <channel id=\"channel-0\">stable</channel>\n");
+
+        final String sdkToolsFileName = "commandlinetools-" + SdkInstallerService.getSdkToolsPlatform() + "-"
+                + SDK_TOOLS_VERSION + ".zip";
+        final File sdkTools = new File(directory, sdkToolsFileName);
+        writeZip(sdkTools, "cmdline-tools", 1, 0);
+        appendPackage(manifest, "cmdline-tools;latest", sdkTools);
+
+        long seed = 0;
+        for (final String packagePath : PACKAGES) {
+            final File archive = new File(directory, packagePath.replace(';', '-') + ".zip");
+            writeZip(archive, "package", FILES_PER_PACKAGE, seed++);
+            appendPackage(manifest, packagePath, archive);
+        }
+        manifest.append("</sdk:sdk-repository>\n");
+        Files.write(new File(directory, "repository2-1.xml").toPath(),
+                manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+        server = new CacheServer(directory.toPath(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16,
+                Logging.getLogger(FakeRepository.class));
+    }
+
+    /**
+     * Gets the URL builds under test should install from
+     * @return The base URL of the repository
+     */
+    String getUrl() {
+        return "http://localhost:" + server.getPort() + "/";
+    }
+
+    /**
+     * Stops serving the repository
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Writes an archive holding a single top-level directory, as Google's archives do, with files of random contents
+     * spread across subdirectories. Command line tools archives get a placeholder sdkmanager, which is never run as
+     * the builds under test use the built-in installer.
+     */
+    private static void writeZip(final File zip, final String root, final int files, final long seed)
+            throws IOException {
+        final Random random = new Random(seed);
+        final byte[] contents = new byte[FILE_SIZE];
+        try (final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+            if ("cmdline-tools".equals(root)) {
+                zos.putNextEntry(new ZipEntry(root + "/bin/sdkmanager"));
+                zos.write("#!/bin/sh\necho 'sdkmanager is a placeholder' >&2\nexit 1\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+            for (int i = 0; i < files; i++) {
+                random.nextBytes(contents);
+                zos.putNextEntry(new ZipEntry(root + "/dir" + i % 20 + "/file" + i + ".bin"));
+                zos.write(contents);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    private static void appendPackage(final StringBuilder manifest, final String packagePath, final File archive)
+            throws IOException {
+        manifest.append("    <remotePackage path=\"").append(packagePath).append("\">\n")
+                .append("        <type-details xsi:type=\"generic:genericDetailsType\"/>\n")
+                .append("        <revision><major>1</major></revision>\n")
+                .append("        <display-name>").append(packagePath).append("</display-name>\n")
+                .append("        <uses-license ref=\"").append(LICENSE_ID).append("\"/>\n")
+                .append("        <channelRef ref=\"channel-0\"/>\n")
+                .append("        <archives><archive><complete>\n")
+                .append("            <size>").append(archive.length()).append("</size>\n")
+                .append("            <checksum type=\"sha1\">").append(Downloader.hash(archive, "SHA-1"))
+                .append("</checksum>\n")
+                .append("            <url>").append(archive.getName()).append("</url>\n")
+                .append("        </complete></archive></archives>\n")
+                .append("    </remotePackage>\n");
+    }
+}
@@ -0,0 +1,108 @@
+package com.quittle.setupandroidsdk;
+
+import org.junit.jupiter.api.TestReporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The stored upper bounds of how long each performance scenario may take. A scenario regresses when the median of its
+ * samples exceeds its baseline multiplied by the tolerance, which absorbs the noise of timing whole builds. When the
+ * {@value #RECORD_PROPERTY} system property is {@code true}, the medians are written to the baselines file named by
+ * the {@value #FILE_PROPERTY} system property instead of being checked. Scenarios without a recorded baseline are
+ * timed and reported, then skipped rather than checked against a guess.
+ */
+final class PerformanceBaselines {
+    private static final String RESOURCE = "/performance-baselines.properties";
+    private static final String RECORD_PROPERTY = "setupAndroidSdk.performance.recordBaselines";
+    private static final String FILE_PROPERTY = "setupAndroidSdk.performance.baselinesFile";
+    private static final String TOLERANCE = "tolerance";
+
+    private final Properties baselines;
+    private final double tolerance;
+
+    private PerformanceBaselines(final Properties baselines) {
+        this.baselines = baselines;
+        this.tolerance = Double.parseDouble(baselines.getProperty(TOLERANCE, "1"));
+    }
+
+    /**
+     * Reads the baselines from the classpath
+     * @return The baselines
+     * @throws IOException if the baselines could not be read
+     */
+    static PerformanceBaselines load() throws IOException {
+        final Properties properties = new Properties();
+        try (final InputStream is = PerformanceBaselines.class.getResourceAsStream(RESOURCE)) {
+            if (is == null) {
+                throw new IOException(RESOURCE + " is missing from the classpath");
+            }
+            properties.load(is);
+        }
+        return new PerformanceBaselines(properties);
+    }
+
+    /**
+     * Checks the samples of a scenario against its baseline or records them as the new baseline
+     * @param scenario The name of the scenario, which is its key in the baselines file
+     * @param samplesMillis How long each run of the scenario took, in milliseconds
+     * @param reporter Where the timings are published, so they show up in the test reports
+     * @throws IOException if recording was requested but the baselines file could not be updated
+     */
+    void check(final String scenario, final List<Long> samplesMillis, final TestReporter reporter)
+            throws IOException {
+        final List<Long> sorted = new ArrayList<>(samplesMillis);
+        Collections.sort(sorted);
+        final long median = sorted.get(sorted.size() / 2);
+
+        if (Boolean.getBoolean(RECORD_PROPERTY)) {
+            record(scenario, median);
+            reporter.publishEntry(scenario, "recorded a baseline of " + median + " ms from " + samplesMillis);
+            return;
+        }
+
+        final String baseline = baselines.getProperty(scenario);
+        if (baseline == null) {
+            reporter.publishEntry(scenario, "median of " + median + " ms from " + samplesMillis + ", no baseline");
+        }
+        assumeTrue(baseline != null, "No baseline for " + scenario + " has been recorded in " + RESOURCE);
+        final long limit = Math.round(Long.parseLong(baseline) * tolerance);
+        reporter.publishEntry(scenario,
+                "median of " + median + " ms from " + samplesMillis + ", limit " + limit + " ms");
+        assertTrue(median <= limit, scenario + " regressed. Its median of " + median + " ms from " + samplesMillis
+                + " exceeds its baseline of " + baseline + " ms by more than the tolerance of " + tolerance);
+    }
+
+    /**
+     * Replaces the line holding the baseline of the scenario, keeping the rest of the file, including its comments,
+     * as it is.
+     */
+    private static synchronized void record(final String scenario, final long median) throws IOException {
+        final String path = System.getProperty(FILE_PROPERTY);
+        assertNotNull(path, FILE_PROPERTY + " must name the baselines file to record to");
+        final File file = new File(path);
+        final List<String> lines = new ArrayList<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        final String entry = scenario + "=" + median;
+        boolean replaced = false;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(scenario + "=")) {
+                lines.set(i, entry);
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            lines.add(entry);
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,142 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.testkit.runner.GradleRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Times builds applying the plugin with Gradle TestKit, installing from a {@link FakeRepository}, and fails if they
+ * take longer than their {@link PerformanceBaselines baselines}. Every build runs the {@code help} task, so the time
+ * is spent configuring, which is when the plugin installs the SDK.
+ */
+class SetupPerformanceTest {
+    private static final int SUBPROJECTS = 50;
+    private static final int COLD_ITERATIONS = 3;
+    private static final int WARM_ITERATIONS = 5;
+
+    @TempDir
+    static File tempDir;
+
+    private static FakeRepository repository;
+    private static PerformanceBaselines baselines;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        repository = new FakeRepository(new File(tempDir, "repository"));
+        baselines = PerformanceBaselines.load();
+        // Starts the TestKit daemon and loads the plugin so the first measured build doesn't pay for it
+        time(writeProject("warm-up", 0));
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        repository.close();
+    }
+
+    /**
+     * Installs the command line tools and every package into an empty SDK root
+     */
+    @Test
+    void testColdInstall(final TestReporter reporter) throws IOException {
+        final List<Long> samples = new ArrayList<>();
+        for (int i = 0; i < COLD_ITERATIONS; i++) {
+            final File project = writeProject("cold-" + i, 0);
+            samples.add(time(project));
+            for (final String packagePath : FakeRepository.PACKAGES) {
+                assertTrue(new File(project, "build/android-sdk-root/" + packagePath.replace(';', '/')).isDirectory(),
+                        packagePath + " was not installed");
+            }
+        }
+        baselines.check("coldInstall", samples, reporter);
+    }
+
+    /**
+     * Builds again once everything is installed, when the plugin should find nothing to do
+     */
+    @Test
+    void testWarmNoOp(final TestReporter reporter) throws IOException {
+        final File project = writeProject("warm", 0);
+        time(project);
+        baselines.check("warmNoOp", timeRepeatedly(project), reporter);
+    }
+
+    /**
+     * Configures a build with many projects, each of which has its packages checked, once everything is installed
+     */
+    @Test
+    void testMultiProjectConfiguration(final TestReporter reporter) throws IOException {
+        final File project = writeProject("multi-project", SUBPROJECTS);
+        time(project);
+        baselines.check("multiProjectConfiguration", timeRepeatedly(project), reporter);
+    }
+
+    private static List<Long> timeRepeatedly(final File project) {
+        final List<Long> samples = new ArrayList<>();
+        for (int i = 0; i < WARM_ITERATIONS; i++) {
+            samples.add(time(project));
+        }
+        return samples;
+    }
+
+    /**
+     * Runs a build, which fails the test if the build fails
+     * @return How long the build took, in milliseconds.
+     */
+    private static long time(final File project) {
+        final GradleRunner runner = GradleRunner.create()
+                .withProjectDir(project)
+                .withPluginClasspath()
+                .withArguments("help", "--stacktrace");
+        final long start = System.nanoTime();
+        runner.build();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a build applying the plugin to its root project, which installs every package of the fake repository
+     * with the built-in installer
+     */
+    private static File writeProject(final String name, final int subprojects) throws IOException {
+        final File project = new File(tempDir, name);
+        final List<String> includes = new ArrayList<>();
+        for (int i = 0; i < subprojects; i++) {
+            final File subproject = new File(project, "subproject" + i);
+            write(new File(subproject, "build.gradle"), "");
+            includes.add("'subproject" + i + "'");
+        }
+        write(new File(project, "settings.gradle"), "rootProject.name = '" + name + "'\n"
+                + (includes.isEmpty() ? "" : "include " + String.join(", ", includes) + "\n"));
+        write(new File(project, "build.gradle"), "plugins {\n"
+                + "    id 'com.quittle.setup-android-sdk'\n"
+                + "}\n"
+                + "\n"
+                + "setupAndroidSdk {\n"
+                + "    sdkToolsVersion '" + FakeRepository.SDK_TOOLS_VERSION + "'\n"
+                + "    repositoryUrl '" + repository.getUrl() + "'\n"
+                + "    useBuiltInInstaller true\n"
+                + "    packages " + FakeRepository.PACKAGES.stream()
+                        .map(packagePath -> "'" + packagePath + "'")
+                        .collect(Collectors.joining(", ")) + "\n"
+                + "}\n");
+        return project;
+    }
+
+    private static void write(final File file, final String contents) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,112 @@
+package com.quittle.setupandroidsdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AndroidRevisionTest {
+    /**
+     * The pattern the parser was originally implemented with, which the hand-written parser must agree with
+     */
+    private static final Pattern FULL_REVISION_PATTERN =
+            Pattern.compile("\\s*([0-9]+)(?:\\.([0-9]+)(?:\\.([0-9]+))?)?([\\s-]*)?(?:rc([0-9]+))?\\s*");
+
+    private static final List<String> REVISIONS = Arrays.asList(
+            "1", "30", "30.0", "30.0.3", "007.08.09", " 1.2.3 ", "\t1.2\n", "1.2.3 rc4", "1.2.3-rc4", "1.2.3rc4",
+            "1.2.3 - rc4", "1rc2", "1.2rc3", "1.2.3 rc4 ", "1.2-", "1.2 ", "1.2.3-", "2147483647", "2147483648",
+            "1.99999999999", "1.2.3 rc2147483648", "", " ", "-", "rc1", "1.", "1..2", "1.2.", "1.2.3.4", "1.2.3 rc",
+            "1.2.3 rcx", "1.2.3 rc1.2", "1 2", "a", "1a", "1.2.3 beta1", "+1", "-1", "1.2.3\u00A0", "\u0661",
+            "1.2.3 rc4 5", "1.-2", "1.2.3\u000Brc4", "1.2.3 rc99999999999", "1.2 rc99999999999");
+
+    @Test
+    void testMatchesPattern() {
+        for (final String revision : REVISIONS) {
+            for (final boolean supportMinorMicro : new boolean[] { true, false }) {
+                for (final boolean supportPreview : new boolean[] { true, false }) {
+                    final String expected = parseWithPattern(revision, supportMinorMicro, supportPreview);
+                    String actual;
+                    try {
+                        final AndroidRevision parsed =
+                                AndroidRevision.parseRevisionImpl(revision, supportMinorMicro, supportPreview);
+                        actual = describe(parsed.getMajor(), parsed.getMinor(), parsed.getMicro(),
+                                parsed.getPreview(), parsed.toString());
+                    } catch (final NumberFormatException e) {
+                        actual = e.getMessage();
+                    }
+                    assertEquals(expected, actual,
+                            "'" + revision + "' " + supportMinorMicro + " " + supportPreview);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testInterning() {
+        final AndroidRevision revision = AndroidRevision.parseRevision("30.0.3");
+        assertSame(revision, AndroidRevision.parseRevision(new String("30.0.3".toCharArray())));
+        assertEquals(revision, AndroidRevision.parseRevision(" 30.0.3"));
+        assertEquals("30.0.3 rc1", AndroidRevision.parseRevision("30.0.3 rc1").toString());
+        assertEquals("30.0.3-rc1", AndroidRevision.parseRevision("30.0.3-rc1").toString());
+        assertThrows(NumberFormatException.class, () -> AndroidRevision.parseRevision("30.0.3 beta"));
+        assertThrows(NumberFormatException.class, () -> AndroidRevision.parseRevision(null));
+    }
+
+    private static String parseWithPattern(final String revision,
+                                           final boolean supportMinorMicro,
+                                           final boolean supportPreview) {
+        final Matcher m = FULL_REVISION_PATTERN.matcher(revision);
+        if (!m.matches()) {
+            return "Invalid revision: " + revision;
+        }
+        String error = "";
+        try {
+            final int major = Integer.parseInt(m.group(1));
+            int minor = AndroidRevision.IMPLICIT_MINOR_REV;
+            int micro = AndroidRevision.IMPLICIT_MICRO_REV;
+            int preview = AndroidRevision.NOT_A_PREVIEW;
+            String separator = " ";
+            if (m.group(2) != null) {
+                if (supportMinorMicro) {
+                    minor = Integer.parseInt(m.group(2));
+                } else {
+                    error = " -- Minor number not supported";
+                }
+            }
+            if (m.group(3) != null) {
+                if (supportMinorMicro) {
+                    micro = Integer.parseInt(m.group(3));
+                } else {
+                    error = " -- Micro number not supported";
+                }
+            }
+            if (m.group(5) != null) {
+                if (supportPreview) {
+                    preview = Integer.parseInt(m.group(5));
+                    separator = m.group(4);
+                } else {
+                    error = " -- Preview number not supported";
+                }
+            }
+            if (!error.isEmpty()) {
+                return "Invalid revision: " + revision + error;
+            }
+            return describe(major, minor, micro, preview,
+                    new AndroidRevision(major, minor, micro, preview, separator).toString());
+        } catch (final NumberFormatException e) {
+            return "Invalid revision: " + revision + error;
+        }
+    }
+
+    private static String describe(final int major,
+                                   final int minor,
+                                   final int micro,
+                                   final int preview,
+                                   final String string) {
+        return major + "/" + minor + "/" + micro + "/" + preview + "/" + string;
+    }
+}
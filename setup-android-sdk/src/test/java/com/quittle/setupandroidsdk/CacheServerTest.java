@@ -0,0 +1,104 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheServerTest {
+    @TempDir
+    File tempDir;
+
+    private File mirror;
+    private byte[] archive;
+    private CacheServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        mirror = new File(tempDir, "mirror");
+        archive = new byte[1024 * 1024];
+        new Random(0).nextBytes(archive);
+        FileUtils.writeByteArrayToFile(new File(mirror, "sys-img/android/x86-30_r01.zip"), archive);
+        FileUtils.writeStringToFile(new File(mirror, "repository2-1.xml"), "<repository/>", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(tempDir, "secret.txt"), "secret", StandardCharsets.UTF_8);
+        server = new CacheServer(mirror.toPath(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4,
+                Logging.getLogger(CacheServerTest.class));
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.close();
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getPort() + path);
+    }
+
+    @Test
+    void testServesFiles() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url("/sys-img/android/x86-30_r01.zip").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        try (final InputStream is = connection.getInputStream()) {
+            assertArrayEquals(archive, IOUtils.toByteArray(is));
+        }
+
+        final HttpURLConnection manifest = (HttpURLConnection) url("/repository2-1.xml").openConnection();
+        assertEquals("application/xml", manifest.getContentType());
+        try (final InputStream is = manifest.getInputStream()) {
+            assertEquals("<repository/>", IOUtils.toString(is, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testServesRanges() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url("/repository2-1.xml").openConnection();
+        connection.setRequestProperty("Range", "bytes=1-10");
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 1-10/13", connection.getHeaderField("Content-Range"));
+        try (final InputStream is = connection.getInputStream()) {
+            assertEquals("repository", IOUtils.toString(is, StandardCharsets.UTF_8));
+        }
+
+        final HttpURLConnection unsatisfiable = (HttpURLConnection) url("/repository2-1.xml").openConnection();
+        unsatisfiable.setRequestProperty("Range", "bytes=13-");
+        assertEquals(416, unsatisfiable.getResponseCode());
+
+        assertArrayEquals(new long[] { 8, 12 }, CacheServer.parseRange("-5", 13));
+        assertArrayEquals(new long[] { 3, 12 }, CacheServer.parseRange("3-", 13));
+        assertArrayEquals(new long[] { 0, 12 }, CacheServer.parseRange("0-100", 13));
+        assertNull(CacheServer.parseRange("5-4", 13));
+        assertNull(CacheServer.parseRange("a-b", 13));
+    }
+
+    @Test
+    void testRejectsFilesOutsideOfDirectory() throws IOException {
+        assertEquals(404, ((HttpURLConnection) url("/../secret.txt").openConnection()).getResponseCode());
+        assertEquals(404, ((HttpURLConnection) url("/%2e%2e/secret.txt").openConnection()).getResponseCode());
+        assertEquals(404, ((HttpURLConnection) url("/sys-img").openConnection()).getResponseCode());
+        assertEquals(404, ((HttpURLConnection) url("/missing.zip").openConnection()).getResponseCode());
+    }
+
+    @Test
+    void testDownloadsInParallelChunks() throws IOException {
+        final Downloader downloader = new Downloader(0, 0, 64 * 1024, Logging.getLogger(CacheServerTest.class));
+        final File destination = new File(tempDir, "download.zip");
+        downloader.download(url("/sys-img/android/x86-30_r01.zip"), destination, "SHA-1", null);
+        assertArrayEquals(archive, FileUtils.readFileToByteArray(destination));
+    }
+}
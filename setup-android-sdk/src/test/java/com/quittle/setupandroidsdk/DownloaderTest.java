@@ -0,0 +1,279 @@
+package com.quittle.setupandroidsdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloaderTest {
+    private static final byte[] CONTENT = new byte[100_000];
+
+    static {
+        new Random(0).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private URL url;
+    private List<String> requests;
+    private AtomicBoolean truncateNextResponse;
+    private volatile String etag;
+    private List<String> ifRanges;
+
+    /**
+     * Serves {@link #CONTENT}, honoring range requests unless their {@code If-Range} does not match {@link #etag}, and
+     * records the method and range of every request.
+     */
+    @BeforeEach
+    void startServer() throws IOException {
+        requests = Collections.synchronizedList(new ArrayList<>());
+        truncateNextResponse = new AtomicBoolean();
+        etag = "\"v1\"";
+        ifRanges = Collections.synchronizedList(new ArrayList<>());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/file.zip", this::serve);
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/file.zip");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        final String requestedRange = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        requests.add(exchange.getRequestMethod() + " " + requestedRange);
+        if (ifRange != null) {
+            ifRanges.add(ifRange);
+        }
+        final String range = ifRange == null || ifRange.equals(etag) ? requestedRange : null;
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", etag);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(CONTENT.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        int start = 0;
+        int end = CONTENT.length - 1;
+        if (range != null) {
+            final String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (start >= CONTENT.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + CONTENT.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            if (!bounds[1].isEmpty()) {
+                end = Integer.parseInt(bounds[1]);
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + CONTENT.length);
+        }
+        final int length = end + 1 - start;
+        exchange.sendResponseHeaders(range == null ? 200 : 206, length);
+        final OutputStream os = exchange.getResponseBody();
+        if (truncateNextResponse.getAndSet(false)) {
+            os.write(CONTENT, start, length / 2);
+            os.flush();
+            // The server drops the connection when a handler fails
+            throw new IOException("Simulated connection drop");
+        }
+        os.write(CONTENT, start, length);
+        os.close();
+        exchange.close();
+    }
+
+    private static String hash(final String algorithm) throws NoSuchAlgorithmException {
+        return Utils.toHexString(MessageDigest.getInstance(algorithm).digest(CONTENT));
+    }
+
+    private Downloader newDownloader(final int retries, final long minChunkSize) {
+        return new Downloader(retries, 0, minChunkSize, Logging.getLogger(DownloaderTest.class));
+    }
+
+    @Test
+    void testDownloadsAndVerifiesSha256() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-256", hash("SHA-256"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Arrays.asList("HEAD null", "GET null"), requests);
+        assertArrayEquals(new String[] { "file.zip" }, tempDir.list());
+    }
+
+    @Test
+    void testResumesInterruptedDownload() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        newDownloader(1, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Arrays.asList("HEAD null", "GET null", "GET bytes=" + (CONTENT.length / 2) + "-"), requests);
+    }
+
+    @Test
+    void testDownloadsRangesInParallel() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        final Downloader downloader = newDownloader(0, 30_000);
+        downloader.download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(CONTENT.length, downloader.getBytesDownloaded());
+        final List<String> sorted = new ArrayList<>(requests);
+        Collections.sort(sorted);
+        assertEquals(Arrays.asList(
+                "GET bytes=0-33332", "GET bytes=33333-66665", "GET bytes=66666-99999", "HEAD null"), sorted);
+    }
+
+    @Test
+    void testResumesInterruptedRange() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        newDownloader(1, 50_000).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(4, requests.size());
+    }
+
+    @Test
+    void testFailsOnChecksumMismatch() {
+        final File destination = new File(tempDir, "file.zip");
+        final Downloader downloader = newDownloader(1, Long.MAX_VALUE);
+
+        final IOException e = assertThrows(IOException.class,
+                () -> downloader.download(url, destination, "SHA-1", "0000000000000000000000000000000000000000"));
+        assertTrue(e.getMessage().contains("Checksum mismatch"));
+        assertEquals(Arrays.asList("HEAD null", "GET null", "HEAD null", "GET null"), requests);
+        assertArrayEquals(new String[0], tempDir.list());
+    }
+
+    @Test
+    void testResumesDownloadLeftByEarlierBuild() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        assertThrows(IOException.class,
+                () -> newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1")));
+        assertFalse(destination.exists());
+        assertEquals(CONTENT.length / 2, new File(tempDir, "file.zip.part").length());
+
+        final Downloader resumer = newDownloader(0, Long.MAX_VALUE);
+        resumer.download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Arrays.asList("HEAD null", "GET null", "GET bytes=" + (CONTENT.length / 2) + "-"), requests);
+        assertEquals(Collections.singletonList(etag), ifRanges);
+        assertEquals(CONTENT.length - CONTENT.length / 2, resumer.getBytesDownloaded());
+        assertArrayEquals(new String[] { "file.zip" }, tempDir.list());
+    }
+
+    @Test
+    void testRestartsDownloadWhenServerCopyChanged() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        assertThrows(IOException.class,
+                () -> newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1")));
+        etag = "\"v2\"";
+
+        newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Collections.singletonList("\"v1\""), ifRanges);
+    }
+
+    @Test
+    void testResumesRangesLeftByEarlierBuild() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        assertThrows(IOException.class,
+                () -> newDownloader(0, 50_000).download(url, destination, "SHA-1", hash("SHA-1")));
+        requests.clear();
+
+        newDownloader(0, 50_000).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(1, requests.size());
+        assertFalse(requests.contains("HEAD null"));
+        assertFalse(requests.contains("GET bytes=0-49999"));
+    }
+
+    @Test
+    void testDiscardsPartialDownloadOfDifferentChecksum() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        truncateNextResponse.set(true);
+        assertThrows(IOException.class,
+                () -> newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1")));
+        requests.clear();
+
+        newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-256", hash("SHA-256"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Arrays.asList("HEAD null", "GET null"), requests);
+    }
+
+    @Test
+    void testFinishesCompletePartialDownload() throws Exception {
+        // The build is killed once everything was received, but before the file is moved into place. A directory in
+        // the way of the destination stands in for that.
+        final File destination = new File(tempDir, "file.zip");
+        assertTrue(new File(destination, "in-the-way").mkdirs());
+        assertThrows(IOException.class,
+                () -> newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1")));
+        assertEquals(CONTENT.length, new File(tempDir, "file.zip.part").length());
+        FileUtils.deleteDirectory(destination);
+        requests.clear();
+
+        newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Collections.singletonList("GET bytes=" + CONTENT.length + "-"), requests);
+        assertArrayEquals(new String[] { "file.zip" }, tempDir.list());
+    }
+
+    @Test
+    void testRestartsPartialDownloadLongerThanServerCopy() throws Exception {
+        final File destination = new File(tempDir, "file.zip");
+        assertTrue(new File(destination, "in-the-way").mkdirs());
+        assertThrows(IOException.class,
+                () -> newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1")));
+        FileUtils.deleteDirectory(destination);
+        Files.write(new File(tempDir, "file.zip.part").toPath(), new byte[] { 0 }, StandardOpenOption.APPEND);
+        requests.clear();
+
+        newDownloader(0, Long.MAX_VALUE).download(url, destination, "SHA-1", hash("SHA-1"));
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+        assertEquals(Arrays.asList("GET bytes=" + (CONTENT.length + 1) + "-", "HEAD null", "GET null"), requests);
+    }
+}
@@ -0,0 +1,95 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SuppressWarnings("try")
+class FileLocksTest {
+    private static final Logger LOGGER = Logging.getLogger(FileLocksTest.class);
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testExclusiveLocksAreMutuallyExclusive() throws Exception {
+        final File lockFile = new File(tempDir, "locks/exclusive.lock");
+        final AtomicInteger concurrentHolders = new AtomicInteger();
+        final AtomicInteger maxConcurrentHolders = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    try (final FileLocks.HeldLocks lock = FileLocks.acquire(lockFile, false, LOGGER)) {
+                        maxConcurrentHolders.accumulateAndGet(concurrentHolders.incrementAndGet(), Math::max);
+                        Thread.sleep(5);
+                        concurrentHolders.decrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            for (final Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, maxConcurrentHolders.get());
+        assertTrue(lockFile.isFile());
+    }
+
+    @Test
+    void testSharedLocksOverlap() throws Exception {
+        final File lockFile = new File(tempDir, "shared.lock");
+        final CountDownLatch bothHeld = new CountDownLatch(2);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?>[] futures = new Future<?>[2];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    try (final FileLocks.HeldLocks lock = FileLocks.acquire(lockFile, true, LOGGER)) {
+                        bothHeld.countDown();
+                        assertTrue(bothHeld.await(10, TimeUnit.SECONDS));
+                    }
+                    return null;
+                });
+            }
+            for (final Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Once every shared holder is done, the file is free to be locked exclusively again
+        try (final FileLocks.HeldLocks lock = FileLocks.acquire(lockFile, false, LOGGER)) {
+            assertNotNull(lock);
+        }
+    }
+
+    @Test
+    void testAcquireAll() throws Exception {
+        final File a = new File(tempDir, "a.lock");
+        final File b = new File(tempDir, "b.lock");
+        try (final FileLocks.HeldLocks lock = FileLocks.acquireAll(Arrays.asList(b, a), false, LOGGER)) {
+            assertTrue(a.isFile());
+            assertTrue(b.isFile());
+        }
+        try (final FileLocks.HeldLocks lock = FileLocks.acquire(a, false, LOGGER)) {
+            assertNotNull(lock);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstalledPackageIndexTest {
+    @TempDir
+    File sdkRoot;
+
+    private void writePackageXml(final String packagePath, final String revisionXml) throws IOException {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                "<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">" +
+                "<localPackage path=\"" + packagePath + "\" obsolete=\"false\">" +
+                "<revision>" + revisionXml + "</revision>" +
+                "<display-name>Test Package</display-name>" +
+                "</localPackage></ns2:repository>";
+        FileUtils.writeStringToFile(
+                new File(sdkRoot, packagePath.replace(';', '/') + "/package.xml"), xml, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testEmptySdkRoot() {
+        final InstalledPackageIndex index = new InstalledPackageIndex(sdkRoot);
+        assertEquals(Collections.emptyMap(), index.getPackages());
+        assertFalse(index.isInstalled("platforms;android-29"));
+    }
+
+    @Test
+    void testPackageXml() throws IOException {
+        writePackageXml("build-tools;28.0.3", "<major>28</major><minor>0</minor><micro>3</micro>");
+        writePackageXml("platforms;android-29", "<major>5</major>");
+        writePackageXml("system-images;android-28;default;x86", "<major>4</major>");
+
+        final Map<String, AndroidRevision> packages = new InstalledPackageIndex(sdkRoot).getPackages();
+        assertEquals(3, packages.size());
+        assertEquals(new AndroidRevision(28, 0, 3), packages.get("build-tools;28.0.3"));
+        assertEquals(new AndroidRevision(5), packages.get("platforms;android-29"));
+        assertEquals(new AndroidRevision(4), packages.get("system-images;android-28;default;x86"));
+    }
+
+    @Test
+    void testSourceProperties() throws IOException {
+        FileUtils.writeStringToFile(new File(sdkRoot, "cmdline-tools/source.properties"),
+                "Pkg.Revision=2.1\nPkg.Path=cmdline-tools;2.1\n", StandardCharsets.UTF_8);
+
+        assertEquals(new AndroidRevision(2, 1, 0),
+                new InstalledPackageIndex(sdkRoot).getPackages().get("cmdline-tools"));
+    }
+
+    @Test
+    void testDependencies() throws IOException {
+        FileUtils.writeStringToFile(new File(sdkRoot, "emulator/package.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                "<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">" +
+                "<localPackage path=\"emulator\" obsolete=\"false\">" +
+                "<revision><major>31</major></revision>" +
+                "<display-name>Android Emulator</display-name>" +
+                "<dependencies><dependency path=\"patcher;v4\"/><dependency path=\"tools\">" +
+                "<min-revision><major>26</major></min-revision></dependency></dependencies>" +
+                "</localPackage></ns2:repository>", StandardCharsets.UTF_8);
+        writePackageXml("platforms;android-29", "<major>5</major>");
+
+        final InstalledPackageIndex index = new InstalledPackageIndex(sdkRoot);
+        assertEquals(Arrays.asList("patcher;v4", "tools"), index.getDependencies("emulator"));
+        assertEquals(Collections.emptyList(), index.getDependencies("platforms;android-29"));
+        assertEquals(Collections.emptyList(), index.getDependencies("build-tools;30.0.3"));
+    }
+
+    @Test
+    void testMissingPackages() throws IOException {
+        writePackageXml("build-tools;28.0.3", "<major>28</major><minor>0</minor><micro>2</micro>");
+        writePackageXml("platforms;android-29", "<major>5</major>");
+        writePackageXml("ndk;23.1.7779620", "<major>23</major><minor>1</minor><micro>7779620</micro>");
+
+        final InstalledPackageIndex index = new InstalledPackageIndex(sdkRoot);
+        assertEquals(Collections.singleton("build-tools;28.0.3"), index.getMissingPackages(
+                Arrays.asList("build-tools;28.0.3", "platforms;android-29", "ndk;23.1.7779620")));
+    }
+
+    @Test
+    void testIgnoresLicensesAndHiddenDirectories() throws IOException {
+        FileUtils.writeStringToFile(new File(sdkRoot, "licenses/android-sdk-license"), "hash", StandardCharsets.UTF_8);
+        writePackageXml(".temp;platforms", "<major>1</major>");
+        writePackageXml("emulator", "<major>30</major><minor>2</minor><micro>6</micro>");
+
+        assertEquals(Collections.singleton("emulator"), new InstalledPackageIndex(sdkRoot).getPackages().keySet());
+    }
+
+    @Test
+    void testInvalidate() throws IOException {
+        final InstalledPackageIndex index = new InstalledPackageIndex(sdkRoot);
+        assertFalse(index.isInstalled("emulator"));
+
+        writePackageXml("emulator", "<major>30</major>");
+        assertFalse(index.isInstalled("emulator"));
+
+        index.invalidate();
+        assertTrue(index.isInstalled("emulator"));
+    }
+
+    @Test
+    void testMalformedPackageXml() throws IOException {
+        FileUtils.writeStringToFile(new File(sdkRoot, "emulator/package.xml"), "<not-xml", StandardCharsets.UTF_8);
+
+        assertFalse(new InstalledPackageIndex(sdkRoot).isInstalled("emulator"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.quittle.setupandroidsdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyPackageGroupTest {
+    @Test
+    void testOf() {
+        assertEquals(Optional.of(LazyPackageGroup.NATIVE), LazyPackageGroup.of("ndk;21.4.7075529"));
+        assertEquals(Optional.of(LazyPackageGroup.NATIVE), LazyPackageGroup.of("ndk-bundle"));
+        assertEquals(Optional.of(LazyPackageGroup.NATIVE), LazyPackageGroup.of("cmake;3.18.1"));
+        assertEquals(Optional.of(LazyPackageGroup.DEVICE),
+                LazyPackageGroup.of("system-images;android-30;google_apis;x86_64"));
+        assertEquals(Optional.of(LazyPackageGroup.DEVICE), LazyPackageGroup.of("emulator"));
+        assertEquals(Optional.empty(), LazyPackageGroup.of("platforms;android-30"));
+        assertEquals(Optional.empty(), LazyPackageGroup.of("build-tools;30.0.3"));
+    }
+
+    @Test
+    void testIsNeededBy() {
+        assertTrue(LazyPackageGroup.NATIVE.isNeededBy("externalNativeBuildDebug"));
+        assertTrue(LazyPackageGroup.NATIVE.isNeededBy("configureCMakeRelWithDebInfo"));
+        assertFalse(LazyPackageGroup.NATIVE.isNeededBy("lintDebug"));
+        assertTrue(LazyPackageGroup.DEVICE.isNeededBy("pixel2api30DebugAndroidTestSetupManagedDevice"));
+        assertTrue(LazyPackageGroup.DEVICE.isNeededBy("allDevicesDebugAndroidTest"));
+        assertFalse(LazyPackageGroup.DEVICE.isNeededBy("testDebugUnitTest"));
+        assertFalse(LazyPackageGroup.DEVICE.isNeededBy(LazyPackageGroup.DEVICE.getTaskName()));
+    }
+
+    @Test
+    void testDescribeSupportedPackages() {
+        assertEquals("native (ndk;, ndk-bundle, cmake;), device (system-images;, emulator)",
+                LazyPackageGroup.describeSupportedPackages());
+    }
+}
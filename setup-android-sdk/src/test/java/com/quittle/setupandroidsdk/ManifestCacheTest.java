@@ -0,0 +1,115 @@
+package com.quittle.setupandroidsdk;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManifestCacheTest {
+    private static final String ENTITY_TAG = "\"fixture\"";
+    private static final Logger LOGGER = Logging.getLogger(ManifestCacheTest.class);
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private URL manifestUrl;
+    /**
+     * The status of each response the server sent
+     */
+    private List<Integer> responses;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        responses = Collections.synchronizedList(new ArrayList<>());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/repository2-1.xml", exchange -> {
+            exchange.getResponseHeaders().set("ETag", ENTITY_TAG);
+            if (ENTITY_TAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                responses.add(304);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                responses.add(200);
+                final byte[] body = IOUtils.toByteArray(
+                        ManifestCacheTest.class.getResource("/repository/repository2-1.xml"));
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        manifestUrl = new URL("http://localhost:" + server.getAddress().getPort() + "/repository2-1.xml");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private ManifestCache newCache(final long ttlMillis, final boolean offline) {
+        return new ManifestCache(new File(tempDir, "manifests"), ttlMillis, offline, LOGGER);
+    }
+
+    @Test
+    void testUsesCachedManifestWithinTtl() throws IOException {
+        final RepositoryManifest fetched = newCache(60_000, false).load(manifestUrl);
+        final RepositoryManifest cached = newCache(60_000, false).load(manifestUrl);
+
+        assertEquals(Collections.singletonList(200), responses);
+        assertEquals(fetched.getPackages().keySet(), cached.getPackages().keySet());
+        final RepositoryManifest.RemotePackage buildTools = cached.getPackage("build-tools;30.0.3").get();
+        assertEquals(new AndroidRevision(30, 0, 3), buildTools.getRevision());
+        assertEquals(Collections.singletonList("patcher;v4"), buildTools.getDependencies());
+        assertEquals("Fixture license text", cached.getLicense(buildTools.getLicenseRef()));
+        assertEquals(fetched.getNamespaces(), cached.getNamespaces());
+        final RepositoryManifest.RemoteArchive archive = buildTools.getArchives().get(0);
+        assertEquals(new URL(manifestUrl, "fixture-package.zip"), archive.getUrl());
+        assertEquals("6d70f13b88ca5230c389da233af8d45802cfb8f6", archive.getChecksum());
+        assertEquals("build-tools;30.0.3", buildTools.getElement().getAttribute("path"));
+    }
+
+    @Test
+    void testRevalidatesExpiredManifest() throws IOException {
+        newCache(0, false).load(manifestUrl);
+        final RepositoryManifest revalidated = newCache(0, false).load(manifestUrl);
+
+        assertEquals(List.of(200, 304), responses);
+        assertTrue(revalidated.getPackage("patcher;v4").isPresent());
+    }
+
+    @Test
+    void testOfflineOnlyReadsCache() throws IOException {
+        assertThrows(IOException.class, () -> newCache(0, true).load(manifestUrl));
+        assertEquals(Collections.emptyList(), responses);
+
+        newCache(0, false).load(manifestUrl);
+        assertTrue(newCache(0, true).load(manifestUrl).getPackage("emulator").isPresent());
+        assertEquals(Collections.singletonList(200), responses);
+    }
+
+    @Test
+    void testUsesStaleManifestWhenRepositoryIsUnreachable() throws IOException {
+        newCache(0, false).load(manifestUrl);
+        server.stop(0);
+
+        assertTrue(newCache(0, false).load(manifestUrl).getPackage("emulator").isPresent());
+    }
+}
@@ -0,0 +1,89 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PackageDeduplicatorTest {
+    @TempDir
+    File sdkRoot;
+
+    private static byte[] randomBytes(final int length, final long seed) {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private File write(final String path, final byte[] contents) throws IOException {
+        final File file = new File(sdkRoot, path);
+        FileUtils.writeByteArrayToFile(file, contents);
+        return file;
+    }
+
+    private static boolean isSameFile(final File a, final File b) throws IOException {
+        return Files.isSameFile(a.toPath(), b.toPath());
+    }
+
+    @Test
+    void testLinksIdenticalFiles() throws IOException {
+        final byte[] shared = randomBytes(10_000, 1);
+        final File first = write("build-tools/33.0.0/lib/shared.jar", shared);
+        final File second = write("build-tools/34.0.0/lib/shared.jar", shared);
+        final File third = write("build-tools/35.0.0/lib/renamed.jar", shared);
+        final File different = write("build-tools/35.0.0/lib/other.jar", randomBytes(10_000, 2));
+
+        final long reclaimed = PackageDeduplicator.deduplicate(sdkRoot, Arrays.asList(
+                new File(sdkRoot, "build-tools/33.0.0"), new File(sdkRoot, "build-tools/34.0.0"),
+                new File(sdkRoot, "build-tools/35.0.0")));
+
+        assertEquals(20_000, reclaimed);
+        assertTrue(isSameFile(first, second));
+        assertTrue(isSameFile(first, third));
+        assertFalse(isSameFile(first, different));
+        assertArrayEquals(shared, Files.readAllBytes(third.toPath()));
+        assertTrue(new File(sdkRoot, PackageDeduplicator.INDEX_FILE).isFile());
+    }
+
+    @Test
+    void testLaterPassesOnlyLinkNewFiles() throws IOException {
+        final byte[] shared = randomBytes(5_000, 3);
+        final File first = write("platforms/android-33/android.jar", shared);
+        write("platforms/android-34/android.jar", shared);
+        final File platforms = new File(sdkRoot, "platforms");
+        assertEquals(5_000, PackageDeduplicator.deduplicate(sdkRoot, Arrays.asList(platforms)));
+        assertEquals(0, PackageDeduplicator.deduplicate(sdkRoot, Arrays.asList(platforms)));
+
+        final File added = write("platforms/android-35/android.jar", shared);
+        assertEquals(5_000, PackageDeduplicator.deduplicate(sdkRoot, Arrays.asList(platforms)));
+        assertTrue(isSameFile(first, added));
+    }
+
+    @Test
+    void testSkipsFilesWithOtherPermissions() throws IOException {
+        assumeTrue(Files.getFileStore(sdkRoot.toPath()).supportsFileAttributeView("posix"));
+        final byte[] shared = randomBytes(5_000, 4);
+        final File plain = write("ndk/25/tool", shared);
+        final File executable = write("ndk/26/tool", shared);
+        assertTrue(executable.setExecutable(true));
+
+        assertEquals(0, PackageDeduplicator.deduplicate(sdkRoot, Arrays.asList(new File(sdkRoot, "ndk"))));
+        assertFalse(isSameFile(plain, executable));
+        assertFalse(plain.canExecute());
+    }
+
+    @Test
+    void testHashReadsLargeFiles() throws IOException {
+        final byte[] large = randomBytes(3 * 1024 * 1024 + 17, 5);
+        final File file = write("large.bin", large);
+        assertEquals(Downloader.hash(file, "SHA-256"), PackageDeduplicator.hash(file.toPath()));
+    }
+}
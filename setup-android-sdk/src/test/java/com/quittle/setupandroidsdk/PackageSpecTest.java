@@ -0,0 +1,71 @@
+package com.quittle.setupandroidsdk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackageSpecTest {
+    private static PackageSpec parse(final String packagePath) {
+        return PackageSpec.parse(packagePath).get();
+    }
+
+    @Test
+    void testParse() {
+        assertEquals(Optional.empty(), PackageSpec.parse("emulator"));
+        assertEquals(Optional.empty(), PackageSpec.parse("build-tools;34.0.0"));
+        assertEquals(Optional.empty(), PackageSpec.parse("system-images;android-30;google_apis;x86_64"));
+        assertEquals("build-tools;", parse("build-tools;[34,35)").getPrefix());
+        assertEquals("ndk;", parse("ndk;26.+").getPrefix());
+        assertThrows(IllegalArgumentException.class, () -> PackageSpec.parse("build-tools;[34)"));
+        assertThrows(IllegalArgumentException.class, () -> PackageSpec.parse("build-tools;[a,35)"));
+        assertThrows(IllegalArgumentException.class, () -> PackageSpec.parse("ndk;.+"));
+    }
+
+    @Test
+    void testMatchesRange() {
+        final PackageSpec spec = parse("build-tools;[34,35)");
+        assertTrue(spec.matches(new AndroidRevision(34, 0, 0)));
+        assertTrue(spec.matches(new AndroidRevision(34, 9, 9)));
+        assertFalse(spec.matches(new AndroidRevision(35, 0, 0)));
+        assertFalse(spec.matches(new AndroidRevision(33, 0, 3)));
+        assertFalse(spec.matches(new AndroidRevision(34, 1, 0, 1)));
+
+        final PackageSpec exclusiveLower = parse("cmake;(3.18,]");
+        assertFalse(exclusiveLower.matches(new AndroidRevision(3, 18, 0)));
+        assertTrue(exclusiveLower.matches(new AndroidRevision(3, 18, 1)));
+        assertTrue(exclusiveLower.matches(new AndroidRevision(99)));
+    }
+
+    @Test
+    void testMatchesPrefix() {
+        final PackageSpec major = parse("ndk;26.+");
+        assertTrue(major.matches(new AndroidRevision(26, 1, 10909125)));
+        assertFalse(major.matches(new AndroidRevision(27, 0, 0)));
+        assertFalse(major.matches(new AndroidRevision(25, 2, 9519653)));
+
+        final PackageSpec minor = parse("cmake;3.22.+");
+        assertTrue(minor.matches(new AndroidRevision(3, 22, 1)));
+        assertFalse(minor.matches(new AndroidRevision(3, 23, 0)));
+
+        assertTrue(parse("ndk;+").matches(new AndroidRevision(1)));
+    }
+
+    @Test
+    void testSelectLatest() {
+        final Map<String, AndroidRevision> candidates = new HashMap<>();
+        candidates.put("build-tools;33.0.2", new AndroidRevision(33, 0, 2));
+        candidates.put("build-tools;34.0.0", new AndroidRevision(34, 0, 0));
+        candidates.put("build-tools;34.0.1", new AndroidRevision(34, 0, 1));
+        candidates.put("build-tools;35.0.0", new AndroidRevision(35, 0, 0));
+        candidates.put("platforms;android-34", new AndroidRevision(2));
+
+        assertEquals(Optional.of("build-tools;34.0.1"), parse("build-tools;[34,35)").selectLatest(candidates));
+        assertEquals(Optional.of("build-tools;35.0.0"), parse("build-tools;+").selectLatest(candidates));
+        assertEquals(Optional.empty(), parse("build-tools;[36,]").selectLatest(candidates));
+        assertEquals(Optional.empty(), parse("ndk;+").selectLatest(candidates));
+    }
+}
@@ -0,0 +1,212 @@
+package com.quittle.setupandroidsdk;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryInstallerTest {
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private Set<String> requests;
+    private RepositoryInstaller installer;
+    private final Downloader downloader = new Downloader(0, 0, Logging.getLogger(RepositoryInstallerTest.class));
+
+    /**
+     * Serves the fixture manifest and archives from {@code src/test/resources/repository}.
+     */
+    @BeforeEach
+    void startServer() throws IOException {
+        requests = Collections.synchronizedSet(new TreeSet<>());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            final String path = exchange.getRequestURI().getPath();
+            requests.add(path);
+            try (final InputStream is = RepositoryInstallerTest.class.getResourceAsStream("/repository" + path)) {
+                if (is == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    final byte[] body = IOUtils.toByteArray(is);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (final OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                }
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        installer = new RepositoryInstaller(
+                new URL("http://localhost:" + server.getAddress().getPort() + "/"),
+                new ManifestCache(new File(tempDir, "manifests"), 0, false,
+                        Logging.getLogger(RepositoryInstallerTest.class)),
+                Logging.getLogger(RepositoryInstallerTest.class));
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void testInstallsPackageAndDependencies() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final InstalledPackageIndex index = new InstalledPackageIndex(sdkRoot);
+
+        assertEquals(Collections.emptySet(),
+                installer.install(sdkRoot, index, Collections.singleton("build-tools;30.0.3"), true, 2, downloader, null));
+
+        final InstalledPackageIndex freshIndex = new InstalledPackageIndex(sdkRoot);
+        assertEquals(new AndroidRevision(30, 0, 3), freshIndex.getPackages().get("build-tools;30.0.3"));
+        assertEquals(new AndroidRevision(1), freshIndex.getPackages().get("patcher;v4"));
+        final File buildTools = new File(sdkRoot, "build-tools/30.0.3");
+        assertEquals("Fixture package\n",
+                FileUtils.readFileToString(new File(buildTools, "README.txt"), StandardCharsets.UTF_8));
+        assertTrue(SdkLicenses.isAccepted(sdkRoot, "android-sdk-license", "Fixture license text"));
+        if (sdkRoot.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertTrue(Files.isExecutable(buildTools.toPath().resolve("bin/tool")));
+            assertFalse(Files.isExecutable(buildTools.toPath().resolve("README.txt")));
+            assertEquals("tool", Files.readSymbolicLink(buildTools.toPath().resolve("bin/tool-link")).toString());
+        }
+        assertEquals(Collections.emptyList(), FileUtils.listFiles(new File(sdkRoot, ".temp"), null, true));
+    }
+
+    @Test
+    void testReadsManifestOnce() {
+        final File sdkRoot = new File(tempDir, "sdk");
+        installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot),
+                Arrays.asList("patcher;v4", "build-tools;30.0.3"), true, 2, downloader, null);
+
+        assertEquals(new TreeSet<>(Arrays.asList("/fixture-package.zip", "/repository2-1.xml")), requests);
+    }
+
+    @Test
+    void testInstallsIndependentPackagesConcurrently() {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final CountDownLatch archiveRequests = new CountDownLatch(2);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        server.createContext("/fixture-package.zip", exchange -> {
+            archiveRequests.countDown();
+            try {
+                // Only completes early if both packages are downloading at the same time
+                overlapped.compareAndSet(false, archiveRequests.await(10, TimeUnit.SECONDS));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final byte[] body = IOUtils.toByteArray(
+                    RepositoryInstallerTest.class.getResource("/repository/fixture-package.zip"));
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+            exchange.close();
+        });
+
+        assertEquals(Collections.emptySet(), installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot),
+                Arrays.asList("emulator", "patcher;v4"), true, 2, downloader, null));
+        assertTrue(overlapped.get());
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("emulator"));
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("patcher;v4"));
+    }
+
+    @Test
+    void testGetsDependencyClosure() {
+        assertEquals(new TreeSet<>(Arrays.asList("build-tools;30.0.3", "patcher;v4", "platforms;android-corrupt")),
+                installer.getDependencyClosure(Arrays.asList("build-tools;30.0.3", "platforms;android-corrupt")));
+    }
+
+    @Test
+    void testLeavesUnavailablePackages() {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final Set<String> packages = new TreeSet<>(Arrays.asList(
+                "build-tools;31.0.0-rc1", "platforms;android-corrupt", "system-images;android-30;default;x86_64"));
+
+        assertEquals(packages,
+                installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot), packages, true, 2, downloader, null));
+        assertFalse(new File(sdkRoot, "platforms/android-corrupt").exists());
+        assertTrue(requests.contains("/sys-img/android/sys-img2-1.xml"));
+    }
+
+    @Test
+    void testRequiresAcceptedLicenseWithoutAutoAccept() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final Set<String> packages = Collections.singleton("patcher;v4");
+
+        assertEquals(packages,
+                installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot), packages, false, 2, downloader, null));
+        assertFalse(new File(sdkRoot, "patcher/v4").exists());
+
+        SdkLicenses.accept(sdkRoot, "android-sdk-license", "Fixture license text");
+        assertEquals(Collections.emptySet(),
+                installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot), packages, false, 2, downloader, null));
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("patcher;v4"));
+    }
+
+    @Test
+    void testOnlyInstallsLockedRevisions() {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final Set<String> packages = Collections.singleton("patcher;v4");
+
+        assertEquals(packages, installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot), packages, true, 2,
+                downloader, new SdkLockFile()));
+
+        final SdkLockFile lockFile = new SdkLockFile();
+        lockFile.lockPackage(installer.resolve("patcher;v4").get());
+        assertEquals(Collections.emptySet(), installer.install(sdkRoot, new InstalledPackageIndex(sdkRoot), packages,
+                true, 2, downloader, lockFile));
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("patcher;v4"));
+    }
+
+    @Test
+    void testInstallsFromMirror() throws IOException {
+        final File mirror = new File(tempDir, "mirror");
+        assertEquals(1, installer.mirror(Collections.singleton("build-tools;30.0.3"),
+                Collections.singleton("fixture-package.zip"), mirror, downloader));
+        assertTrue(new File(mirror, "repository2-1.xml").isFile());
+        assertTrue(new File(mirror, "fixture-package.zip").isFile());
+
+        requests.clear();
+        assertEquals(0, installer.mirror(Collections.singleton("build-tools;30.0.3"),
+                Collections.emptySet(), mirror, downloader));
+        // Only the manifest is revalidated, the mirrored archive still matches its checksum
+        assertEquals(Collections.singleton("/repository2-1.xml"), requests);
+
+        server.stop(0);
+        final RepositoryInstaller mirrorInstaller = new RepositoryInstaller(mirror.toURI().toURL(),
+                new ManifestCache(new File(tempDir, "mirror-manifests"), 0, false,
+                        Logging.getLogger(RepositoryInstallerTest.class)),
+                Logging.getLogger(RepositoryInstallerTest.class));
+        final File sdkRoot = new File(tempDir, "sdk");
+        assertEquals(Collections.emptySet(), mirrorInstaller.install(sdkRoot, new InstalledPackageIndex(sdkRoot),
+                Collections.singleton("build-tools;30.0.3"), true, 2, downloader, null));
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("build-tools;30.0.3"));
+        assertTrue(new InstalledPackageIndex(sdkRoot).isInstalled("patcher;v4"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SdkBundleTest {
+    @TempDir
+    File tempDir;
+
+    private static void writePackage(final File sdkRoot, final String packagePath, final String major)
+            throws IOException {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                "<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">" +
+                "<localPackage path=\"" + packagePath + "\" obsolete=\"false\">" +
+                "<revision><major>" + major + "</major></revision>" +
+                "<display-name>Test Package</display-name>" +
+                "</localPackage></ns2:repository>";
+        FileUtils.writeStringToFile(new File(Utils.getPackageDirectory(sdkRoot, packagePath), "package.xml"), xml,
+                StandardCharsets.UTF_8);
+    }
+
+    private File createSdkRoot() throws IOException {
+        assumeTrue(Files.getFileStore(tempDir.toPath()).supportsFileAttributeView("posix"));
+        final File sdkRoot = new File(tempDir, "sdk");
+        writePackage(sdkRoot, "platforms;android-30", "3");
+        writePackage(sdkRoot, "build-tools;30.0.3", "30");
+        final File aapt = new File(sdkRoot, "build-tools/30.0.3/aapt");
+        FileUtils.writeStringToFile(aapt, "#!/bin/sh", StandardCharsets.UTF_8);
+        assertTrue(aapt.setExecutable(true));
+        Files.createSymbolicLink(new File(sdkRoot, "build-tools/30.0.3/aapt-link").toPath(), Paths.get("aapt"));
+
+        final File staged = new File(tempDir, "staged-tools");
+        FileUtils.writeStringToFile(new File(staged, "bin/sdkmanager"), "#!/bin/sh", StandardCharsets.UTF_8);
+        assertTrue(new File(staged, "bin/sdkmanager").setExecutable(true));
+        StagedInstall.commit(staged, sdkRoot, "cmdline-tools;latest", "8092744", "abc123");
+        return sdkRoot;
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        final File source = createSdkRoot();
+        final Map<String, AndroidRevision> packages = new InstalledPackageIndex(source).getPackages();
+        final File bundle = new File(tempDir, "bundle/android-sdk.zip");
+        SdkBundle.write(source, packages, StagedInstall.readMarker(new File(source, "cmdline-tools/latest")).get(),
+                bundle);
+
+        final SdkBundle contents = SdkBundle.read(bundle);
+        assertEquals(new AndroidRevision(30), contents.getPackages().get("build-tools;30.0.3"));
+        assertEquals(new AndroidRevision(3), contents.getPackages().get("platforms;android-30"));
+        assertFalse(contents.getPackages().containsKey("cmdline-tools;latest"));
+        assertEquals("8092744", contents.getSdkTools().get().getVersion());
+
+        final File destination = new File(tempDir, "restored");
+        assertEquals(3, SdkBundle.restore(bundle, destination));
+        assertEquals(packages, new InstalledPackageIndex(destination).getPackages());
+        final StagedInstall.Marker tools =
+                StagedInstall.readMarker(new File(destination, "cmdline-tools/latest")).get();
+        assertEquals("8092744", tools.getVersion());
+        assertEquals("abc123", tools.getChecksum());
+        assertTrue(new File(destination, "cmdline-tools/latest/bin/sdkmanager").canExecute());
+        assertTrue(new File(destination, "build-tools/30.0.3/aapt").canExecute());
+        assertFalse(new File(destination, "platforms/android-30/package.xml").canExecute());
+        final File link = new File(destination, "build-tools/30.0.3/aapt-link");
+        assertTrue(Files.isSymbolicLink(link.toPath()));
+        assertEquals(Paths.get("aapt"), Files.readSymbolicLink(link.toPath()));
+
+        assertEquals(0, SdkBundle.restore(bundle, destination));
+    }
+
+    @Test
+    void testRestoresOnlyMissingPackages() throws IOException {
+        final File source = createSdkRoot();
+        final File bundle = new File(tempDir, "android-sdk.zip");
+        SdkBundle.write(source, new InstalledPackageIndex(source).getPackages(), null, bundle);
+        assertFalse(SdkBundle.read(bundle).getSdkTools().isPresent());
+
+        final File destination = new File(tempDir, "restored");
+        writePackage(destination, "platforms;android-30", "3");
+        writePackage(destination, "build-tools;30.0.3", "29");
+
+        assertEquals(1, SdkBundle.restore(bundle, destination));
+        assertEquals(new AndroidRevision(30),
+                new InstalledPackageIndex(destination).getPackages().get("build-tools;30.0.3"));
+        assertFalse(new File(destination, "cmdline-tools").exists());
+    }
+
+    @Test
+    void testRejectsOtherArchives() throws IOException {
+        final File zip = new File(tempDir, "other.zip");
+        try (final ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            zos.putNextEntry(new ZipEntry("file"));
+            zos.closeEntry();
+        }
+        assertThrows(IOException.class, () -> SdkBundle.read(zip));
+    }
+}
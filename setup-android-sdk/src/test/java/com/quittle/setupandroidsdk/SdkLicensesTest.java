@@ -0,0 +1,75 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SdkLicensesTest {
+    @TempDir
+    File tempDir;
+
+    private static String read(final File file) throws IOException {
+        return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testSynchronizeOnlyWritesChanges() throws IOException {
+        final File source = new File(tempDir, "licenses");
+        final File sdkRoot = new File(tempDir, "sdk");
+        final File licenses = SdkLicenses.getLicensesDirectory(sdkRoot);
+        FileUtils.writeStringToFile(new File(source, "android-sdk-license"), "\nabc", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(source, "android-sdk-preview-license"), "\ndef", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(licenses, "stale-license"), "\nghi", StandardCharsets.UTF_8);
+
+        assertTrue(SdkLicenses.synchronize(source, sdkRoot));
+        assertEquals("\nabc", read(new File(licenses, "android-sdk-license")));
+        assertEquals("\ndef", read(new File(licenses, "android-sdk-preview-license")));
+        assertFalse(new File(licenses, "stale-license").exists());
+
+        // Touching a file in the SDK root only causes its contents to be compared, so identical files aren't rewritten
+        final File preview = new File(licenses, "android-sdk-preview-license");
+        assertTrue(preview.setLastModified(1000));
+        assertFalse(SdkLicenses.synchronize(source, sdkRoot));
+        assertEquals(1000, preview.lastModified());
+
+        // Touched but identical files are left alone while changed ones are replaced
+        FileUtils.writeStringToFile(new File(source, "android-sdk-license"), "\nabc\nxyz", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(source, "android-sdk-preview-license"), "\ndef", StandardCharsets.UTF_8);
+        assertTrue(SdkLicenses.synchronize(source, sdkRoot));
+        assertEquals("\nabc\nxyz", read(new File(licenses, "android-sdk-license")));
+        assertEquals(1000, preview.lastModified());
+        assertEquals(new TreeSet<>(Arrays.asList("android-sdk-license", "android-sdk-preview-license")),
+                new TreeSet<>(Arrays.asList(licenses.list())));
+    }
+
+    @Test
+    void testSynchronizeRepairsLicensesDirectory() throws IOException {
+        final File source = new File(tempDir, "licenses");
+        final File sdkRoot = new File(tempDir, "sdk");
+        final File licenses = SdkLicenses.getLicensesDirectory(sdkRoot);
+        FileUtils.writeStringToFile(new File(source, "android-sdk-license"), "\nabc", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(source, "android-sdk-preview-license"), "\ndef", StandardCharsets.UTF_8);
+        assertTrue(SdkLicenses.synchronize(source, sdkRoot));
+
+        // The sources are unchanged, but the SDK root drifted from them since the last sync
+        assertTrue(new File(licenses, "android-sdk-license").delete());
+        FileUtils.writeStringToFile(new File(licenses, "android-sdk-preview-license"), "\nedited",
+                StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(licenses, "extra-license"), "\nghi", StandardCharsets.UTF_8);
+        assertTrue(SdkLicenses.synchronize(source, sdkRoot));
+        assertEquals("\nabc", read(new File(licenses, "android-sdk-license")));
+        assertEquals("\ndef", read(new File(licenses, "android-sdk-preview-license")));
+        assertEquals(new TreeSet<>(Arrays.asList("android-sdk-license", "android-sdk-preview-license")),
+                new TreeSet<>(Arrays.asList(licenses.list())));
+
+        assertFalse(SdkLicenses.synchronize(source, sdkRoot));
+    }
+}
@@ -0,0 +1,86 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SdkLockFileTest {
+    @TempDir
+    File tempDir;
+
+    private static RepositoryManifest readFixtureManifest() throws IOException {
+        final URL url = new URL("https://example.com/repository/repository2-1.xml");
+        try (final InputStream is = SdkLockFileTest.class.getResourceAsStream("/repository/repository2-1.xml")) {
+            return RepositoryManifest.parse(url, is);
+        }
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        final RepositoryManifest manifest = readFixtureManifest();
+        final RepositoryManifest.RemotePackage buildTools = manifest.getPackage("build-tools;30.0.3").get();
+        final RepositoryManifest.RemotePackage patcher = manifest.getPackage("patcher;v4").get();
+        final SdkLockFile lockFile = new SdkLockFile();
+        lockFile.lockPackage(buildTools);
+        lockFile.lockPackage(patcher);
+        lockFile.lockSdkTools("6609375_latest");
+        lockFile.lockSdkToolsArchive("linux", buildTools.getArchives().get(0));
+
+        final File file = new File(tempDir, "android-sdk.lock");
+        lockFile.write(file);
+        final SdkLockFile read = SdkLockFile.read(file);
+
+        assertEquals(Optional.of(new AndroidRevision(30, 0, 3)), read.getRevision("build-tools;30.0.3"));
+        assertEquals(Optional.of(new AndroidRevision(1)), read.getRevision("patcher;v4"));
+        assertEquals(Optional.empty(), read.getRevision("emulator"));
+        assertTrue(read.matches("build-tools;30.0.3", buildTools.getRevision(), buildTools.getArchives().get(0)));
+        assertFalse(read.matches("build-tools;30.0.3", new AndroidRevision(30, 0, 2),
+                buildTools.getArchives().get(0)));
+        assertFalse(read.matches("emulator", buildTools.getRevision(), buildTools.getArchives().get(0)));
+        assertEquals("6609375_latest", read.getSdkToolsVersion());
+        final SdkLockFile.LockedArchive tools = read.getSdkToolsArchive("linux").get();
+        assertEquals("https://example.com/repository/fixture-package.zip", tools.getUrl());
+        assertEquals("SHA-1", tools.getChecksumType());
+        assertEquals("6d70f13b88ca5230c389da233af8d45802cfb8f6", tools.getChecksum());
+        assertEquals(Optional.empty(), read.getSdkToolsArchive("win"));
+    }
+
+    @Test
+    void testWriteIsDeterministic() throws IOException {
+        final RepositoryManifest manifest = readFixtureManifest();
+        final SdkLockFile first = new SdkLockFile();
+        first.lockPackage(manifest.getPackage("patcher;v4").get());
+        first.lockPackage(manifest.getPackage("build-tools;30.0.3").get());
+        final SdkLockFile second = new SdkLockFile();
+        second.lockPackage(manifest.getPackage("build-tools;30.0.3").get());
+        second.lockPackage(manifest.getPackage("patcher;v4").get());
+
+        final File firstFile = new File(tempDir, "first.lock");
+        final File secondFile = new File(tempDir, "second.lock");
+        first.write(firstFile);
+        second.write(secondFile);
+
+        final String contents = FileUtils.readFileToString(firstFile, StandardCharsets.UTF_8);
+        assertEquals(contents, FileUtils.readFileToString(secondFile, StandardCharsets.UTF_8));
+        assertTrue(contents.indexOf("build-tools") < contents.indexOf("patcher"));
+    }
+
+    @Test
+    void testRejectsMalformedFile() throws IOException {
+        final File file = new File(tempDir, "android-sdk.lock");
+        FileUtils.writeStringToFile(file, "package.emulator.revision=not-a-revision\n", StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> SdkLockFile.read(file));
+
+        FileUtils.writeStringToFile(file, "unexpected=entry\n", StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> SdkLockFile.read(file));
+    }
+}
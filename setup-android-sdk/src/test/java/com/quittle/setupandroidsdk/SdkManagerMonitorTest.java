@@ -0,0 +1,87 @@
+package com.quittle.setupandroidsdk;
+
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+class SdkManagerMonitorTest {
+    private static Process startShell(final String script) throws IOException {
+        assumeFalse(System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows"));
+        return new ProcessBuilder("sh", "-c", script).redirectErrorStream(true).start();
+    }
+
+    @Test
+    void testParseProgress() {
+        final SdkManagerMonitor.Progress progress =
+                SdkManagerMonitor.parseProgress("[=======                                ] 17% Downloading "
+                        + "build-tools_r30.0.3-linux.zip...  ").get();
+        assertEquals(17, progress.getPercent());
+        assertEquals("Downloading build-tools_r30.0.3-linux.zip...", progress.getMessage());
+
+        assertEquals(100, SdkManagerMonitor.parseProgress("[=======================================] 100% "
+                + "Unzipping... android-11/data/res").get().getPercent());
+        assertEquals("", SdkManagerMonitor.parseProgress("[   ] 0%").get().getMessage());
+        assertFalse(SdkManagerMonitor.parseProgress("Warning: Failed to read or create install properties file.")
+                .isPresent());
+        assertFalse(SdkManagerMonitor.parseProgress("[===] 101% Downloading").isPresent());
+        assertFalse(SdkManagerMonitor.parseProgress("").isPresent());
+    }
+
+    @Test
+    void testReturnsExitCode() throws IOException, InterruptedException {
+        final Process process = startShell(
+                "printf '[==    ] 10%% Downloading a.zip\\r[====  ] 50%% Downloading a.zip\\rdone\\n'; exit 3");
+        final OptionalInt exitCode =
+                new SdkManagerMonitor(Logging.getLogger(SdkManagerMonitorTest.class), 10_000).watch(process);
+        assertEquals(OptionalInt.of(3), exitCode);
+    }
+
+    @Test
+    void testKillsStalledProcess() throws IOException, InterruptedException {
+        // The sleep runs in a child of the shell, as java does for the sdkmanager script, holding the output open
+        final Process process = startShell("echo '[==    ] 10% Downloading a.zip'; sleep 60; echo never");
+        final long start = System.nanoTime();
+        final OptionalInt exitCode =
+                new SdkManagerMonitor(Logging.getLogger(SdkManagerMonitorTest.class), 300).watch(process);
+
+        assertEquals(OptionalInt.empty(), exitCode);
+        assertFalse(process.isAlive());
+        assertTrue(System.nanoTime() - start < 30_000_000_000L);
+    }
+
+    @Test
+    void testDoesNotKillProcessMakingProgress() throws IOException, InterruptedException {
+        final Process process = startShell("for i in 1 2 3 4 5 6; do echo \"[==    ] ${i}0% Downloading a.zip\"; "
+                + "sleep 0.2; done");
+        final OptionalInt exitCode =
+                new SdkManagerMonitor(Logging.getLogger(SdkManagerMonitorTest.class), 700).watch(process);
+        assertEquals(OptionalInt.of(0), exitCode);
+    }
+
+    @Test
+    void testDestroysProcessAndDescendants() throws Exception {
+        final Process process = startShell("sleep 60; echo never");
+        final long start = System.nanoTime();
+        while (process.children().count() == 0) {
+            assertTrue(System.nanoTime() - start < 10_000_000_000L);
+            Thread.sleep(10);
+        }
+        final List<ProcessHandle> descendants = process.descendants().collect(Collectors.toList());
+
+        SdkManagerMonitor.destroy(process);
+
+        assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        for (final ProcessHandle descendant : descendants) {
+            descendant.onExit().get(10, TimeUnit.SECONDS);
+        }
+    }
+}
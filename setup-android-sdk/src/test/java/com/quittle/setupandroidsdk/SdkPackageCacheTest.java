@@ -0,0 +1,74 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SdkPackageCacheTest {
+    @TempDir
+    File tempDir;
+
+    private static void installPackage(final File sdkRoot, final String packagePath, final int major)
+            throws IOException {
+        final File packageDirectory = Utils.getPackageDirectory(sdkRoot, packagePath);
+        FileUtils.writeStringToFile(new File(packageDirectory, "package.xml"),
+                "<ns2:repository xmlns:ns2=\"http://schemas.android.com/repository/android/common/01\">" +
+                "<license id=\"android-sdk-license\" type=\"text\">Terms</license>" +
+                "<localPackage path=\"" + packagePath + "\"><revision><major>" + major + "</major></revision>" +
+                "<uses-license ref=\"android-sdk-license\"/></localPackage></ns2:repository>",
+                StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(packageDirectory, "bin/tool"), "tool " + major, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testStoreAndMaterialize() throws IOException {
+        final File source = new File(tempDir, "source");
+        final File destination = new File(tempDir, "destination");
+        final SdkPackageCache cache = new SdkPackageCache(new File(tempDir, "cache"), Logging.getLogger(SdkPackageCacheTest.class));
+        installPackage(source, "emulator", 30);
+
+        assertFalse(cache.materialize("emulator", destination, true));
+        cache.store("emulator", new AndroidRevision(30), source);
+        assertTrue(cache.materialize("emulator", destination, true));
+
+        final File tool = new File(destination, "emulator/bin/tool");
+        assertEquals("tool 30", FileUtils.readFileToString(tool, StandardCharsets.UTF_8));
+        assertTrue(Files.isSameFile(cache.find("emulator").get().toPath().resolve("bin/tool"), tool.toPath()));
+        assertTrue(new InstalledPackageIndex(destination).isInstalled("emulator"));
+    }
+
+    @Test
+    void testFindsHighestRevision() throws IOException {
+        final SdkPackageCache cache = new SdkPackageCache(new File(tempDir, "cache"), Logging.getLogger(SdkPackageCacheTest.class));
+        for (final int major : new int[] { 29, 31, 30 }) {
+            final File sdkRoot = new File(tempDir, "sdk-" + major);
+            installPackage(sdkRoot, "emulator", major);
+            cache.store("emulator", new AndroidRevision(major), sdkRoot);
+        }
+
+        assertEquals("31.0.0", cache.find("emulator").get().getName());
+    }
+
+    @Test
+    void testRequiresAcceptedLicense() throws IOException {
+        final File source = new File(tempDir, "source");
+        final File destination = new File(tempDir, "destination");
+        final SdkPackageCache cache = new SdkPackageCache(new File(tempDir, "cache"), Logging.getLogger(SdkPackageCacheTest.class));
+        installPackage(source, "platforms;android-29", 5);
+        cache.store("platforms;android-29", new AndroidRevision(5), source);
+
+        assertFalse(cache.materialize("platforms;android-29", destination, false));
+
+        FileUtils.writeStringToFile(new File(destination, "licenses/android-sdk-license"),
+                "\n" + SdkLicenses.hash("Terms"), StandardCharsets.UTF_8);
+        assertTrue(cache.materialize("platforms;android-29", destination, false));
+    }
+}
@@ -0,0 +1,83 @@
+package com.quittle.setupandroidsdk;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SetupMetricsTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void testWritesReport() throws IOException {
+        final SetupMetrics metrics = new SetupMetrics();
+        try (final SetupMetrics.Phase phase = metrics.start("downloadSdkTools")) {
+            phase.addBytes(1234);
+        }
+        try (final SetupMetrics.Phase phase = metrics.start("installSdkManager")) {
+            phase.setCacheHit(true);
+        }
+        metrics.count("packagesSkipped", 2);
+
+        final SetupMetrics other = new SetupMetrics();
+        other.start("installSdkManager").close();
+        other.count("packagesSkipped", 1);
+        metrics.addAll(other);
+
+        final File report = new File(tempDir, "reports/setup-report.json");
+        metrics.writeReport(report, new File(tempDir, "sdk \"root\""));
+        final String json = FileUtils.readFileToString(report, StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\"formatVersion\": 1"), json);
+        assertTrue(json.contains("sdk \\\"root\\\"\",\n"), json);
+        assertTrue(json.contains("\"packagesSkipped\": 3"), json);
+        assertTrue(json.matches("(?s).*\"downloadSdkTools\": \\{ \"count\": 1, \"totalMillis\": [0-9.]+, "
+                + "\"cacheHits\": 0, \"bytes\": 1234 }.*"), json);
+        assertTrue(json.matches("(?s).*\"installSdkManager\": \\{ \"count\": 2, \"totalMillis\": [0-9.]+, "
+                + "\"cacheHits\": 1, \"bytes\": 0 }.*"), json);
+    }
+
+    @Test
+    void testWritesEmptyReport() throws IOException {
+        final File report = new File(tempDir, "setup-report.json");
+        new SetupMetrics().writeReport(report, tempDir);
+        final String json = FileUtils.readFileToString(report, StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\"counters\": {},"), json);
+        assertTrue(json.contains("\"phases\": {}"), json);
+    }
+
+    @Test
+    void testEmitsFlightRecorderEvents() throws IOException {
+        final File recordingFile = new File(tempDir, "recording.jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable(SetupPhaseEvent.class);
+            recording.start();
+            try (final SetupMetrics.Phase phase = new SetupMetrics().start("sdkmanager")) {
+                phase.setDetail("[platforms;android-30]").setCacheHit(false).addBytes(42);
+            }
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+        }
+
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile.toPath());
+        final RecordedEvent event = events.stream()
+                .filter(e -> "com.quittle.setupandroidsdk.SetupPhase".equals(e.getEventType().getName()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertEquals("sdkmanager", event.getString("phase"));
+        assertEquals("[platforms;android-30]", event.getString("detail"));
+        assertFalse(event.getBoolean("cacheHit"));
+        assertEquals(42, event.getLong("bytes"));
+    }
+}
@@ -0,0 +1,97 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagedInstallTest {
+    @TempDir
+    File tempDir;
+
+    private static File stage(final File sdkRoot, final String contents) throws IOException {
+        final File staged = StagedInstall.newStagingLocation(sdkRoot);
+        FileUtils.writeStringToFile(new File(staged, "bin/tool"), contents, StandardCharsets.UTF_8);
+        return staged;
+    }
+
+    private static String readTool(final File sdkRoot, final String path) throws IOException {
+        return FileUtils.readFileToString(
+                new File(Utils.getPackageDirectory(sdkRoot, path), "bin/tool"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testCommitReplacesPreviousInstall() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        StagedInstall.commit(stage(sdkRoot, "old"), sdkRoot, "build-tools;30.0.3", "30.0.3", "aaaa");
+        final File staged = stage(sdkRoot, "new");
+        FileUtils.writeStringToFile(new File(staged, "extra"), "extra", StandardCharsets.UTF_8);
+        StagedInstall.commit(staged, sdkRoot, "build-tools;30.0.3", "30.0.3", "bbbb");
+
+        assertEquals("new", readTool(sdkRoot, "build-tools;30.0.3"));
+        final StagedInstall.Marker marker =
+                StagedInstall.readMarker(new File(sdkRoot, "build-tools/30.0.3")).get();
+        assertEquals("build-tools;30.0.3", marker.getPath());
+        assertEquals("30.0.3", marker.getVersion());
+        assertEquals("bbbb", marker.getChecksum());
+        assertFalse(staged.exists());
+        assertArrayEquals(new String[0], StagedInstall.getTempDirectory(sdkRoot).list());
+    }
+
+    @Test
+    void testRecoverCommitsCompleteStagingDirectories() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        // An archive extracted and marked complete, but never renamed into place
+        final File extracted = StagedInstall.newStagingLocation(sdkRoot);
+        final File packageRoot = new File(extracted, "android-30");
+        FileUtils.writeStringToFile(new File(packageRoot, "bin/tool"), "complete", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(packageRoot, StagedInstall.MARKER_FILE),
+                "path=platforms;android-30\nchecksum=cccc\n", StandardCharsets.UTF_8);
+        // A partial extraction and a partial download left outside the downloads directory
+        stage(sdkRoot, "partial");
+        FileUtils.writeStringToFile(new File(StagedInstall.getTempDirectory(sdkRoot), "download.zip.part"),
+                "partial", StandardCharsets.UTF_8);
+
+        assertTrue(StagedInstall.recover(sdkRoot, Logging.getLogger(StagedInstallTest.class)));
+
+        assertEquals("complete", readTool(sdkRoot, "platforms;android-30"));
+        assertEquals("cccc", StagedInstall.readMarker(new File(sdkRoot, "platforms/android-30")).get().getChecksum());
+        assertArrayEquals(new String[0], StagedInstall.getTempDirectory(sdkRoot).list());
+    }
+
+    @Test
+    void testRecoverKeepsRecentPartialDownloads() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        final File recent = StagedInstall.getDownloadLocation(sdkRoot, "recent.zip.part");
+        FileUtils.writeStringToFile(recent, "partial", StandardCharsets.UTF_8);
+        final File abandoned = StagedInstall.getDownloadLocation(sdkRoot, "abandoned.zip.part");
+        FileUtils.writeStringToFile(abandoned, "partial", StandardCharsets.UTF_8);
+        assertTrue(abandoned.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8)));
+
+        assertFalse(StagedInstall.recover(sdkRoot, Logging.getLogger(StagedInstallTest.class)));
+
+        assertTrue(recent.exists());
+        assertFalse(abandoned.exists());
+    }
+
+    @Test
+    void testRecoverDiscardsStagingDirectoriesAlreadyCommitted() throws IOException {
+        final File sdkRoot = new File(tempDir, "sdk");
+        StagedInstall.commit(stage(sdkRoot, "installed"), sdkRoot, "emulator", null, "dddd");
+        final File leftover = stage(sdkRoot, "leftover");
+        FileUtils.writeStringToFile(new File(leftover, StagedInstall.MARKER_FILE),
+                "path=emulator\nchecksum=dddd\n", StandardCharsets.UTF_8);
+
+        assertFalse(StagedInstall.recover(sdkRoot, Logging.getLogger(StagedInstallTest.class)));
+
+        assertEquals("installed", readTool(sdkRoot, "emulator"));
+        assertFalse(leftover.exists());
+    }
+}
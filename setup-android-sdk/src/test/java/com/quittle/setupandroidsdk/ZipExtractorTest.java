@@ -0,0 +1,158 @@
+package com.quittle.setupandroidsdk;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ZipExtractorTest {
+    @TempDir
+    File tempDir;
+
+    private File createZip(final String... entryNames) throws IOException {
+        final File zip = new File(tempDir, "archive.zip");
+        try (final OutputStream os = Files.newOutputStream(zip.toPath());
+                final ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (final String name : entryNames) {
+                zos.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    zos.write(("contents of " + name).getBytes(StandardCharsets.UTF_8));
+                }
+                zos.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    @Test
+    void testExtractsAllEntries() throws IOException {
+        final String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "root/dir" + (i % 7) + "/file" + i;
+        }
+        final File destination = new File(tempDir, "out");
+        ZipExtractor.extract(createZip(names), destination);
+
+        for (final String name : names) {
+            assertEquals("contents of " + name,
+                    FileUtils.readFileToString(new File(destination, name), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testRejectsEntriesOutsideOfDestination() throws IOException {
+        final File zip = createZip("root/", "root/file", "../escaped");
+        final File destination = new File(tempDir, "out");
+
+        assertThrows(IOException.class, () -> ZipExtractor.extract(zip, destination));
+        assertFalse(new File(tempDir, "escaped").exists());
+    }
+
+    /**
+     * Writes an archive with the given contents by entry name, recording the given unix modes for some of them
+     */
+    private File createZip(final Map<String, String> entries, final Map<String, Integer> modes) throws IOException {
+        final File zip = new File(tempDir, "archive.zip");
+        try (final OutputStream os = Files.newOutputStream(zip.toPath());
+                final ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (final Map.Entry<String, String> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        ZipExtractor.writeUnixModes(zip, modes);
+        return zip;
+    }
+
+    private static Map<String, String> entries(final String... namesAndContents) {
+        final Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            entries.put(namesAndContents[i], namesAndContents[i + 1]);
+        }
+        return entries;
+    }
+
+    @Test
+    void testRestoresModesOfZip64Archives() throws IOException {
+        // More entries than the end of central directory record can count, so the archive is written as zip64. They
+        // all name the same directory to keep the extraction quick.
+        final Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 0x10000; i++) {
+            entries.put("root/" + i + "/../", "");
+        }
+        entries.put("root/bin/tool", "#!/bin/sh\n");
+        final File zip = createZip(entries, Collections.singletonMap("root/bin/tool", 0100755));
+        final File destination = new File(tempDir, "out");
+        ZipExtractor.extract(zip, destination);
+
+        final Path tool = destination.toPath().resolve("root/bin/tool");
+        assertEquals("#!/bin/sh\n", FileUtils.readFileToString(tool.toFile(), StandardCharsets.UTF_8));
+        assumeTrue(tool.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        assertTrue(Files.isExecutable(tool));
+    }
+
+    @Test
+    void testRejectsLinksOutsideOfDestination() throws IOException {
+        assumeTrue(tempDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        final File zip = createZip(entries("root/escape", "../../outside", "root/escape/file", "escaped"),
+                Collections.singletonMap("root/escape", 0120777));
+        final File destination = new File(tempDir, "out");
+
+        assertThrows(IOException.class, () -> ZipExtractor.extract(zip, destination));
+        assertFalse(new File(tempDir, "outside").exists());
+        assertFalse(Files.isSymbolicLink(destination.toPath().resolve("root/escape")));
+    }
+
+    @Test
+    void testRejectsAbsoluteLinks() throws IOException {
+        assumeTrue(tempDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        final File zip = createZip(entries("root/absolute", tempDir.getAbsolutePath()),
+                Collections.singletonMap("root/absolute", 0120777));
+        final File destination = new File(tempDir, "out");
+
+        assertThrows(IOException.class, () -> ZipExtractor.extract(zip, destination));
+        assertFalse(Files.isSymbolicLink(destination.toPath().resolve("root/absolute")));
+    }
+
+    @Test
+    void testRejectsLinksLeavingDestinationThroughOtherLinks() throws IOException {
+        assumeTrue(tempDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        final Map<String, Integer> modes = new HashMap<>();
+        modes.put("parent", 0120777);
+        modes.put("self", 0120777);
+        final File zip = createZip(entries("parent", "self/..", "self", "."), modes);
+        final File destination = new File(tempDir, "out");
+
+        assertThrows(IOException.class, () -> ZipExtractor.extract(zip, destination));
+        assertFalse(Files.isSymbolicLink(destination.toPath().resolve("parent")));
+    }
+
+    @Test
+    void testExtractsLinksWithinDestination() throws IOException {
+        assumeTrue(tempDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        final File zip = createZip(entries("root/lib/link", "../bin/tool", "root/bin/tool", "tool"),
+                Collections.singletonMap("root/lib/link", 0120777));
+        final File destination = new File(tempDir, "out");
+        ZipExtractor.extract(zip, destination);
+
+        assertEquals("tool", FileUtils.readFileToString(new File(destination, "root/lib/link"),
+                StandardCharsets.UTF_8));
+        assertTrue(Files.isSymbolicLink(destination.toPath().resolve("root/lib/link")));
+    }
+}